@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.benchmark;
+
+import com.codeferm.alarmbian.image.BufImgToMat;
+import com.codeferm.alarmbian.image.MatToBufImg;
+import com.codeferm.alarmbian.image.MatToImage;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Frame converters. BufImgToMat is measured for each BufferedImage type it copies differently: TYPE_3BYTE_BGR from MjpegIn,
+ * TYPE_INT_RGB and TYPE_4BYTE_ABGR. MatToImage encodes JPEG like history images.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ConvertBenchmark {
+
+    /**
+     * BufferedImage of each type BufImgToMat copies differently. Only bufImgToMat runs once per type.
+     */
+    @State(Scope.Thread)
+    public static class Image {
+
+        /**
+         * BufferedImage type.
+         */
+        @Param({"3BYTE_BGR", "INT_RGB", "4BYTE_ABGR"})
+        private String imageType;
+        /**
+         * Frame as BufferedImage of imageType.
+         */
+        private BufferedImage image;
+        /**
+         * BufferedImage to Mat.
+         */
+        private BufImgToMat bufImgToMat;
+
+        /**
+         * Draw frame of benchmark into image of imageType.
+         *
+         * @param benchmark Benchmark state with frame.
+         */
+        @Setup
+        public void setup(final ConvertBenchmark benchmark) {
+            final var bgr = benchmark.matToBufImg.execute(benchmark.mat);
+            image = new BufferedImage(bgr.getWidth(), bgr.getHeight(), switch (imageType) {
+                case "INT_RGB" ->
+                    BufferedImage.TYPE_INT_RGB;
+                case "4BYTE_ABGR" ->
+                    BufferedImage.TYPE_4BYTE_ABGR;
+                default ->
+                    BufferedImage.TYPE_3BYTE_BGR;
+            });
+            image.getGraphics().drawImage(bgr, 0, 0, null);
+            bufImgToMat = new BufImgToMat();
+            bufImgToMat.init(image);
+        }
+
+        /**
+         * Release native memory.
+         */
+        @TearDown
+        public void tearDown() {
+            bufImgToMat.done();
+        }
+    }
+
+    /**
+     * Frame resolution.
+     */
+    @Param({"640x480", "1280x720"})
+    private String resolution;
+    /**
+     * BGR frame.
+     */
+    private Mat mat;
+    /**
+     * Mat to BufferedImage.
+     */
+    private MatToBufImg matToBufImg;
+    /**
+     * Mat to JPEG.
+     */
+    private MatToImage matToImage;
+
+    /**
+     * Create frame and converters.
+     */
+    @Setup
+    public void setup() {
+        Frames.loadOpenCv();
+        mat = Frames.scene(Frames.size(resolution), 0);
+        matToBufImg = new MatToBufImg();
+        matToBufImg.init(mat);
+        matToImage = new MatToImage().setExtension(".jpg");
+        matToImage.init();
+    }
+
+    /**
+     * Release native memory.
+     */
+    @TearDown
+    public void tearDown() {
+        matToBufImg.done();
+        matToImage.done();
+        mat.release();
+    }
+
+    /**
+     * Copy Mat into BufferedImage.
+     *
+     * @return BufferedImage.
+     */
+    @Benchmark
+    public BufferedImage matToBufImg() {
+        return matToBufImg.execute(mat);
+    }
+
+    /**
+     * Copy BufferedImage into Mat.
+     *
+     * @param image BufferedImage state.
+     * @return Mat.
+     */
+    @Benchmark
+    public Mat bufImgToMat(final Image image) {
+        return image.bufImgToMat.execute(image.image);
+    }
+
+    /**
+     * Encode Mat as JPEG.
+     *
+     * @return JPEG bytes.
+     */
+    @Benchmark
+    public byte[] matToImage() {
+        return matToImage.execute(mat);
+    }
+}
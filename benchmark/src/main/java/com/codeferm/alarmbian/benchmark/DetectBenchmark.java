@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.benchmark;
+
+import com.codeferm.alarmbian.image.DeepStackDetector;
+import com.codeferm.alarmbian.image.DnnDetector;
+import com.codeferm.deepstack.Client;
+import com.codeferm.deepstack.Prediction;
+import com.codeferm.deepstack.stub.StubServer;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import feign.Feign;
+import feign.Retryer;
+import feign.form.spring.SpringFormEncoder;
+import feign.jackson.JacksonDecoder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.openfeign.support.SpringMvcContract;
+
+/**
+ * End to end object detection latency of one frame in process with DnnDetector and over HTTP with DeepStackDetector. The HTTP path
+ * is served by a local StubServer that answers after stubLatency milliseconds, so with the default of 0 the difference is the JPEG
+ * encode, multipart request and JSON response DnnDetector avoids, and a real Deepstack inference time can be set to compare with.
+ *
+ * DnnDetector needs the model and names files of detect.dnn.model and detect.dnn.names. They are passed with -p model=... -p
+ * names=... and the dnn benchmark fails in setup with a message saying so when the model is missing, while deepStack still runs.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DetectBenchmark {
+
+    /**
+     * DnnDetector with detect.dnn.* defaults.
+     */
+    @State(Scope.Thread)
+    public static class Dnn {
+
+        /**
+         * YOLO ONNX model, or Darknet weights with config set to the cfg file.
+         */
+        @Param("models/yolov5s.onnx")
+        private String model;
+        /**
+         * Darknet cfg file or empty.
+         */
+        @Param("")
+        private String config;
+        /**
+         * Class names file.
+         */
+        @Param("models/coco.names")
+        private String names;
+        /**
+         * Model input size in pixels.
+         */
+        @Param("640")
+        private int size;
+        /**
+         * Detector.
+         */
+        private DnnDetector detector;
+
+        /**
+         * Load model.
+         */
+        @Setup
+        public void setup() {
+            if (!Files.isRegularFile(Paths.get(model)) || !Files.isRegularFile(Paths.get(names))) {
+                throw new IllegalStateException(String.format("Skipping DnnDetector, model %s or names %s not found. Pass -p "
+                        + "model=... -p names=... in jmh.args to run it.", Paths.get(model).toAbsolutePath(), Paths.get(names).
+                        toAbsolutePath()));
+            }
+            Frames.loadOpenCv();
+            detector = new DnnDetector().setModel(model).setConfig(config).setNames(names).setSize(size).setConfidence(0.45f).
+                    setNms(0.45f);
+            detector.init();
+        }
+
+        /**
+         * Release detector.
+         */
+        @TearDown
+        public void tearDown() {
+            if (detector != null) {
+                detector.done();
+            }
+        }
+    }
+
+    /**
+     * DeepStackDetector calling a local StubServer.
+     */
+    @State(Scope.Thread)
+    public static class Http {
+
+        /**
+         * Stub inference time in milliseconds.
+         */
+        @Param("0")
+        private double stubLatency;
+        /**
+         * Stub server.
+         */
+        private StubServer stub;
+        /**
+         * Detector.
+         */
+        private DeepStackDetector detector;
+
+        /**
+         * Start stub and create detector with the Feign Client.
+         */
+        @Setup
+        public void setup() {
+            Frames.loadOpenCv();
+            stub = new StubServer(0).setMedian(stubLatency).setSigma(0.0);
+            stub.start();
+            final var mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+            final var client = Feign.builder().contract(new SpringMvcContract()).encoder(new SpringFormEncoder()).decoder(
+                    new JacksonDecoder(mapper)).retryer(Retryer.NEVER_RETRY).target(Client.class, String.format("%s/v1/vision",
+                    stub.getUrl()));
+            detector = new DeepStackDetector().setClient(client).setExtension(".jpg");
+            detector.init();
+        }
+
+        /**
+         * Release detector and stop stub.
+         */
+        @TearDown
+        public void tearDown() {
+            detector.done();
+            stub.stop();
+        }
+    }
+
+    /**
+     * Frame resolution.
+     */
+    @Param({"640x480", "1280x720"})
+    private String resolution;
+    /**
+     * Frame to detect.
+     */
+    private Mat frame;
+
+    /**
+     * Create frame.
+     */
+    @Setup
+    public void setup() {
+        Frames.loadOpenCv();
+        frame = Frames.scene(Frames.size(resolution), 0);
+    }
+
+    /**
+     * Release frame.
+     */
+    @TearDown
+    public void tearDown() {
+        frame.release();
+    }
+
+    /**
+     * Detect in process.
+     *
+     * @param dnn DnnDetector state.
+     * @return Predictions.
+     */
+    @Benchmark
+    public List<Prediction> dnn(final Dnn dnn) {
+        return dnn.detector.detect(frame);
+    }
+
+    /**
+     * Detect over HTTP.
+     *
+     * @param http DeepStackDetector state.
+     * @return Predictions.
+     */
+    @Benchmark
+    public List<Prediction> deepStack(final Http http) {
+        return http.detector.detect(frame);
+    }
+}
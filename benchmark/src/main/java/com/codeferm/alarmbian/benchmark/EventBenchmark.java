@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.benchmark;
+
+import com.codeferm.alarmbian.EventData;
+import com.codeferm.alarmbian.type.EventType;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Publishing a Mat frame as EventData through Spring events. Listeners use the same SpEL conditions as MotionDetect and friends,
+ * so condition evaluation and generic type matching are part of the cost.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EventBenchmark {
+
+    /**
+     * Listeners for frame and other event types like the server components.
+     */
+    public static class Listener {
+
+        /**
+         * Sink for received frames.
+         */
+        private Blackhole blackhole;
+
+        /**
+         * Frame listener.
+         *
+         * @param event Frame.
+         */
+        @EventListener(condition = "#event.eventType.name == 'MAT_FRAME'")
+        public void handleFrame(final EventData<Mat> event) {
+            blackhole.consume(event.getData());
+        }
+
+        /**
+         * Motion frame listener.
+         *
+         * @param event Frame.
+         */
+        @EventListener(condition = "#event.eventType.name == 'MOTION_FRAME'")
+        public void handleMotion(final EventData<Mat> event) {
+            blackhole.consume(event.getData());
+        }
+
+        /**
+         * Frame error listener.
+         *
+         * @param event Error.
+         */
+        @EventListener(condition = "#event.eventType.name == 'FRAME_ERROR'")
+        public void handleError(final EventData<String> event) {
+            blackhole.consume(event.getData());
+        }
+    }
+
+    /**
+     * Context with listeners.
+     */
+    private AnnotationConfigApplicationContext context;
+    /**
+     * Frame to publish.
+     */
+    private Mat mat;
+
+    /**
+     * Create context and frame.
+     *
+     * @param blackhole Sink for received frames.
+     */
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        Frames.loadOpenCv();
+        context = new AnnotationConfigApplicationContext(Listener.class);
+        context.getBean(Listener.class).blackhole = blackhole;
+        mat = Frames.scene(Frames.size("640x480"), 0);
+    }
+
+    /**
+     * Close context and release frame.
+     */
+    @TearDown
+    public void tearDown() {
+        context.close();
+        mat.release();
+    }
+
+    /**
+     * Publish frame.
+     */
+    @Benchmark
+    public void publish() {
+        context.publishEvent(new EventData<>(EventType.MAT_FRAME, Instant.now(), mat));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.benchmark;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Synthetic camera frames. Each step moves a white block across a gray scene, so motion stays under motion.max.change and
+ * JPEG sizes are close to a real scene with a little motion.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class Frames {
+
+    /**
+     * Utility class.
+     */
+    private Frames() {
+    }
+
+    /**
+     * Load the OpenCV system library from java.library.path.
+     */
+    static void loadOpenCv() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    /**
+     * Parse resolution.
+     *
+     * @param resolution Width x height like 640x480.
+     * @return Size.
+     */
+    static Size size(final String resolution) {
+        final var parts = resolution.split("x");
+        return new Size(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    /**
+     * Create BGR frame.
+     *
+     * @param size Frame size.
+     * @param step Position of moving block.
+     * @return Frame.
+     */
+    static Mat scene(final Size size, final int step) {
+        final var mat = new Mat(size, CvType.CV_8UC3, new Scalar(96, 96, 96));
+        final var width = (int) size.width / 8;
+        final var height = (int) size.height / 8;
+        final var x = (int) size.width / 4 + step * width / 2;
+        final var y = (int) size.height / 3;
+        Imgproc.rectangle(mat, new Point(x, y), new Point(x + width, y + height), new Scalar(255, 255, 255), -1);
+        return mat;
+    }
+
+    /**
+     * Encode frame as JPEG.
+     *
+     * @param mat Frame.
+     * @return JPEG bytes.
+     */
+    static byte[] jpeg(final Mat mat) {
+        final var buffer = new MatOfByte();
+        Imgcodecs.imencode(".jpg", mat, buffer);
+        final var bytes = buffer.toArray();
+        buffer.release();
+        return bytes;
+    }
+}
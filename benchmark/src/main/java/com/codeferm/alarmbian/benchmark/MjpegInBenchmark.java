@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.benchmark;
+
+import com.codeferm.alarmbian.image.MjpegIn;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MjpegIn parsing a recorded multipart stream. The stream is recorded at setup from synthetic frames in the same format a camera
+ * sends and replayed forever, so only parsing and decoding are measured.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MjpegInBenchmark {
+
+    /**
+     * Replays bytes from the start when the end is reached.
+     */
+    private static final class LoopInputStream extends InputStream {
+
+        /**
+         * Recorded stream.
+         */
+        private final byte[] bytes;
+        /**
+         * Next byte.
+         */
+        private int pos;
+
+        /**
+         * Wrap recorded stream.
+         *
+         * @param bytes Recorded stream.
+         */
+        private LoopInputStream(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            if (pos == bytes.length) {
+                pos = 0;
+            }
+            return bytes[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (pos == bytes.length) {
+                pos = 0;
+            }
+            final var count = Math.min(len, bytes.length - pos);
+            System.arraycopy(bytes, pos, b, off, count);
+            pos += count;
+            return count;
+        }
+    }
+
+    /**
+     * Frame resolution.
+     */
+    @Param({"640x480", "1280x720"})
+    private String resolution;
+    /**
+     * MJPEG reader.
+     */
+    private MjpegIn mjpegIn;
+
+    /**
+     * Record stream and open reader.
+     */
+    @Setup
+    public void setup() {
+        Frames.loadOpenCv();
+        final var size = Frames.size(resolution);
+        final var out = new ByteArrayOutputStream();
+        for (var i = 0; i < 8; i++) {
+            final var mat = Frames.scene(size, i);
+            final var jpeg = Frames.jpeg(mat);
+            mat.release();
+            out.writeBytes(String.format("--boundary\r\nContent-Type: image/jpeg\r\nContent-Length: %d\r\n\r\n", jpeg.length).
+                    getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(jpeg);
+            out.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        mjpegIn = new MjpegIn();
+        mjpegIn.open(new LoopInputStream(out.toByteArray()));
+    }
+
+    /**
+     * Close reader.
+     */
+    @TearDown
+    public void tearDown() {
+        mjpegIn.close();
+    }
+
+    /**
+     * Parse headers and read JPEG bytes of next frame.
+     *
+     * @return JPEG bytes.
+     */
+    @Benchmark
+    public byte[] parse() {
+        return mjpegIn.getFrameRaw(mjpegIn.getFrameLength());
+    }
+
+    /**
+     * Parse and decode next frame like Mainstream does.
+     *
+     * @return Frame.
+     */
+    @Benchmark
+    public BufferedImage decode() {
+        return mjpegIn.getFrame();
+    }
+}
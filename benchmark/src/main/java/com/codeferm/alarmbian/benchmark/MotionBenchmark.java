@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.benchmark;
+
+import com.codeferm.alarmbian.image.Motion;
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Motion.detect per frame with the default motion.* properties. Frames alternate, so every call finds a little motion like a
+ * live camera.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MotionBenchmark {
+
+    /**
+     * Frame resolution.
+     */
+    @Param({"320x240", "640x480", "1280x720", "1920x1080"})
+    private String resolution;
+    /**
+     * Motion detector.
+     */
+    private Motion motion;
+    /**
+     * Frames to detect.
+     */
+    private Mat[] frames;
+    /**
+     * Next frame.
+     */
+    private int index;
+
+    /**
+     * Create frames and detector.
+     */
+    @Setup
+    public void setup() {
+        Frames.loadOpenCv();
+        final var size = Frames.size(resolution);
+        frames = new Mat[]{Frames.scene(size, 0), Frames.scene(size, 1)};
+        motion = new Motion().setkSize(new Size(8, 8)).setAlpha(0.03).setBlackThreshold(25.0).setMaxThreshold(255.0).
+                setMaxChange(25.0).setStartThreshold(1.0).setStopThreshold(0.0);
+        motion.init(frames[0]);
+    }
+
+    /**
+     * Release native memory.
+     */
+    @TearDown
+    public void tearDown() {
+        motion.done();
+        for (final var frame : frames) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Detect motion in next frame.
+     *
+     * @return Motion percent.
+     */
+    @Benchmark
+    public double detect() {
+        motion.detect(frames[index++ & 1]);
+        return motion.getMotionPercent();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.benchmark;
+
+import com.codeferm.alarmbian.dao.EventDao;
+import com.codeferm.alarmbian.dao.FrameDao;
+import com.codeferm.alarmbian.entity.Detection;
+import com.codeferm.alarmbian.entity.Event;
+import com.codeferm.alarmbian.entity.Frame;
+import com.codeferm.alarmbian.service.EventService;
+import com.codeferm.alarmbian.service.FrameService;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.data.jdbc.repository.config.EnableJdbcRepositories;
+
+/**
+ * EventService.create and FrameService.createAll against H2 in process with the server's application.properties and schema.sql.
+ * Only DAOs and services are started, so nothing else writes to the database. The database is a new file in the temp directory.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistBenchmark {
+
+    /**
+     * DAOs and services of the server.
+     */
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    @EnableJdbcRepositories(basePackageClasses = FrameDao.class)
+    @ComponentScan(basePackageClasses = {EventDao.class, EventService.class})
+    public static class Config {
+    }
+
+    /**
+     * Device events and frames belong to.
+     */
+    private static final String DEVICE_NAME = "benchmark";
+    /**
+     * Database file without extension.
+     */
+    private Path dbPath;
+    /**
+     * Context with DAOs and services.
+     */
+    private ConfigurableApplicationContext context;
+    /**
+     * Event service.
+     */
+    private EventService eventService;
+    /**
+     * Frame service.
+     */
+    private FrameService frameService;
+    /**
+     * Frames of one history event with detections.
+     */
+    private List<Frame> frames;
+
+    /**
+     * Create database and frames.
+     */
+    @Setup
+    public void setup() {
+        try {
+            dbPath = Files.createTempDirectory("benchmark").resolve("benchmark");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // Open H2 in process instead of the default H2 server JVM
+        context = new SpringApplicationBuilder(Config.class).web(WebApplicationType.NONE).run(String.format("--h2.path=%s",
+                dbPath), "--spring.datasource.url=jdbc:h2:nio:${h2.path};WRITE_DELAY=${h2.write.delay};"
+                + "CACHE_SIZE=${h2.cache.size};MAX_COMPACT_TIME=${h2.compact.time};DB_CLOSE_ON_EXIT=FALSE");
+        eventService = context.getBean(EventService.class);
+        frameService = context.getBean(FrameService.class);
+        final var now = System.currentTimeMillis();
+        final var event = eventService.create(new Event(DEVICE_NAME, "HISTORY_START", null, new Timestamp(now)));
+        // 1000 frames with 10 detections each
+        frames = new ArrayList<>();
+        for (var i = 0; i < 1000; i++) {
+            final var frame = new Frame(event.getId(), new Timestamp(now + i * 100L));
+            for (var j = 0; j < 10; j++) {
+                frame.addDetection(new Detection(null, "person", 0.9, j * 10, j * 10, j * 10 + 100, j * 10 + 50));
+            }
+            frames.add(frame);
+        }
+    }
+
+    /**
+     * Close context and delete database.
+     */
+    @TearDown
+    public void tearDown() {
+        context.close();
+        try (final var files = Files.list(dbPath.getParent())) {
+            for (final var file : files.toList()) {
+                Files.delete(file);
+            }
+            Files.delete(dbPath.getParent());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create one motion event in its own transaction like EventWriter.
+     *
+     * @return Event with identity.
+     */
+    @Benchmark
+    public Event eventCreate() {
+        return eventService.create(new Event(DEVICE_NAME, "MOTION_START", null, new Timestamp(System.currentTimeMillis())));
+    }
+
+    /**
+     * Create 1000 frames and 10000 detections in one transaction.
+     *
+     * @return Frames with identity.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Frame> frameCreateAll() {
+        return frameService.createAll(DEVICE_NAME, frames);
+    }
+}
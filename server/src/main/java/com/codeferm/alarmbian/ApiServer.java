@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian;
+
+import com.codeferm.alarmbian.dao.HistoryDao;
+import com.codeferm.alarmbian.entity.Event;
+import com.codeferm.alarmbian.entity.Frame;
+import com.codeferm.alarmbian.service.EventService;
+import com.codeferm.alarmbian.service.FrameService;
+import com.codeferm.alarmbian.service.RollupService;
+import com.codeferm.alarmbian.type.EventType;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Read only REST API for event and frame history on the JDK HTTP server. Each request runs on its own virtual thread, so a slow
+ * client only parks a virtual thread while it holds a pooled JDBC connection. Only api.queries requests query at once, so slow
+ * or parallel clients cannot take the connections ingest writes need.
+ *
+ * GET /api/events and /api/frames take device (device.name if missing), type (comma separated event types), label, confidence
+ * (minimum), from and to (ISO local date time like 2024-01-01T10:00:00), after (next from previous page) and limit. Results are
+ * in time and ID order and written as chunked JSON while rows are read, like {"events":[...],"next":"2024-01-01T10:00_42"}. next
+ * is null on the last page. GET /api/hours takes device, label, from and to and returns RollupDao detection and motion hours.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Component
+@Slf4j
+public class ApiServer {
+
+    /**
+     * Writes fields of response object.
+     */
+    @FunctionalInterface
+    private interface Body {
+
+        /**
+         * Write fields.
+         *
+         * @param filter Request filter.
+         * @param json JSON generator.
+         * @throws IOException Possible exception.
+         */
+        void write(HistoryDao.Filter filter, JsonGenerator json) throws IOException;
+    }
+
+    /**
+     * JSON factory is thread safe.
+     */
+    private static final JsonFactory JSON = new JsonFactory();
+    /**
+     * Event service.
+     */
+    @Autowired
+    private EventService eventService;
+    /**
+     * Frame service.
+     */
+    @Autowired
+    private FrameService frameService;
+    /**
+     * Rollup service.
+     */
+    @Autowired
+    private RollupService rollupService;
+    /**
+     * Enabled flag.
+     */
+    @Value("${api.enabled}")
+    private boolean enabled;
+    /**
+     * Address to bind to.
+     */
+    @Value("${api.host}")
+    private String host;
+    /**
+     * Port to listen on.
+     */
+    @Value("${api.port}")
+    private int port;
+    /**
+     * Default page size.
+     */
+    @Value("${api.limit}")
+    private int limit;
+    /**
+     * Largest page size.
+     */
+    @Value("${api.max.limit}")
+    private int maxLimit;
+    /**
+     * Queries at once.
+     */
+    @Value("${api.queries}")
+    private int queries;
+    /**
+     * Milliseconds to wait for a query permit.
+     */
+    @Value("${api.query.wait}")
+    private long queryWait;
+    /**
+     * Query permits.
+     */
+    private Semaphore permits;
+    /**
+     * Default device name.
+     */
+    @Value("${device.name}")
+    private String deviceName;
+    /**
+     * HTTP server.
+     */
+    private HttpServer server;
+    /**
+     * Virtual thread per request.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Start server.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        if (enabled) {
+            permits = new Semaphore(queries, true);
+            try {
+                server = HttpServer.create(new InetSocketAddress(host, port), 0);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            server.createContext("/api/events", exchange -> handle(exchange, (filter, json) -> {
+                json.writeArrayFieldStart("events");
+                final var next = eventService.page(filter, event -> writeEvent(json, event));
+                json.writeEndArray();
+                json.writeStringField("next", next == null ? null : next.toString());
+            }));
+            server.createContext("/api/frames", exchange -> handle(exchange, (filter, json) -> {
+                json.writeArrayFieldStart("frames");
+                final var next = frameService.page(filter, frame -> writeFrame(json, frame));
+                json.writeEndArray();
+                json.writeStringField("next", next == null ? null : next.toString());
+            }));
+            server.createContext("/api/hours", exchange -> handle(exchange, this::writeHours));
+            executor = Executors.newVirtualThreadPerTaskExecutor();
+            server.setExecutor(executor);
+            server.start();
+            log.info(String.format("API at http://%s:%d/api", host, port));
+        }
+    }
+
+    /**
+     * Stop server.
+     */
+    @PreDestroy
+    public void done() {
+        log.debug("done");
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Decode query string. Later values replace earlier ones.
+     *
+     * @param query Raw query or null.
+     * @return Parameters.
+     */
+    private static Map<String, String> params(final String query) {
+        final var map = new HashMap<String, String>();
+        if (query != null) {
+            for (final var param : query.split("&")) {
+                final var index = param.indexOf('=');
+                if (index > 0) {
+                    map.put(URLDecoder.decode(param.substring(0, index), StandardCharsets.UTF_8), URLDecoder.decode(param.
+                            substring(index + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Parse time parameter.
+     *
+     * @param value ISO local date time or null.
+     * @return Timestamp or null.
+     */
+    private static Timestamp time(final String value) {
+        return value == null ? null : Timestamp.valueOf(LocalDateTime.parse(value));
+    }
+
+    /**
+     * Build page filter from parameters.
+     *
+     * @param params Parameters.
+     * @return Filter.
+     */
+    private HistoryDao.Filter filter(final Map<String, String> params) {
+        // Unknown types are rejected instead of returning an empty page
+        final var types = params.containsKey("type") ? Arrays.stream(params.get("type").split(",")).map(String::trim).map(
+                type -> EventType.valueOf(type).name()).toList() : List.<String>of();
+        final var confidence = params.containsKey("confidence") ? Double.valueOf(params.get("confidence")) : null;
+        final var after = params.containsKey("after") ? HistoryDao.Cursor.parse(params.get("after")) : null;
+        final var size = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : limit;
+        if (size < 1 || size > maxLimit) {
+            throw new IllegalArgumentException(String.format("limit must be 1 to %d", maxLimit));
+        }
+        return new HistoryDao.Filter(params.getOrDefault("device", deviceName), types, params.get("label"), confidence, time(
+                params.get("from")), time(params.get("to")), after, size);
+    }
+
+    /**
+     * Handle request. Bad parameters get a 400 response and no query permit within api.query.wait a 503. Once the 200 response
+     * started an error can only close it, so the client sees truncated JSON.
+     *
+     * @param exchange HTTP exchange.
+     * @param body Writes fields of response object.
+     * @throws IOException Possible exception.
+     */
+    private void handle(final HttpExchange exchange, final Body body) throws IOException {
+        try (exchange) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (!exchange.getRequestMethod().equals("GET")) {
+                error(exchange, 405, "GET only");
+                return;
+            }
+            final HistoryDao.Filter filter;
+            try {
+                filter = filter(params(exchange.getRequestURI().getRawQuery()));
+            } catch (IllegalArgumentException | DateTimeException e) {
+                error(exchange, 400, e.getMessage());
+                return;
+            }
+            try {
+                if (!permits.tryAcquire(queryWait, TimeUnit.MILLISECONDS)) {
+                    error(exchange, 503, "Too many queries, try again later");
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error(exchange, 503, "Interrupted");
+                return;
+            }
+            try {
+                // Length 0 is chunked
+                exchange.sendResponseHeaders(200, 0);
+                try (final var json = JSON.createGenerator(exchange.getResponseBody())) {
+                    json.writeStartObject();
+                    body.write(filter, json);
+                    json.writeEndObject();
+                } catch (IOException | RuntimeException e) {
+                    log.error(String.format("API %s failed: %s", exchange.getRequestURI(), e.getMessage()));
+                }
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Send error response.
+     *
+     * @param exchange HTTP exchange.
+     * @param status HTTP status.
+     * @param message Error message.
+     * @throws IOException Possible exception.
+     */
+    private static void error(final HttpExchange exchange, final int status, final String message) throws IOException {
+        exchange.sendResponseHeaders(status, 0);
+        try (final var json = JSON.createGenerator(exchange.getResponseBody())) {
+            json.writeStartObject();
+            json.writeStringField("error", message);
+            json.writeEndObject();
+        }
+    }
+
+    /**
+     * Write hourly rollups. The range defaults to the last seven days.
+     *
+     * @param filter Request filter.
+     * @param json JSON generator.
+     * @throws IOException Possible exception.
+     */
+    private void writeHours(final HistoryDao.Filter filter, final JsonGenerator json) throws IOException {
+        final var to = filter.to() == null ? LocalDateTime.now() : filter.to().toLocalDateTime();
+        final var from = filter.from() == null ? to.minus(7, ChronoUnit.DAYS) : filter.from().toLocalDateTime();
+        json.writeArrayFieldStart("detections");
+        for (final var hour : rollupService.findDetections(filter.deviceName(), filter.label(), Timestamp.valueOf(from), Timestamp.
+                valueOf(to))) {
+            json.writeStartObject();
+            json.writeStringField("hour", hour.hour().toLocalDateTime().toString());
+            json.writeStringField("label", hour.label());
+            json.writeNumberField("detections", hour.detections());
+            json.writeNumberField("maxConfidence", hour.maxConfidence());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeArrayFieldStart("motion");
+        for (final var hour : rollupService.findMotion(filter.deviceName(), Timestamp.valueOf(from), Timestamp.valueOf(to))) {
+            json.writeStartObject();
+            json.writeStringField("hour", hour.hour().toLocalDateTime().toString());
+            json.writeNumberField("motions", hour.motions());
+            json.writeNumberField("duration", hour.duration());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+
+    /**
+     * Write event.
+     *
+     * @param json JSON generator.
+     * @param event Event.
+     */
+    private static void writeEvent(final JsonGenerator json, final Event event) {
+        try {
+            json.writeStartObject();
+            json.writeNumberField("id", event.getId());
+            json.writeStringField("deviceName", event.getDeviceName());
+            json.writeStringField("eventType", event.getEventType());
+            json.writeStringField("eventData", event.getEventData());
+            json.writeStringField("eventTime", event.getEventTime().toLocalDateTime().toString());
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write frame and its detections.
+     *
+     * @param json JSON generator.
+     * @param frame Frame.
+     */
+    private static void writeFrame(final JsonGenerator json, final Frame frame) {
+        try {
+            json.writeStartObject();
+            json.writeNumberField("id", frame.getId());
+            json.writeNumberField("eventId", frame.getEventId());
+            json.writeStringField("frameTime", frame.getFrameTime().toLocalDateTime().toString());
+            json.writeArrayFieldStart("detections");
+            for (final var detection : frame.getDetections()) {
+                json.writeStartObject();
+                json.writeStringField("label", detection.getLabel());
+                json.writeNumberField("confidence", detection.getConfidence());
+                json.writeNumberField("yMin", detection.getYMin());
+                json.writeNumberField("xMin", detection.getXMin());
+                json.writeNumberField("yMax", detection.getYMax());
+                json.writeNumberField("xMax", detection.getXMax());
+                if (detection.getTrackId() != null) {
+                    json.writeNumberField("trackId", detection.getTrackId());
+                }
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
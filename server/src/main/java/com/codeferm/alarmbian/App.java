@@ -3,7 +3,6 @@
  */
 package com.codeferm.alarmbian;
 
-import com.codeferm.alarmbian.service.EventService;
 import com.codeferm.alarmbian.entity.Event;
 import com.codeferm.alarmbian.image.BufImgToMat;
 import static com.codeferm.alarmbian.type.EventType.FRAME_ERROR;
@@ -49,7 +48,7 @@ public class App {
      * Persist events.
      */
     @Autowired
-    private EventService eventService;
+    private EventWriter eventWriter;
     /**
      * Substream acquires frames to analyze for motion or AI.
      */
@@ -129,7 +128,7 @@ public class App {
      * @param event Event.
      */
     public void saveEvent(final EventData event) {
-        eventService.create(new Event(deviceName, event.getEventType().name(), (String) event.getData(), Timestamp.from(event.
+        eventWriter.write(new Event(deviceName, event.getEventType().name(), (String) event.getData(), Timestamp.from(event.
                 getTimestamp())));
     }
 
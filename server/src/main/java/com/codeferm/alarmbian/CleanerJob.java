@@ -3,16 +3,24 @@
  */
 package com.codeferm.alarmbian;
 
+import com.codeferm.alarmbian.dao.EventDao;
+import com.codeferm.alarmbian.dao.HistoryDao;
 import com.codeferm.alarmbian.service.EventService;
 import com.codeferm.alarmbian.entity.Event;
+import com.codeferm.alarmbian.entity.Segment;
+import com.codeferm.alarmbian.service.SegmentService;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Timestamp;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
@@ -23,7 +31,12 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 
 /**
- * Clean up files, directories and database records based on age.
+ * Clean up files, directories and database records based on age, then let Retention evict segments for quotas and free space.
+ *
+ * Expired rows are read in keyset chunks of device.clean.chunk rows, their files are deleted in parallel by device.clean.threads
+ * threads and then the chunk's rows are deleted in their own short transaction. Nothing is held for the whole run, so a clean
+ * that is interrupted by a restart continues with the rows that are left on the next run. Files that are already gone are
+ * logged and their rows are still deleted.
  *
  * See https://docs.oracle.com/javase/8/docs/api/java/time/Duration.html?is-external=true#parse-java.lang.CharSequence-
  *
@@ -46,11 +59,35 @@ public class CleanerJob {
      */
     @Value("${device.clean.age}")
     private Long age;
+    /**
+     * Rows read per chunk.
+     */
+    @Value("${device.clean.chunk}")
+    private int chunk;
+    /**
+     * File delete threads.
+     */
+    @Value("${device.clean.threads}")
+    private int threads;
     /**
      * Persist events.
      */
     @Autowired
     private EventService eventService;
+    /**
+     * Persist segments.
+     */
+    @Autowired
+    private SegmentService segmentService;
+    /**
+     * Quota and free space retention.
+     */
+    @Autowired
+    private Retention retention;
+    /**
+     * Deletes files of a chunk.
+     */
+    private ExecutorService executor;
 
     /**
      * Initialize bean.
@@ -58,6 +95,7 @@ public class CleanerJob {
     @PostConstruct
     public void init() {
         log.debug("init");
+        executor = Executors.newFixedThreadPool(threads);
     }
 
     /**
@@ -66,6 +104,7 @@ public class CleanerJob {
     @PreDestroy
     public void done() {
         log.debug("done");
+        executor.shutdown();
     }
 
     /**
@@ -75,22 +114,40 @@ public class CleanerJob {
      * @return Unique dirs.
      */
     public Set<String> deleteFiles(final List<Event> list) {
-        log.info(String.format("Deleting %d files", list.size()));
-        final var set = new HashSet<String>();
-        list.forEach(event -> {
-            final var fileName = event.getEventData();
+        return deleteFileNames(list.stream().map(Event::getEventData).toList());
+    }
+
+    /**
+     * Delete files in parallel and return set of dirs. A file that cannot be deleted is logged, so one bad file does not stop the
+     * clean.
+     *
+     * @param list File names.
+     * @return Unique dirs.
+     */
+    public Set<String> deleteFileNames(final List<String> list) {
+        final var set = ConcurrentHashMap.<String>newKeySet();
+        final var tasks = list.stream().map(fileName -> (Callable<Void>) () -> {
             try {
-                final var result = Files.deleteIfExists(Paths.get(fileName));
-                if (!result) {
-                    log.error(String.format("Error deleting %s", fileName));
+                if (!Files.deleteIfExists(Paths.get(fileName))) {
+                    log.warn(String.format("%s not found", fileName));
                 }
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                log.error(String.format("Error deleting %s: %s", fileName, e.getMessage()));
             }
             // Add dir to set
-            final var dir = fileName.substring(0, fileName.lastIndexOf(File.separator));
-            set.add(dir);
-        });
+            set.add(fileName.substring(0, fileName.lastIndexOf(File.separator)));
+            return null;
+        }).toList();
+        try {
+            for (final var future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
         return set;
     }
 
@@ -110,18 +167,82 @@ public class CleanerJob {
         });
     }
 
+    /**
+     * Clean event files and rows one chunk at a time, then drop expired partitions. Only rows with files are read from partitions
+     * and their rows go with the dropped table.
+     *
+     * @param timestamp Cutoff.
+     * @param dirs Gets dirs of deleted files.
+     * @return Records and files deleted.
+     */
+    private long[] cleanEvents(final Timestamp timestamp, final Set<String> dirs) {
+        final var totals = new long[2];
+        for (final var table : eventService.expiredTables(deviceName, timestamp)) {
+            final var partition = !table.equals("EVENT");
+            HistoryDao.Cursor after = null;
+            List<Event> list;
+            do {
+                list = eventService.findExpired(table, deviceName, timestamp, after, chunk, partition);
+                if (!list.isEmpty()) {
+                    final var files = list.stream().filter(event -> EventDao.FILE_TYPES.contains(event.getEventType()) && event.
+                            getEventData() != null).toList();
+                    dirs.addAll(deleteFiles(files));
+                    // Rows go after their files, so a restart never leaves files that no row points to
+                    if (!partition) {
+                        totals[0] += eventService.deleteAll(table, list);
+                    }
+                    totals[1] += files.size();
+                    final var last = list.get(list.size() - 1);
+                    after = new HistoryDao.Cursor(last.getEventTime(), last.getId());
+                    log.info(String.format("%s chunk: %d records, %d files deleted up to %s", table, partition ? 0 : list.size(),
+                            files.size(), last.getEventTime()));
+                }
+            } while (list.size() == chunk);
+        }
+        totals[0] += eventService.dropExpired(deviceName, timestamp);
+        return totals;
+    }
+
+    /**
+     * Clean segment files and rows one chunk at a time.
+     *
+     * @param timestamp Cutoff.
+     * @param dirs Gets dirs of deleted files.
+     * @return Segments deleted.
+     */
+    private long cleanSegments(final Timestamp timestamp, final Set<String> dirs) {
+        var count = 0L;
+        List<Segment> list;
+        do {
+            // Deleted rows drop out of the next query, so no cursor is needed
+            list = segmentService.findByTime(deviceName, timestamp, chunk);
+            if (!list.isEmpty()) {
+                dirs.addAll(deleteFileNames(list.stream().map(Segment::getFileName).toList()));
+                segmentService.deleteAll(list);
+                count += list.size();
+                log.info(String.format("Segment chunk: %d deleted up to %s", list.size(), list.get(list.size() - 1).
+                        getStartTime()));
+            }
+        } while (list.size() == chunk);
+        return count;
+    }
+
     /**
      * Clean files, dirs and DB records.
      */
     @Scheduled(fixedDelayString = "${device.clean.runtime}", initialDelayString = "${device.clean.runtime}")
     public void clean() {
-        final var timestamp = new Timestamp(System.currentTimeMillis() - age);
-        final var list = eventService.findByTime(deviceName, timestamp);
-        if (!list.isEmpty()) {
-            deleteEmptyDirs(deleteFiles(list));
-            log.info(String.format("%d records deleted", eventService.deleteByTime(deviceName, timestamp)));
-        } else {
-            log.info("No files to delete");
-        }
+        final var start = System.currentTimeMillis();
+        final var timestamp = new Timestamp(start - age);
+        final var dirs = ConcurrentHashMap.<String>newKeySet();
+        final var events = cleanEvents(timestamp, dirs);
+        final var segments = cleanSegments(timestamp, dirs);
+        deleteEmptyDirs(dirs);
+        final var files = events[1] + segments;
+        final var elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        log.info(String.format("Cleaned %d records, %d files and %d segments in %d ms, %.1f files/s", events[0], events[1],
+                segments, elapsed, files * 1000.0 / elapsed));
+        // Age is the upper limit, quotas and free space floor can evict sooner
+        deleteEmptyDirs(retention.enforce());
     }
 }
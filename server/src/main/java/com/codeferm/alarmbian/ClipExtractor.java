@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian;
+
+import com.codeferm.alarmbian.entity.Event;
+import com.codeferm.alarmbian.entity.Segment;
+import com.codeferm.alarmbian.service.SegmentService;
+import static com.codeferm.alarmbian.type.EventType.MOTION_CLIP;
+import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
+import com.github.kokorin.jaffree.ffmpeg.UrlInput;
+import com.github.kokorin.jaffree.ffmpeg.UrlOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Mat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cut motion clips from the mainstream recording with ffmpeg stream copy, so there is no decode or encode. Input seeking snaps the
+ * clip start to the keyframe before start - preroll.
+ *
+ * A clip is queued on MOTION_STOP and extracted once the recording covers stop + postroll. With segmented recording that is when a
+ * segment ending after the clip is indexed, otherwise clip.flush milliseconds later so ffmpeg has written the data to the file
+ * being recorded. A single file clip that starts before the current recording is cut from the previous recording, which is
+ * concatenated with the current one when the clip spans both. Extraction runs in a bounded pool of low priority threads and clips
+ * are dropped if the queue is full. Each clip is persisted as a MOTION_CLIP event.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Component
+@Slf4j
+public class ClipExtractor {
+
+    /**
+     * Spring environment.
+     */
+    @Autowired
+    private Environment env;
+    /**
+     * Persist events.
+     */
+    @Autowired
+    private EventWriter eventWriter;
+    /**
+     * Look up segments.
+     */
+    @Autowired
+    private SegmentService segmentService;
+    /**
+     * Mainstream recorder.
+     */
+    @Autowired
+    private Mainstream mainstream;
+    /**
+     * Device name.
+     */
+    @Value("${device.name}")
+    private String deviceName;
+    /**
+     * Enabled flag.
+     */
+    @Value("${clip.enabled}")
+    private boolean enabled;
+    /**
+     * Milliseconds before motion start.
+     */
+    @Value("${clip.preroll}")
+    private long preroll;
+    /**
+     * Milliseconds after motion stop.
+     */
+    @Value("${clip.postroll}")
+    private long postroll;
+    /**
+     * Milliseconds to wait for ffmpeg to write data to file being recorded.
+     */
+    @Value("${clip.flush}")
+    private long flush;
+    /**
+     * Worker threads.
+     */
+    @Value("${clip.threads}")
+    private int threads;
+    /**
+     * Maximum clips waiting for a worker.
+     */
+    @Value("${clip.queue}")
+    private int queueSize;
+    /**
+     * Clip executor.
+     */
+    private ThreadPoolExecutor executor;
+    /**
+     * Clips waiting for recording to cover them. Only used on the frame thread.
+     */
+    private final Deque<Clip> pending = new ArrayDeque<>();
+    /**
+     * Current single file recording.
+     */
+    private String recordFile;
+    /**
+     * Current single file recording start.
+     */
+    private Instant recordStart;
+    /**
+     * Previous single file recording.
+     */
+    private String previousFile;
+    /**
+     * Previous single file recording start.
+     */
+    private Instant previousStart;
+    /**
+     * End of last indexed segment.
+     */
+    private volatile Instant segmentEnd;
+    /**
+     * Motion start.
+     */
+    private Instant motionStart;
+    /**
+     * Directory name formatter.
+     */
+    private DateTimeFormatter dirFormatter;
+    /**
+     * File name formatter.
+     */
+    private DateTimeFormatter fileFormatter;
+
+    /**
+     * Clip to extract.
+     *
+     * @param start Clip start.
+     * @param stop Clip stop.
+     * @param file Single file recording or null to use segments.
+     * @param fileStart Single file recording start.
+     * @param previousFile Previous single file recording or null if clip starts in file.
+     * @param previousStart Previous single file recording start.
+     */
+    private record Clip(Instant start, Instant stop, String file, Instant fileStart, String previousFile, Instant previousStart) {
+
+    }
+
+    /**
+     * Initialize executor.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        dirFormatter = DateTimeFormatter.ofPattern(env.getProperty("ffmpeg.dir.pattern")).withZone(ZoneId.systemDefault());
+        fileFormatter = DateTimeFormatter.ofPattern(env.getProperty("ffmpeg.file.pattern")).withZone(ZoneId.systemDefault());
+        final var count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    final var thread = new Thread(runnable, String.format("clip-%d", count.incrementAndGet()));
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }, (runnable, pool) -> log.warn("Clip queue full, dropping clip"));
+    }
+
+    /**
+     * Let running clips finish.
+     */
+    @PreDestroy
+    public void done() {
+        log.debug("done");
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Single file recording start. Other recorders have no file to cut clips from.
+     *
+     * @param event Event.
+     */
+    @EventListener(condition = "#event.eventType.name == 'RECORD_START'")
+    public void onRecordStart(final EventData<String> event) {
+        if (mainstream.isFfmpegOut()) {
+            previousFile = recordFile;
+            previousStart = recordStart;
+            recordFile = event.getData();
+            recordStart = event.getTimestamp();
+        }
+    }
+
+    /**
+     * Segment indexed.
+     *
+     * @param event Segment event.
+     */
+    @EventListener(condition = "#event.eventType.name == 'SEGMENT_STOP'")
+    public void onSegmentStop(final EventData<Segment> event) {
+        segmentEnd = event.getData().getEndTime().toInstant();
+    }
+
+    /**
+     * Motion start.
+     *
+     * @param event Event.
+     */
+    @EventListener(condition = "#event.eventType.name == 'MOTION_START'")
+    public void onMotionStart(final EventData<Mat> event) {
+        motionStart = event.getTimestamp();
+    }
+
+    /**
+     * Queue clip on motion stop.
+     *
+     * @param event Event.
+     */
+    @EventListener(condition = "#event.eventType.name == 'MOTION_STOP'")
+    public void onMotionStop(final EventData<Mat> event) {
+        if (enabled && motionStart != null) {
+            final var start = motionStart.minusMillis(preroll);
+            final var stop = event.getTimestamp().plusMillis(postroll);
+            if (mainstream.isSegmented()) {
+                pending.add(new Clip(start, stop, null, null, null, null));
+            } else if (recordFile != null && start.isBefore(recordStart) && previousFile != null) {
+                // Clip cannot start before previous recording
+                pending.add(new Clip(start.isBefore(previousStart) ? previousStart : start, stop, recordFile, recordStart,
+                        previousFile, previousStart));
+            } else if (recordFile != null) {
+                // Clip cannot start before recording
+                pending.add(new Clip(start.isBefore(recordStart) ? recordStart : start, stop, recordFile, recordStart, null, null));
+            }
+            motionStart = null;
+        }
+    }
+
+    /**
+     * Submit clips that recording now covers.
+     *
+     * @param event Mat event.
+     */
+    @EventListener(condition = "#event.eventType.name == 'MAT_FRAME'")
+    public void onMatFrame(final EventData<Mat> event) {
+        while (!pending.isEmpty() && isReady(pending.peek())) {
+            final var clip = pending.poll();
+            executor.execute(() -> extract(clip));
+        }
+    }
+
+    /**
+     * See if recording covers clip.
+     *
+     * @param clip Clip.
+     * @return True if clip can be extracted.
+     */
+    private boolean isReady(final Clip clip) {
+        final boolean ready;
+        if (clip.file() == null) {
+            final var end = segmentEnd;
+            ready = end != null && !end.isBefore(clip.stop());
+        } else {
+            ready = Instant.now().isAfter(clip.stop().plusMillis(flush));
+        }
+        return ready;
+    }
+
+    /**
+     * Extract clip and persist MOTION_CLIP event.
+     *
+     * @param clip Clip.
+     */
+    private void extract(final Clip clip) {
+        final UrlInput input;
+        String listName = null;
+        if (clip.file() == null) {
+            final var segments = segmentService.findByRange(deviceName, Timestamp.from(clip.start()), Timestamp.from(clip.
+                    stop()));
+            if (segments.isEmpty()) {
+                log.warn(String.format("No segments for clip %s to %s", clip.start(), clip.stop()));
+                return;
+            }
+            final var first = segments.getFirst();
+            if (segments.size() == 1) {
+                input = UrlInput.fromUrl(first.getFileName());
+            } else {
+                listName = String.format("%s.txt", first.getFileName());
+                input = UrlInput.fromUrl(writeList(listName, segments.stream().map(segment -> entry(segment.getFileName())).
+                        toList())).setFormat("concat").addArguments("-safe", "0");
+            }
+            input.setPosition(Math.max(0, clip.start().toEpochMilli() - first.getStartTime().getTime()));
+        } else if (clip.previousFile() == null) {
+            input = UrlInput.fromUrl(clip.file()).setPosition(clip.start().toEpochMilli() - clip.fileStart().toEpochMilli());
+        } else if (!clip.stop().isAfter(clip.fileStart())) {
+            input = UrlInput.fromUrl(clip.previousFile()).setPosition(clip.start().toEpochMilli() - clip.previousStart().
+                    toEpochMilli());
+        } else {
+            listName = String.format("%s.txt", clip.previousFile());
+            final var outpoint = clip.fileStart().toEpochMilli() - clip.previousStart().toEpochMilli();
+            // Previous recording overlaps current one, so cut it where current one starts
+            input = UrlInput.fromUrl(writeList(listName, List.of(String.format("%soutpoint %d.%03d%n", entry(clip.previousFile()),
+                    outpoint / 1000, outpoint % 1000), entry(clip.file())))).setFormat("concat").addArguments("-safe", "0").
+                    setPosition(clip.start().toEpochMilli() - clip.previousStart().toEpochMilli());
+        }
+        final var dirName = String.format("%s%s%s%s%s", env.getProperty("ffmpeg.output.path"), File.separator, deviceName,
+                File.separator, dirFormatter.format(clip.start()));
+        final var fileName = String.format("%s%s%s-%s.%s", dirName, File.separator, fileFormatter.format(clip.start()), env.
+                getProperty("clip.file.suffix"), env.getProperty("ffmpeg.container"));
+        try {
+            Files.createDirectories(Paths.get(dirName));
+            log.info(String.format("Extracting clip %s", fileName));
+            // Stream copy, so output starts on the keyframe at or before input position
+            FFmpeg.atPath(Paths.get(env.getProperty("ffmpeg.bin"))).addInput(input).addOutput(UrlOutput.toPath(Paths.get(
+                    fileName)).setDuration(clip.stop().toEpochMilli() - clip.start().toEpochMilli()).addArguments("-map", "0").
+                    addArguments("-c", "copy").addArguments("-avoid_negative_ts", "make_zero")).setOverwriteOutput(true).
+                    execute();
+            eventWriter.write(new Event(deviceName, MOTION_CLIP.name(), fileName, Timestamp.from(clip.start())));
+        } catch (IOException | RuntimeException e) {
+            log.error(String.format("Error extracting clip %s", fileName), e);
+        } finally {
+            if (listName != null) {
+                try {
+                    Files.deleteIfExists(Paths.get(listName));
+                } catch (IOException e) {
+                    log.warn(String.format("Error deleting %s", listName), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Concat demuxer file entry.
+     *
+     * @param fileName File name.
+     * @return Entry.
+     */
+    private String entry(final String fileName) {
+        return String.format("file '%s'%n", fileName.replace("'", "'\\''"));
+    }
+
+    /**
+     * Write concat demuxer list.
+     *
+     * @param listName List file name.
+     * @param entries Entries in play order.
+     * @return List file name.
+     */
+    private String writeList(final String listName, final List<String> entries) {
+        try {
+            Files.writeString(Paths.get(listName), String.join("", entries));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return listName;
+    }
+}
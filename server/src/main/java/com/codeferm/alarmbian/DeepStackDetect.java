@@ -4,43 +4,66 @@
 package com.codeferm.alarmbian;
 
 import com.codeferm.alarmbian.entity.Detection;
-import com.codeferm.alarmbian.entity.Event;
 import com.codeferm.alarmbian.entity.Frame;
-import com.codeferm.alarmbian.image.MatToImage;
+import com.codeferm.alarmbian.image.BlobTracker;
+import com.codeferm.alarmbian.image.CachedDetector;
+import com.codeferm.alarmbian.image.DeepStackDetector;
+import com.codeferm.alarmbian.image.DetectCache;
+import com.codeferm.alarmbian.image.DnnDetector;
+import com.codeferm.alarmbian.image.FaceCascade;
+import com.codeferm.alarmbian.image.RoiCrop;
+import com.codeferm.alarmbian.type.ObjectDetector;
 import com.codeferm.alarmbian.service.FrameService;
-import com.codeferm.alarmbian.type.Convert;
-import com.codeferm.deepstack.Base64EncodedMultipartFile;
+import com.codeferm.deepstack.Balancer;
+import com.codeferm.deepstack.CircuitBreaker;
 import com.codeferm.deepstack.Client;
-import java.util.concurrent.atomic.AtomicBoolean;
+import com.codeferm.deepstack.Prediction;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import java.sql.Timestamp;
 import java.time.Instant;
 import lombok.extern.slf4j.Slf4j;
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 /**
- * Use Deepstack object detection with async event. Only allow one detection at a time to not overload CPU.
+ * Object detection with the ObjectDetector in detect.class, either DeepStackDetector calling a Deepstack server or DnnDetector
+ * running a model in process. DetectScheduler decides which frames are sent and calls this from its worker threads, so there is a
+ * detector per thread. A circuit breaker stops detection for a while when it keeps failing.
+ *
+ * If deepstack.roi.enabled is true only the motion region, padded and resized to deepstack.roi.size, is sent and predictions are
+ * mapped back to frame coordinates before they are persisted.
+ *
+ * If deepstack.face.enabled is true each person prediction of at least deepstack.face.confidence is cropped from the frame and sent
+ * to Deepstack face detection and recognition. Faces are stored as extra detections of the same frame and track.
+ *
+ * If deepstack.urls lists more than one server a Balancer spreads requests over them.
+ *
+ * If detect.cache.size is greater than 0 detectors share a DetectCache, so a near identical image reuses earlier predictions
+ * instead of calling the detector.
  *
  * @author Steven P. Goldsmith
  * @version 1.0.0
  * @since 1.0.0
  */
 @Component
-@EnableAsync
 @Slf4j
 public class DeepStackDetect {
 
     /**
-     * True while thread is running.
+     * Spring environment.
      */
-    AtomicBoolean running;
+    @Autowired
+    private Environment env;
     /**
      * Deepstack client.
      */
@@ -52,23 +75,117 @@ public class DeepStackDetect {
     @Autowired
     private FrameService frameService;
     /**
-     * Enabled flag.
+     * Device name.
      */
-    @Value("${deepstack.enabled}")
-    private boolean enabled;
+    @Value("${device.name}")
+    private String deviceName;
     /**
      * Extension to convert image to.
      */
     @Value("${deepstack.image.extension}")
     private String extension;
     /**
-     * Image converter.
+     * Consecutive failures that open circuit.
+     */
+    @Value("${deepstack.breaker.failures}")
+    private int breakerFailures;
+    /**
+     * Milliseconds circuit stays open.
+     */
+    @Value("${deepstack.breaker.open}")
+    private long breakerOpen;
+    /**
+     * Send motion region instead of whole frame.
+     */
+    @Value("${deepstack.roi.enabled}")
+    private boolean roiEnabled;
+    /**
+     * Model input size in pixels.
+     */
+    @Value("${deepstack.roi.size}")
+    private int roiSize;
+    /**
+     * Padding added to each side as a fraction of region size.
+     */
+    @Value("${deepstack.roi.pad}")
+    private double roiPad;
+    /**
+     * Maximum upscale factor.
+     */
+    @Value("${deepstack.roi.max.scale}")
+    private double roiMaxScale;
+    /**
+     * Maximum cache entries or 0 to disable cache.
+     */
+    @Value("${detect.cache.size}")
+    private int cacheSize;
+    /**
+     * Milliseconds cache entries can be matched.
+     */
+    @Value("${detect.cache.ttl}")
+    private long cacheTtl;
+    /**
+     * Maximum Hamming distance of a cache match.
+     */
+    @Value("${detect.cache.distance}")
+    private int cacheDistance;
+    /**
+     * Predictions cache shared by detectors or null.
+     */
+    private DetectCache cache;
+    /**
+     * Balancer shared by detectors or null.
+     */
+    private Balancer balancer;
+    /**
+     * Run face cascade on person predictions.
      */
-    private Convert<Mat, byte[]> convert;
+    @Value("${deepstack.face.enabled}")
+    private boolean faceEnabled;
     /**
-     * Event entity ID.
+     * Label that triggers face cascade.
      */
-    private Long eventId;
+    @Value("${deepstack.face.label}")
+    private String faceLabel;
+    /**
+     * Minimum person confidence for face cascade.
+     */
+    @Value("${deepstack.face.confidence}")
+    private double faceConfidence;
+    /**
+     * Padding added to each side of person box as a fraction of box size.
+     */
+    @Value("${deepstack.face.pad}")
+    private double facePad;
+    /**
+     * Minimum person crop width and height in pixels.
+     */
+    @Value("${deepstack.face.min.size}")
+    private int faceMinSize;
+    /**
+     * Face cascade for each worker thread.
+     */
+    private ThreadLocal<FaceCascade> faceCascade;
+    /**
+     * All face cascades created, so they can be released.
+     */
+    private final List<FaceCascade> faceCascades = new CopyOnWriteArrayList<>();
+    /**
+     * Region cropper for each worker thread.
+     */
+    private ThreadLocal<RoiCrop> roiCrop;
+    /**
+     * Object detector for each worker thread.
+     */
+    private ThreadLocal<ObjectDetector> detector;
+    /**
+     * All detectors created, so they can be released.
+     */
+    private final List<ObjectDetector> detectors = new CopyOnWriteArrayList<>();
+    /**
+     * Circuit breaker around detector.
+     */
+    private CircuitBreaker breaker;
 
     /**
      * Initialize bean.
@@ -76,9 +193,32 @@ public class DeepStackDetect {
     @PostConstruct
     public void init() {
         log.debug("init");
-        running = new AtomicBoolean(false);
-        convert = (Convert) new MatToImage().setExtension(extension);
-        ((MatToImage) convert).init();
+        if (cacheSize > 0) {
+            cache = new DetectCache(cacheSize, cacheTtl, cacheDistance);
+        }
+        final var urls = env.getProperty("deepstack.urls", "");
+        if (!urls.isBlank()) {
+            balancer = new Balancer(Arrays.stream(urls.split(",")).map(String::strip).toList(), "v1/vision").setAlpha(Double.
+                    parseDouble(env.getProperty("deepstack.balancer.alpha"))).setMaxFailures(Integer.parseInt(env.getProperty(
+                    "deepstack.balancer.failures"))).setHealthInterval(Long.parseLong(env.getProperty(
+                    "deepstack.balancer.health.interval"))).setHedge(Boolean.parseBoolean(env.getProperty(
+                    "deepstack.balancer.hedge"))).setHedgeMin(Long.parseLong(env.getProperty("deepstack.balancer.hedge.min")));
+            balancer.init();
+        }
+        detector = ThreadLocal.withInitial(this::createDetector);
+        roiCrop = ThreadLocal.withInitial(() -> {
+            final var crop = new RoiCrop().setSize(roiSize).setPad(roiPad).setMaxScale(roiMaxScale);
+            crop.init();
+            return crop;
+        });
+        faceCascade = ThreadLocal.withInitial(() -> {
+            final var cascade = new FaceCascade().setClient(client).setBalancer(balancer).setExtension(extension).setPad(facePad).
+                    setMinSize(faceMinSize);
+            cascade.init();
+            faceCascades.add(cascade);
+            return cascade;
+        });
+        breaker = new CircuitBreaker(breakerFailures, breakerOpen);
     }
 
     /**
@@ -87,44 +227,139 @@ public class DeepStackDetect {
     @PreDestroy
     public void done() {
         log.debug("done");
-        ((MatToImage) convert).done();
+        detectors.forEach(ObjectDetector::done);
+        faceCascades.forEach(FaceCascade::done);
+        if (balancer != null) {
+            balancer.done();
+        }
+        if (cache != null) {
+            log.info(String.format("Cache hits %d, misses %d, hit rate %.2f", cache.getHits(), cache.getMisses(), cache.
+                    getHitRate()));
+        }
     }
 
     /**
-     * Save Event entity ID in case there are any detect records.
+     * Create object detector from detect.class and configure it. It is wrapped in a CachedDetector if the cache is enabled.
      *
-     * @param event Event entity.
+     * @return Object detector.
      */
-    @EventListener(condition = "#event.eventType.name == 'MOTION_START_ENTITY'")
-    public void setEntityId(final EventData<Event> event) {
-        eventId = event.getData().getId();
+    private ObjectDetector createDetector() {
+        final ObjectDetector objectDetector;
+        try {
+            objectDetector = (ObjectDetector) Class.forName(env.getProperty("detect.class")).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException
+                | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+        if (objectDetector instanceof DeepStackDetector deepStackDetector) {
+            deepStackDetector.setClient(client).setBalancer(balancer).setExtension(extension);
+        } else if (objectDetector instanceof DnnDetector dnnDetector) {
+            dnnDetector.setModel(env.getProperty("detect.dnn.model")).setConfig(env.getProperty("detect.dnn.config")).setNames(env.
+                    getProperty("detect.dnn.names")).setSize(Integer.parseInt(env.getProperty("detect.dnn.size"))).setConfidence(
+                    Float.parseFloat(env.getProperty("detect.dnn.confidence"))).setNms(Float.parseFloat(env.getProperty(
+                    "detect.dnn.nms")));
+        }
+        final var wrapped = cache == null ? objectDetector : new CachedDetector().setDetector(objectDetector).setCache(cache);
+        wrapped.init();
+        detectors.add(wrapped);
+        return wrapped;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public DetectCache getCache() {
+        return cache;
+    }
+
+    public Balancer getBalancer() {
+        return balancer;
     }
 
     /**
-     * Call Deepstack on motion frames.
+     * See if Deepstack can be called. True claims the trial call when the circuit is half open, so objectDetection must follow.
      *
-     * @param event Mat event.
-     */
-    @Async
-    @EventListener(condition = "#event.eventType.name == 'MOTION_FRAME'")
-    public void objectDetection(final EventData<Mat> event) {
-        // Allow only one async instance of Deepstack detection runing if enabled.
-        if (enabled && !running.get()) {
-            running.set(true);
-            final var response = client.objectDetection(new Base64EncodedMultipartFile(convert.execute(event.getData()), String.format(
-                    "mat%s", extension)));
-            final var predictions = response.getPredictions();
-            // Persist detection info
-            if (!predictions.isEmpty()) {
-                log.debug(predictions.toString());
-                final var frame = frameService.create(new Frame(eventId, Timestamp.from(Instant.now())));
-                for (final var prediction : predictions) {
-                    frame.addDetection(new Detection(frame.getId(), prediction.getLabel(), prediction.getConfidence(), prediction.
-                            getYMax(), prediction.getXMax(), prediction.getYMin(), prediction.getXMin()));
+     * @return True if call is allowed.
+     */
+    public boolean allow() {
+        return breaker.allow();
+    }
+
+    /**
+     * Detect objects and persist any detections.
+     *
+     * @param mat Frame owned by caller.
+     * @param roi Motion region or null for whole frame.
+     * @param eventId Event entity ID.
+     * @param timestamp Frame timestamp.
+     * @param tracker Tracker to seed or null.
+     * @param offeredId Last track ID when frame was offered.
+     * @return True if detection succeeded.
+     */
+    public boolean objectDetection(final Mat mat, final Rect roi, final Long eventId, final Instant timestamp,
+            final BlobTracker tracker, final long offeredId) {
+        final var crop = roiCrop.get().setRoi(roiEnabled ? roi : null);
+        final List<Prediction> predictions;
+        try {
+            predictions = detector.get().detect(crop.execute(mat));
+            breaker.success();
+        } catch (RuntimeException e) {
+            breaker.failure();
+            log.error(String.format("Detection failed, circuit %s", breaker.getState()), e);
+            return false;
+        }
+        // Map predictions to frame
+        final var rects = new ArrayList<Rect>();
+        final var labels = new ArrayList<String>();
+        for (final var prediction : predictions) {
+            final var xMin = crop.mapX(prediction.getXMin());
+            final var yMin = crop.mapY(prediction.getYMin());
+            rects.add(new Rect(xMin, yMin, crop.mapX(prediction.getXMax()) - xMin, crop.mapY(prediction.getYMax()) - yMin));
+            labels.add(prediction.getLabel());
+        }
+        // Seed even with no predictions, so blobs are marked checked
+        final List<Long> trackIds = tracker == null ? null : tracker.seed(rects, labels, offeredId);
+        // Persist detection info
+        if (!predictions.isEmpty()) {
+            log.debug(predictions.toString());
+            final var frame = new Frame(eventId, Timestamp.from(timestamp));
+            for (var i = 0; i < predictions.size(); i++) {
+                final var rect = rects.get(i);
+                final var detection = new Detection(null, labels.get(i), predictions.get(i).getConfidence(), rect.y,
+                        rect.x, rect.y + rect.height, rect.x + rect.width);
+                detection.setTrackId(trackIds == null ? null : trackIds.get(i));
+                frame.addDetection(detection);
+                if (faceEnabled && labels.get(i).equals(faceLabel) && predictions.get(i).getConfidence() >= faceConfidence) {
+                    for (final var face : faces(mat, rect)) {
+                        final var faceDetection = new Detection(null, face.getLabel(), face.getConfidence(), face.
+                                getYMin(), face.getXMin(), face.getYMax(), face.getXMax());
+                        faceDetection.setTrackId(detection.getTrackId());
+                        frame.addDetection(faceDetection);
+                    }
                 }
-                frameService.update(frame);
             }
-            running.set(false);
+            // Frame and detections in one transaction
+            frameService.createAll(deviceName, List.of(frame));
+        }
+        return true;
+    }
+
+    /**
+     * Run face cascade on person box. Failures are logged and do not fail object detection.
+     *
+     * @param mat Full frame.
+     * @param person Person box in frame coordinates.
+     * @return Faces in frame coordinates.
+     */
+    private List<Prediction> faces(final Mat mat, final Rect person) {
+        List<Prediction> faces;
+        try {
+            faces = faceCascade.get().detect(mat, person);
+        } catch (RuntimeException e) {
+            log.error("Face cascade failed", e);
+            faces = List.of();
         }
+        return faces;
     }
 }
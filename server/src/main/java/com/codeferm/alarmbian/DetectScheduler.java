@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian;
+
+import com.codeferm.alarmbian.entity.Event;
+import com.codeferm.alarmbian.image.BlobTracker;
+import com.codeferm.alarmbian.image.RecordStats.Window;
+import com.codeferm.alarmbian.type.MetricsSource;
+import com.codeferm.alarmbian.type.SamplePolicy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Schedule motion frames for object detection. The sample policy picks frames of each motion event and they are copied into a
+ * single latest frame slot. Up to deepstack.threads workers take frames from the slot, so a frame that is not taken before the next
+ * one arrives is coalesced rather than queued. Worker and slot Mats are swapped instead of copied. The motion region is captured
+ * with the frame, since the motion image changes on the next frame.
+ *
+ * The TRACK policy follows motion blobs with a BlobTracker between detections, so detection only runs for blobs it has not seen or
+ * after a labeled object leaves. Detections matched to a blob are stored with its track ID.
+ *
+ * Queue wait and service times are kept in rolling windows and published with drop counts and cache hits on the metrics endpoint to
+ * size the Deepstack host.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Component
+@Slf4j
+public class DetectScheduler implements MetricsSource {
+
+    /**
+     * Deepstack detection.
+     */
+    @Autowired
+    private DeepStackDetect deepStackDetect;
+    /**
+     * Motion detection for motion percent.
+     */
+    @Autowired
+    private MotionDetect motionDetect;
+    /**
+     * Device name.
+     */
+    @Value("${device.name}")
+    private String deviceName;
+    /**
+     * Enabled flag.
+     */
+    @Value("${deepstack.enabled}")
+    private boolean enabled;
+    /**
+     * Number of workers.
+     */
+    @Value("${deepstack.threads}")
+    private int threads;
+    /**
+     * Sample policy.
+     */
+    @Value("${deepstack.sample}")
+    private SamplePolicy samplePolicy;
+    /**
+     * Milliseconds between samples for INTERVAL and PEAK.
+     */
+    @Value("${deepstack.sample.interval}")
+    private long sampleInterval;
+    /**
+     * Minimum overlap of blob and track.
+     */
+    @Value("${deepstack.track.overlap}")
+    private double trackOverlap;
+    /**
+     * Maximum centroid distance of blob and track in pixels.
+     */
+    @Value("${deepstack.track.distance}")
+    private double trackDistance;
+    /**
+     * Frames a track can be missing.
+     */
+    @Value("${deepstack.track.max.misses}")
+    private int trackMaxMisses;
+    /**
+     * Minimum blob area in pixels.
+     */
+    @Value("${deepstack.track.min.area}")
+    private double trackMinArea;
+    /**
+     * Dilate kernel size.
+     */
+    @Value("${deepstack.track.kernel}")
+    private int trackKernel;
+    /**
+     * Blob tracker for TRACK policy or null.
+     */
+    private BlobTracker tracker;
+    /**
+     * Guards slot.
+     */
+    private final Object lock = new Object();
+    /**
+     * Latest frame.
+     */
+    private Mat slot;
+    /**
+     * Slot has a frame.
+     */
+    private boolean full;
+    /**
+     * Event entity ID of slot frame.
+     */
+    private Long slotEventId;
+    /**
+     * Motion region of slot frame.
+     */
+    private Rect slotRoi;
+    /**
+     * Timestamp of slot frame.
+     */
+    private Instant slotTimestamp;
+    /**
+     * Last track ID when slot frame was offered.
+     */
+    private long slotTrackId;
+    /**
+     * Nano time slot frame was offered.
+     */
+    private long slotOffered;
+    /**
+     * Workers run until false.
+     */
+    private volatile boolean running;
+    /**
+     * Worker threads.
+     */
+    private final List<Thread> workers = new ArrayList<>();
+    /**
+     * Event entity ID of current motion event, only used on frame thread.
+     */
+    private Long eventId;
+    /**
+     * First frame of motion event not sampled yet.
+     */
+    private boolean first;
+    /**
+     * Time of last sample in milliseconds.
+     */
+    private long lastSample;
+    /**
+     * Highest motion percent sampled in motion event.
+     */
+    private double peak;
+    /**
+     * Frames offered to slot.
+     */
+    private final AtomicLong offered = new AtomicLong();
+    /**
+     * Frames overwritten in slot before a worker took them.
+     */
+    private final AtomicLong coalesced = new AtomicLong();
+    /**
+     * Motion frames not sampled because every blob was tracked.
+     */
+    private final AtomicLong tracked = new AtomicLong();
+    /**
+     * Frames dropped because circuit was open.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+    /**
+     * Failed calls, including errors persisting or tracking detections.
+     */
+    private final AtomicLong failed = new AtomicLong();
+    /**
+     * Successful calls.
+     */
+    private final AtomicLong completed = new AtomicLong();
+    /**
+     * Milliseconds frames waited in slot.
+     */
+    private final Window waitTime = new Window(256);
+    /**
+     * Milliseconds to detect and persist.
+     */
+    private final Window serviceTime = new Window(256);
+
+    /**
+     * Start workers.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        if (enabled) {
+            if (samplePolicy == SamplePolicy.TRACK) {
+                tracker = new BlobTracker().setMinOverlap(trackOverlap).setMaxDistance(trackDistance).setMaxMisses(trackMaxMisses).
+                        setMinArea(trackMinArea).setKernelSize(trackKernel);
+                tracker.init();
+            }
+            slot = new Mat();
+            running = true;
+            for (var i = 0; i < threads; i++) {
+                final var thread = new Thread(this::work, String.format("detect-%d", i + 1));
+                thread.setDaemon(true);
+                workers.add(thread);
+                thread.start();
+            }
+            log.info(String.format("%d detect workers, sample %s every %d ms", threads, samplePolicy, sampleInterval));
+        }
+    }
+
+    /**
+     * Stop workers.
+     */
+    @PreDestroy
+    public void done() {
+        log.debug("done");
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        for (final var thread : workers) {
+            try {
+                thread.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (slot != null) {
+            slot.release();
+        }
+        if (tracker != null) {
+            tracker.done();
+        }
+    }
+
+    /**
+     * Start sampling motion event.
+     *
+     * @param event Event entity.
+     */
+    @EventListener(condition = "#event.eventType.name == 'MOTION_START_ENTITY'")
+    public void onMotionStartEntity(final EventData<Event> event) {
+        eventId = event.getData().getId();
+        first = true;
+        lastSample = 0;
+        peak = 0.0;
+        if (tracker != null) {
+            tracker.reset();
+        }
+    }
+
+    /**
+     * Offer motion frame if sample policy picks it.
+     *
+     * @param event Mat event.
+     */
+    @EventListener(condition = "#event.eventType.name == 'MOTION_FRAME'")
+    public void onMotionFrame(final EventData<Mat> event) {
+        if (enabled && eventId != null) {
+            final var now = System.currentTimeMillis();
+            final var due = now - lastSample >= sampleInterval;
+            final var sample = switch (samplePolicy) {
+                case FIRST ->
+                    first;
+                case INTERVAL ->
+                    due;
+                case PEAK ->
+                    due && motionDetect.getMotionPercent() > peak;
+                case TRACK ->
+                    trackSample(first || due);
+            };
+            if (sample) {
+                first = false;
+                lastSample = now;
+                peak = Math.max(peak, motionDetect.getMotionPercent());
+                offer(event.getData(), motionDetect.getMotionRect(), event.getTimestamp());
+            }
+        }
+    }
+
+    /**
+     * Update tracks and see if detection is needed.
+     *
+     * @param due First frame or interval passed.
+     * @return True if frame should be sampled.
+     */
+    private boolean trackSample(final boolean due) {
+        final var needed = tracker.update(motionDetect.getMotionImg());
+        if (!needed) {
+            tracked.incrementAndGet();
+        }
+        return needed && due;
+    }
+
+    /**
+     * Copy frame into slot and wake a worker.
+     *
+     * @param mat Frame.
+     * @param roi Motion region.
+     * @param timestamp Frame timestamp.
+     */
+    private void offer(final Mat mat, final Rect roi, final Instant timestamp) {
+        synchronized (lock) {
+            if (full) {
+                coalesced.incrementAndGet();
+            }
+            mat.copyTo(slot);
+            full = true;
+            slotEventId = eventId;
+            slotRoi = roi;
+            slotTimestamp = timestamp;
+            slotTrackId = tracker == null ? 0 : tracker.offered();
+            slotOffered = System.nanoTime();
+            lock.notify();
+        }
+        offered.incrementAndGet();
+    }
+
+    /**
+     * Worker loop. Swaps its Mat with the slot and detects outside the lock.
+     */
+    private void work() {
+        var mat = new Mat();
+        try {
+            while (running) {
+                final Long id;
+                final Rect roi;
+                final Instant timestamp;
+                final long trackId;
+                synchronized (lock) {
+                    while (running && !full) {
+                        lock.wait();
+                    }
+                    if (!running) {
+                        break;
+                    }
+                    final var swap = slot;
+                    slot = mat;
+                    mat = swap;
+                    full = false;
+                    id = slotEventId;
+                    roi = slotRoi;
+                    timestamp = slotTimestamp;
+                    trackId = slotTrackId;
+                    waitTime.add((System.nanoTime() - slotOffered) / 1000000.0);
+                }
+                if (deepStackDetect.allow()) {
+                    final var start = System.nanoTime();
+                    // Persistence, tracking and face errors must not end the worker
+                    try {
+                        if (deepStackDetect.objectDetection(mat, roi, id, timestamp, tracker, trackId)) {
+                            completed.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        log.error(String.format("Detection of event %d failed", id), e);
+                    }
+                    serviceTime.add((System.nanoTime() - start) / 1000000.0);
+                } else {
+                    rejected.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mat.release();
+        }
+    }
+
+    /**
+     * Write counts, circuit state and time quantiles.
+     *
+     * @param out Metrics text.
+     */
+    @Override
+    public void writeMetrics(final StringBuilder out) {
+        if (enabled) {
+            sample(out, "alarmbian_detect_offered", deviceName, offered.get());
+            sample(out, "alarmbian_detect_coalesced", deviceName, coalesced.get());
+            sample(out, "alarmbian_detect_rejected", deviceName, rejected.get());
+            if (tracker != null) {
+                sample(out, "alarmbian_detect_tracked", deviceName, tracked.get());
+                sample(out, "alarmbian_detect_tracks", deviceName, tracker.getTracks().size());
+            }
+            sample(out, "alarmbian_detect_failed", deviceName, failed.get());
+            sample(out, "alarmbian_detect_completed", deviceName, completed.get());
+            // 0 closed, 1 open, 2 half open
+            sample(out, "alarmbian_detect_circuit_state", deviceName, deepStackDetect.getBreaker().getState().ordinal());
+            sample(out, "alarmbian_detect_circuit_opens", deviceName, deepStackDetect.getBreaker().getOpens());
+            final var cache = deepStackDetect.getCache();
+            if (cache != null) {
+                // Every hit is a detector call saved
+                sample(out, "alarmbian_detect_cache_hits", deviceName, cache.getHits());
+                sample(out, "alarmbian_detect_cache_misses", deviceName, cache.getMisses());
+                sample(out, "alarmbian_detect_cache_hit_rate", deviceName, cache.getHitRate());
+                sample(out, "alarmbian_detect_cache_evictions", deviceName, cache.getEvictions());
+                sample(out, "alarmbian_detect_cache_entries", deviceName, cache.size());
+            }
+            final var balancer = deepStackDetect.getBalancer();
+            if (balancer != null) {
+                sample(out, "alarmbian_detect_hedged", deviceName, balancer.getHedged());
+                for (final var endpoint : balancer.getEndpoints()) {
+                    final var uri = endpoint.getUri().toString();
+                    sample(out, "alarmbian_detect_endpoint_up", deviceName, "endpoint", uri, endpoint.isHealthy() ? 1 : 0);
+                    sample(out, "alarmbian_detect_endpoint_outstanding", deviceName, "endpoint", uri, endpoint.getOutstanding());
+                    sample(out, "alarmbian_detect_endpoint_requests", deviceName, "endpoint", uri, endpoint.getRequests());
+                    sample(out, "alarmbian_detect_endpoint_failed", deviceName, "endpoint", uri, endpoint.getFailed());
+                    sample(out, "alarmbian_detect_endpoint_ewma_ms", deviceName, "endpoint", uri, endpoint.getEwma());
+                    sample(out, "alarmbian_detect_endpoint_p95_ms", deviceName, "endpoint", uri, endpoint.getP95());
+                }
+            }
+            final var waits = waitTime.snapshot();
+            final var services = serviceTime.snapshot();
+            for (final var q : new double[]{0.5, 0.95, 1.0}) {
+                quantile(out, "alarmbian_detect_wait_ms", deviceName, q, Window.quantile(waits, q));
+                quantile(out, "alarmbian_detect_service_ms", deviceName, q, Window.quantile(services, q));
+            }
+        }
+    }
+}
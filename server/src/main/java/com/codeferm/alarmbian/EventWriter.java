@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian;
+
+import com.codeferm.alarmbian.entity.Event;
+import com.codeferm.alarmbian.image.RecordStats.Window;
+import com.codeferm.alarmbian.service.EventService;
+import com.codeferm.alarmbian.type.MetricsSource;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write events behind the caller. Events go into a bounded queue and a writer thread inserts them with one JDBC batch when
+ * event.writer.batch events are waiting or event.writer.flush milliseconds after the first one arrived. Callers get a future of the
+ * event with its generated ID. An urgent write is flushed without waiting for more events, which is used for MOTION_START since
+ * detection needs its ID.
+ *
+ * If the queue is full the caller blocks until there is room, so events are never dropped. If event.writer.enabled is false events
+ * are inserted on the caller's thread.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Component
+@Slf4j
+public class EventWriter implements MetricsSource {
+
+    /**
+     * Event and its future.
+     *
+     * @param event Event to insert.
+     * @param future Completed with inserted event.
+     * @param urgent Flush without waiting for more events.
+     */
+    private record Pending(Event event, CompletableFuture<Event> future, boolean urgent) {
+
+    }
+
+    /**
+     * Persist events.
+     */
+    @Autowired
+    private EventService eventService;
+    /**
+     * Device name.
+     */
+    @Value("${device.name}")
+    private String deviceName;
+    /**
+     * Enabled flag.
+     */
+    @Value("${event.writer.enabled}")
+    private boolean enabled;
+    /**
+     * Queue capacity.
+     */
+    @Value("${event.writer.queue}")
+    private int capacity;
+    /**
+     * Maximum events per batch.
+     */
+    @Value("${event.writer.batch}")
+    private int batchSize;
+    /**
+     * Milliseconds to wait for a batch to fill.
+     */
+    @Value("${event.writer.flush}")
+    private long flushMillis;
+    /**
+     * Pending events.
+     */
+    private BlockingQueue<Pending> queue;
+    /**
+     * Writer thread.
+     */
+    private Thread writer;
+    /**
+     * Writer runs until false.
+     */
+    private volatile boolean running;
+    /**
+     * Events written.
+     */
+    private final AtomicLong written = new AtomicLong();
+    /**
+     * Batches written.
+     */
+    private final AtomicLong batches = new AtomicLong();
+    /**
+     * Events that failed to write.
+     */
+    private final AtomicLong failed = new AtomicLong();
+    /**
+     * Writes that blocked on a full queue.
+     */
+    private final AtomicLong blocked = new AtomicLong();
+    /**
+     * Milliseconds per batch insert.
+     */
+    private final Window flushTime = new Window(256);
+
+    /**
+     * Start writer.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        if (enabled) {
+            queue = new ArrayBlockingQueue<>(capacity);
+            running = true;
+            writer = new Thread(this::work, "event-writer");
+            writer.setDaemon(true);
+            writer.start();
+            log.info(String.format("Event writer queue %d, batch %d, flush %d ms", capacity, batchSize, flushMillis));
+        }
+    }
+
+    /**
+     * Stop writer after it drains the queue.
+     */
+    @PreDestroy
+    public void done() {
+        log.debug("done");
+        if (writer != null) {
+            running = false;
+            try {
+                writer.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Anything queued while writer was exiting
+            final var rest = new ArrayList<Pending>();
+            queue.drainTo(rest);
+            flush(rest);
+            log.info(String.format("Wrote %d events in %d batches", written.get(), batches.get()));
+        }
+    }
+
+    /**
+     * Queue event.
+     *
+     * @param event Event with null identity.
+     * @return Future of event with identity.
+     */
+    public CompletableFuture<Event> write(final Event event) {
+        return write(event, false);
+    }
+
+    /**
+     * Queue event.
+     *
+     * @param event Event with null identity.
+     * @param urgent Flush without waiting for more events.
+     * @return Future of event with identity.
+     */
+    public CompletableFuture<Event> write(final Event event, final boolean urgent) {
+        final CompletableFuture<Event> future;
+        if (queue == null || !running) {
+            future = CompletableFuture.completedFuture(eventService.create(event));
+        } else {
+            future = new CompletableFuture<>();
+            final var pending = new Pending(event, future, urgent);
+            if (!queue.offer(pending)) {
+                blocked.incrementAndGet();
+                try {
+                    queue.put(pending);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Writer loop. Takes the first event, then collects more until the batch is full, an urgent event arrives or flush time passes.
+     */
+    private void work() {
+        final var batch = new ArrayList<Pending>(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                // Poll so running is checked without interrupting a JDBC call
+                final var first = queue.poll(Math.max(flushMillis, 100), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    final var deadline = System.nanoTime() + flushMillis * 1000000;
+                    var urgent = first.urgent();
+                    while (running && !urgent && batch.size() < batchSize) {
+                        final var next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        urgent = next.urgent();
+                    }
+                    queue.drainTo(batch, batchSize - batch.size());
+                    flush(batch);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Insert batch and complete futures.
+     *
+     * @param batch Pending events.
+     */
+    private void flush(final ArrayList<Pending> batch) {
+        if (!batch.isEmpty()) {
+            final var start = System.nanoTime();
+            try {
+                final var events = eventService.createAll(batch.stream().map(Pending::event).toList());
+                for (var i = 0; i < batch.size(); i++) {
+                    batch.get(i).future().complete(events.get(i));
+                }
+                written.addAndGet(batch.size());
+                batches.incrementAndGet();
+            } catch (RuntimeException e) {
+                log.error(String.format("Failed to write %d events", batch.size()), e);
+                failed.addAndGet(batch.size());
+                batch.forEach(pending -> pending.future().completeExceptionally(e));
+            }
+            flushTime.add((System.nanoTime() - start) / 1000000.0);
+        }
+    }
+
+    /**
+     * Write queue and batch metrics.
+     *
+     * @param out Metrics text.
+     */
+    @Override
+    public void writeMetrics(final StringBuilder out) {
+        if (enabled) {
+            sample(out, "alarmbian_event_queue", deviceName, queue.size());
+            sample(out, "alarmbian_event_written", deviceName, written.get());
+            sample(out, "alarmbian_event_batches", deviceName, batches.get());
+            sample(out, "alarmbian_event_failed", deviceName, failed.get());
+            sample(out, "alarmbian_event_blocked", deviceName, blocked.get());
+            final var flushes = flushTime.snapshot();
+            for (final var q : new double[]{0.5, 0.95, 1.0}) {
+                quantile(out, "alarmbian_event_flush_ms", deviceName, q, Window.quantile(flushes, q));
+            }
+        }
+    }
+}
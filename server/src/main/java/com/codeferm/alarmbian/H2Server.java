@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.tools.Server;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Serve the embedded database to external tools. When spring.datasource.url opens H2 in process the TCP server lets the H2 Shell
+ * or another JVM connect to the same open database, and the web server runs the H2 console. Both use h2.server.base so
+ * jdbc:h2:tcp://host:h2.server.tcp.port/nio:test is the same database as jdbc:h2:nio:~/test. Remote clients cannot create new
+ * databases.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Component
+@Slf4j
+public class H2Server {
+
+    /**
+     * Enabled flag.
+     */
+    @Value("${h2.server.enabled}")
+    private boolean enabled;
+    /**
+     * Base directory for database names.
+     */
+    @Value("${h2.server.base}")
+    private String baseDir;
+    /**
+     * TCP port, 0 to disable TCP server.
+     */
+    @Value("${h2.server.tcp.port}")
+    private int tcpPort;
+    /**
+     * Web console port, 0 to disable web server.
+     */
+    @Value("${h2.server.web.port}")
+    private int webPort;
+    /**
+     * Allow connections from other hosts.
+     */
+    @Value("${h2.server.allow.others}")
+    private boolean allowOthers;
+    /**
+     * TCP server.
+     */
+    private Server tcpServer;
+    /**
+     * Web server.
+     */
+    private Server webServer;
+
+    /**
+     * Start servers.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        if (enabled) {
+            try {
+                if (tcpPort > 0) {
+                    final var args = new ArrayList<>(List.of("-tcpPort", String.valueOf(tcpPort), "-baseDir", baseDir,
+                            "-ifExists"));
+                    if (allowOthers) {
+                        args.add("-tcpAllowOthers");
+                    }
+                    tcpServer = Server.createTcpServer(args.toArray(String[]::new)).start();
+                    log.info(String.format("H2 TCP server at %s", tcpServer.getURL()));
+                }
+                if (webPort > 0) {
+                    final var args = new ArrayList<>(List.of("-webPort", String.valueOf(webPort), "-baseDir", baseDir,
+                            "-ifExists"));
+                    if (allowOthers) {
+                        args.add("-webAllowOthers");
+                    }
+                    webServer = Server.createWebServer(args.toArray(String[]::new)).start();
+                    log.info(String.format("H2 web console at %s", webServer.getURL()));
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Stop servers. The database itself is closed with the data source.
+     */
+    @PreDestroy
+    public void done() {
+        log.debug("done");
+        if (webServer != null) {
+            webServer.stop();
+        }
+        if (tcpServer != null) {
+            tcpServer.stop();
+        }
+    }
+}
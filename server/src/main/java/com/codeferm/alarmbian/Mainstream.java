@@ -3,11 +3,19 @@
  */
 package com.codeferm.alarmbian;
 
+import com.codeferm.alarmbian.entity.Segment;
 import com.codeferm.alarmbian.image.FfmpegOut;
+import com.codeferm.alarmbian.image.FfmpegSegmentOut;
+import com.codeferm.alarmbian.image.RecordStats;
+import com.codeferm.alarmbian.service.SegmentService;
+import com.codeferm.alarmbian.type.MetricsSource;
 import com.codeferm.alarmbian.type.Record;
+import static com.codeferm.alarmbian.type.EventType.RECORD_HANDOVER;
+import static com.codeferm.alarmbian.type.EventType.RECORD_STALL;
 import static com.codeferm.alarmbian.type.EventType.RECORD_START;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.FileSystems;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.LinkedHashMap;
 import jakarta.annotation.PostConstruct;
@@ -19,19 +27,27 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 import static com.codeferm.alarmbian.type.EventType.RECORD_STOP;
+import static com.codeferm.alarmbian.type.EventType.SEGMENT_STOP;
 import org.opencv.core.Mat;
 import org.springframework.context.event.EventListener;
 
 /**
  * This is used to save off mainstream for 24/7 recording. Files need to be removed by another process like a cron job.
  *
+ * If mainstream.class is FfmpegSegmentOut then one ffmpeg process records segments of mainstream.length and each closed segment
+ * is persisted to the segment table. If substream.class is FfmpegTee then the substream's ffmpeg process also records and this only
+ * tracks it.
+ *
+ * Throughput from ffmpeg progress is checked on each frame and RECORD_STALL is published when progress stops or speed stays below
+ * mainstream.stall.speed for mainstream.stall.timeout. RECORD_STOP data is the file name and a summary of the recording.
+ *
  * @author Steven P. Goldsmith
  * @version 1.0.0
  * @since 1.0.0
  */
 @Component
 @Slf4j
-public class Mainstream {
+public class Mainstream implements MetricsSource {
 
     /**
      * Spring environment.
@@ -48,6 +64,11 @@ public class Mainstream {
      */
     @Autowired
     private ApplicationEventPublisher applicationEventPublisher;
+    /**
+     * Persist segments.
+     */
+    @Autowired
+    private SegmentService segmentService;
     /**
      * Device name.
      */
@@ -58,6 +79,29 @@ public class Mainstream {
      */
     @Value("${mainstream.length}")
     private Long length;
+    /**
+     * Milliseconds without progress or below minimum speed before recording is stalled.
+     */
+    @Value("${mainstream.stall.timeout}")
+    private Long stallTimeout;
+    /**
+     * Minimum speed where 1.0 is real time.
+     */
+    @Value("${mainstream.stall.speed}")
+    private double stallSpeed;
+    /**
+     * Start next recording before stopping current one.
+     */
+    @Value("${mainstream.overlap}")
+    private boolean overlap;
+    /**
+     * Recording being handed over to recordStream.
+     */
+    private FfmpegOut previous;
+    /**
+     * Time previous recording was told to stop or null if waiting for recordStream output.
+     */
+    private Instant previousStop;
     /**
      * Video stream used to record.
      */
@@ -82,6 +126,14 @@ public class Mainstream {
      * Motion in progress.
      */
     private boolean motion = false;
+    /**
+     * Recorder owned by substream when it tees the camera stream.
+     */
+    private FfmpegSegmentOut teeRecord;
+    /**
+     * Tee recording ended and cannot be restarted here.
+     */
+    private boolean teeStopped = false;
 
     /**
      * Initialize motion detection.
@@ -97,7 +149,69 @@ public class Mainstream {
     @PreDestroy
     public void done() {
         log.debug("done");
-        recordStream.stop(Instant.now());
+        if (previous != null) {
+            previous.stop(Instant.now());
+        }
+        if (recordStream != null) {
+            recordStream.stop(Instant.now());
+        }
+    }
+
+    /**
+     * See if recording is split into indexed segments.
+     *
+     * @return True if segmented.
+     */
+    public boolean isSegmented() {
+        return recordStream instanceof FfmpegSegmentOut || teeRecord != null;
+    }
+
+    /**
+     * See if recording is written to a file by FfmpegOut.
+     *
+     * @return True if FfmpegOut.
+     */
+    public boolean isFfmpegOut() {
+        return recordStream instanceof FfmpegOut;
+    }
+
+    /**
+     * Configure FfmpegOut from mainstream properties.
+     *
+     * @param ffmpegOut Recorder.
+     */
+    public void configure(final FfmpegOut ffmpegOut) {
+        // Convert ffmpeg arguments into Map
+        final var inArgMap = new LinkedHashMap<String, String>();
+        config.getProperties("mainstream.input.arg", inArgMap);
+        // Convert ffmpeg arguments into Map
+        final var outArgMap = new LinkedHashMap<String, String>();
+        config.getProperties("mainstream.output.arg", outArgMap);
+        // Configure mainstream for recording
+        ffmpegOut.setDevice(env.getProperty("mainstream.device")).setBin(env.getProperty("ffmpeg.bin")).setInputArgs(inArgMap).
+                setOutputArgs(outArgMap).setPath(String.format("%s%s%s", env.getProperty("ffmpeg.output.path"), FileSystems.
+                getDefault().getSeparator(), deviceName)).setContainer(env.getProperty("ffmpeg.container")).setDirPattern(env.
+                getProperty("ffmpeg.dir.pattern")).setFileSuffix(env.getProperty("mainstream.file.suffix")).setFilePattern(env.
+                getProperty("ffmpeg.file.pattern"));
+        ffmpegOut.getStats().setMinSpeed(stallSpeed);
+        // Segments use recording length and publish each closed segment
+        if (ffmpegOut instanceof FfmpegSegmentOut segmentOut) {
+            segmentOut.setSegmentTime(length).setDeviceName(deviceName).setListener(segment -> applicationEventPublisher.
+                    publishEvent(new EventData<>(SEGMENT_STOP, segment.getEndTime().toInstant(), segment)));
+        }
+    }
+
+    /**
+     * Create segment recorder for a substream that tees the camera stream. The substream owns the ffmpeg process, so start only
+     * publishes RECORD_START.
+     *
+     * @return Configured recorder.
+     */
+    public FfmpegSegmentOut createTeeRecord() {
+        final var segmentOut = new FfmpegSegmentOut();
+        configure(segmentOut);
+        teeRecord = segmentOut;
+        return segmentOut;
     }
 
     /**
@@ -107,6 +221,12 @@ public class Mainstream {
      */
     public void start(final Instant timestamp) {
         log.info(String.format("Starting mainstream %s", env.getProperty("mainstream.name")));
+        // Substream already started ffmpeg
+        if (teeRecord != null) {
+            recordStream = teeRecord;
+            applicationEventPublisher.publishEvent(new EventData<>(RECORD_START, timestamp, teeRecord.getFileName()));
+            return;
+        }
         try {
             recordStream = ((Record) Class.forName(env.getProperty("mainstream.class")).getDeclaredConstructor().newInstance());
         } catch (ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException
@@ -115,18 +235,7 @@ public class Mainstream {
         }
         // If using FfmpegOut class add necessary settings
         if (recordStream instanceof FfmpegOut ffmpegOut) {
-            // Convert ffmpeg arguments into Map
-            final var inArgMap = new LinkedHashMap<String, String>();
-            config.getProperties("mainstream.input.arg", inArgMap);
-            // Convert ffmpeg arguments into Map
-            final var outArgMap = new LinkedHashMap<String, String>();
-            config.getProperties("mainstream.output.arg", outArgMap);
-            // Configure mainstream for recording
-            ffmpegOut.setDevice(env.getProperty("mainstream.device")).setBin(env.getProperty("ffmpeg.bin")).setInputArgs(inArgMap).
-                    setOutputArgs(outArgMap).setPath(String.format("%s%s%s", env.getProperty("ffmpeg.output.path"),
-                    FileSystems.getDefault().getSeparator(), deviceName)).setContainer(env.getProperty("ffmpeg.container")).
-                    setDirPattern(env.getProperty("ffmpeg.dir.pattern")).setFileSuffix(env.getProperty("mainstream.file.suffix")).
-                    setFilePattern(env.getProperty("ffmpeg.file.pattern"));
+            configure(ffmpegOut);
             recordStream.start(timestamp);
             applicationEventPublisher.publishEvent(new EventData<>(RECORD_START, timestamp, ffmpegOut.getFileName()));
         } else {
@@ -141,31 +250,150 @@ public class Mainstream {
      */
     @EventListener(condition = "#event.eventType.name == 'MAT_FRAME'")
     public void onMatFrame(final EventData<Mat> event) {
+        if (previous != null) {
+            handover(event.getTimestamp());
+        }
         if (!recording) {
             recording = true;
             start(event.getTimestamp());
             startRecord = Instant.now();
             duration = startRecord.plusMillis(length);
             // See if ffmpeg process ended
-        } else if (recordStream instanceof FfmpegOut ffmpegOut && ffmpegOut.getFuture().isDone()) {
-            recording = false;
+        } else if (!teeStopped && recordStream instanceof FfmpegOut ffmpegOut && ffmpegOut.getFuture().isDone()) {
+            // Substream will time out and shut down app
+            if (teeRecord != null) {
+                teeStopped = true;
+            } else {
+                recording = false;
+            }
             stopping = false;
-            applicationEventPublisher.publishEvent(new EventData<>(RECORD_STOP, event.getTimestamp(), ffmpegOut.getFileName()));
+            applicationEventPublisher.publishEvent(new EventData<>(RECORD_STOP, event.getTimestamp(), String.format("%s %s",
+                    ffmpegOut.getFileName(), ffmpegOut.getStats().summary())));
             // See if we need to stop recording buffer
-        } else if (!stopping && !motion && recordStream instanceof FfmpegOut ffmpegOut && !ffmpegOut.getFuture().isDone()
-                && Instant.now().isAfter(duration)) {
-            recordStream.stop(event.getTimestamp());
-            stopping = true;
+        } else if (!stopping && !motion && recordStream instanceof FfmpegOut ffmpegOut && !(ffmpegOut instanceof FfmpegSegmentOut)
+                && !ffmpegOut.getFuture().isDone() && Instant.now().isAfter(duration)) {
+            if (overlap && previous == null) {
+                // Keep recording until next one has output
+                previous = ffmpegOut;
+                start(event.getTimestamp());
+                startRecord = Instant.now();
+                duration = startRecord.plusMillis(length);
+            } else if (!overlap) {
+                recordStream.stop(event.getTimestamp());
+                stopping = true;
+            }
+        }
+        // Graceful stop ends progress, so only check running recordings
+        if (!stopping && recordStream instanceof FfmpegOut ffmpegOut && !ffmpegOut.getFuture().isDone()) {
+            final var now = System.currentTimeMillis();
+            if (ffmpegOut.getStats().checkStall(now, stallTimeout)) {
+                final var reason = ffmpegOut.getStats().stallReason(now);
+                log.warn(String.format("Recording %s stalled: %s", ffmpegOut.getFileName(), reason));
+                applicationEventPublisher.publishEvent(new EventData<>(RECORD_STALL, event.getTimestamp(), reason));
+            }
         }
     }
 
     /**
-     * Stop stream if frame error received.
+     * Stop previous recording once recordStream has output, then publish its RECORD_STOP and the handover when it finishes. If
+     * recordStream ends before it has output then previous keeps recording.
+     *
+     * @param timestamp Frame timestamp.
+     */
+    private void handover(final Instant timestamp) {
+        final var next = (FfmpegOut) recordStream;
+        if (previousStop == null) {
+            if (next.getStats().hasOutput()) {
+                previous.stop(timestamp);
+                previousStop = Instant.now();
+            } else if (next.getFuture().isDone()) {
+                log.warn(String.format("Recording %s ended before handover, keeping %s", next.getFileName(), previous.
+                        getFileName()));
+                applicationEventPublisher.publishEvent(new EventData<>(RECORD_STOP, timestamp, String.format("%s %s", next.
+                        getFileName(), next.getStats().summary())));
+                recordStream = previous;
+                previous = null;
+            }
+        } else if (previous.getFuture().isDone()) {
+            // Last progress of previous is its last frame on disk
+            final var overlapMillis = previous.getStats().getUpdated() - next.getStats().getFirstFrameTime();
+            final var data = String.format("%s to %s overlap %d ms stop after %d ms", Paths.get(previous.getFileName()).
+                    getFileName(), Paths.get(next.getFileName()).getFileName(), overlapMillis, previousStop.toEpochMilli() - next.
+                    getStats().getStarted());
+            if (overlapMillis < 0) {
+                log.warn(String.format("Handover gap %s", data));
+            } else {
+                log.info(String.format("Handover %s", data));
+            }
+            applicationEventPublisher.publishEvent(new EventData<>(RECORD_STOP, timestamp, String.format("%s %s", previous.
+                    getFileName(), previous.getStats().summary())));
+            applicationEventPublisher.publishEvent(new EventData<>(RECORD_HANDOVER, timestamp, data));
+            previous = null;
+            previousStop = null;
+        }
+    }
+
+    /**
+     * Write recording throughput gauges and rolling window quantiles.
+     *
+     * @param out Metrics text.
+     */
+    @Override
+    public void writeMetrics(final StringBuilder out) {
+        if (recordStream instanceof FfmpegOut ffmpegOut) {
+            final var stats = ffmpegOut.getStats();
+            sample(out, "alarmbian_record_fps", deviceName, stats.getFps().last());
+            sample(out, "alarmbian_record_speed", deviceName, stats.getSpeed().last());
+            sample(out, "alarmbian_record_bitrate_kbps", deviceName, stats.getBitrate().last());
+            sample(out, "alarmbian_record_size_bytes", deviceName, stats.getSize());
+            sample(out, "alarmbian_record_frames", deviceName, stats.getFrames());
+            sample(out, "alarmbian_record_drop_frames", deviceName, stats.getDrop());
+            sample(out, "alarmbian_record_dup_frames", deviceName, stats.getDup());
+            sample(out, "alarmbian_record_progress_age_ms", deviceName, System.currentTimeMillis() - stats.getUpdated());
+            sample(out, "alarmbian_record_stalls", deviceName, stats.getStalls());
+            sample(out, "alarmbian_record_stalled", deviceName, stats.isStalled() ? 1 : 0);
+            window(out, "alarmbian_record_fps_window", stats.getFps());
+            window(out, "alarmbian_record_speed_window", stats.getSpeed());
+            window(out, "alarmbian_record_bitrate_kbps_window", stats.getBitrate());
+        }
+    }
+
+    /**
+     * Write rolling window quantiles.
+     *
+     * @param out Metrics text.
+     * @param name Metric name.
+     * @param window Rolling window.
+     */
+    private void window(final StringBuilder out, final String name, final RecordStats.Window window) {
+        final var values = window.snapshot();
+        for (final var q : new double[]{0.0, 0.5, 0.95, 1.0}) {
+            quantile(out, name, deviceName, q, RecordStats.Window.quantile(values, q));
+        }
+    }
+
+    /**
+     * Persist closed segment.
+     *
+     * @param event Segment event.
+     */
+    @EventListener(condition = "#event.eventType.name == 'SEGMENT_STOP'")
+    public void onSegmentStop(final EventData<Segment> event) {
+        segmentService.create(event.getData());
+    }
+
+    /**
+     * Stop stream and any recording being handed over if frame error received.
      *
      * @param event Event.
      */
     @EventListener(condition = "#event.eventType.name == 'FRAME_ERROR'")
     public void onFrameError(final EventData<String> event) {
+        if (previous != null) {
+            previous.stop(event.getTimestamp());
+            previous = null;
+            previousStop = null;
+        }
         recordStream.stop(event.getTimestamp());
         stopping = true;
     }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian;
+
+import com.codeferm.alarmbian.type.MetricsSource;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Serve metrics from every MetricsSource at /metrics in Prometheus text format. This uses the JDK HTTP server bound to
+ * metrics.host, so no web stack is needed and by default only local clients can connect.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Component
+@Slf4j
+public class MetricsServer {
+
+    /**
+     * Metrics sources.
+     */
+    @Autowired
+    private List<MetricsSource> sources;
+    /**
+     * Enabled flag.
+     */
+    @Value("${metrics.enabled}")
+    private boolean enabled;
+    /**
+     * Address to bind to.
+     */
+    @Value("${metrics.host}")
+    private String host;
+    /**
+     * Port to listen on.
+     */
+    @Value("${metrics.port}")
+    private int port;
+    /**
+     * HTTP server.
+     */
+    private HttpServer server;
+
+    /**
+     * Start server.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        if (enabled) {
+            try {
+                server = HttpServer.create(new InetSocketAddress(host, port), 0);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            server.createContext("/metrics", this::handle);
+            // One thread is plenty for scrapes
+            server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+                final var thread = new Thread(runnable, "metrics");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            server.start();
+            log.info(String.format("Metrics at http://%s:%d/metrics", host, port));
+        }
+    }
+
+    /**
+     * Stop server.
+     */
+    @PreDestroy
+    public void done() {
+        log.debug("done");
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Write metrics from all sources.
+     *
+     * @return Metrics text.
+     */
+    public String getMetrics() {
+        final var out = new StringBuilder();
+        sources.forEach(source -> source.writeMetrics(out));
+        return out.toString();
+    }
+
+    /**
+     * Handle metrics request.
+     *
+     * @param exchange HTTP exchange.
+     * @throws IOException Possible exception.
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            final var body = getMetrics().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+}
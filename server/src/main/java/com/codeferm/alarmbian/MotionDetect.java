@@ -3,7 +3,6 @@
  */
 package com.codeferm.alarmbian;
 
-import com.codeferm.alarmbian.service.EventService;
 import com.codeferm.alarmbian.entity.Event;
 import com.codeferm.alarmbian.image.Motion;
 import static com.codeferm.alarmbian.type.EventType.HISTORY_FRAME;
@@ -17,10 +16,12 @@ import static com.codeferm.alarmbian.type.EventType.MOTION_START_ENTITY;
 import static com.codeferm.alarmbian.type.EventType.MOTION_STOP;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Timestamp;
+import java.util.concurrent.CompletableFuture;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 import org.opencv.core.Size;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
@@ -64,7 +65,11 @@ public class MotionDetect {
      * Used to presist event.
      */
     @Autowired
-    private EventService eventService;
+    private EventWriter eventWriter;
+    /**
+     * MOTION_START event being written or null.
+     */
+    private CompletableFuture<Event> motionStartEvent;
     /**
      * Motion detection.
      */
@@ -88,6 +93,33 @@ public class MotionDetect {
     @Autowired
     private Mat mat;
 
+    /**
+     * Motion percent of the last frame.
+     *
+     * @return Motion percent.
+     */
+    public double getMotionPercent() {
+        return motion.getMotionPercent();
+    }
+
+    /**
+     * Black and white motion image of the last frame.
+     *
+     * @return Motion image.
+     */
+    public Mat getMotionImg() {
+        return motion.getBwImg();
+    }
+
+    /**
+     * Bounding box of changed pixels in the last frame.
+     *
+     * @return Motion region, empty if there was no motion.
+     */
+    public Rect getMotionRect() {
+        return Imgproc.boundingRect(motion.getBwImg());
+    }
+
     /**
      * Initialize motion detection.
      */
@@ -134,16 +166,40 @@ public class MotionDetect {
      * @param historyEventData History event.
      */
     public void publishEvents(final EventData<Mat> motionEventData, final EventData<Mat> historyEventData) {
+        // Entity must be published before any later motion event
+        publishStartEntity(false);
         applicationEventPublisher.publishEvent(motionEventData);
         applicationEventPublisher.publishEvent(historyEventData);
         // Persist all motion events except MOTION_FRAME
         if (!motionEventData.getEventType().equals(MOTION_FRAME)) {
-            final var event = eventService.create(new Event(deviceName, motionEventData.getEventType().name(), fileName, Timestamp.from(
-                    motionEventData.getTimestamp())));
-            // Publish event entity handy if something needs this data for PK, etc.
+            final var event = new Event(deviceName, motionEventData.getEventType().name(), fileName, Timestamp.from(
+                    motionEventData.getTimestamp()));
             if (motionEventData.getEventType().equals(MOTION_START)) {
-                applicationEventPublisher.publishEvent(new EventData<>(MOTION_START_ENTITY, motionEventData.getTimestamp(), event));
+                // Detection needs the ID, so do not wait for a batch
+                motionStartEvent = eventWriter.write(event, true);
+                publishStartEntity(true);
+            } else {
+                eventWriter.write(event);
+            }
+        }
+    }
+
+    /**
+     * Publish MOTION_START event entity, handy if something needs this data for PK, etc. It is published on the frame thread once
+     * the writer has its ID, so listeners see it before the next motion event.
+     *
+     * @param onlyIfDone Do not wait if the event has not been written yet.
+     */
+    private void publishStartEntity(final boolean onlyIfDone) {
+        if (motionStartEvent != null && (!onlyIfDone || motionStartEvent.isDone())) {
+            try {
+                final var event = motionStartEvent.join();
+                applicationEventPublisher.publishEvent(new EventData<>(MOTION_START_ENTITY, event.getEventTime().toInstant(),
+                        event));
+            } catch (RuntimeException e) {
+                log.error("MOTION_START not written", e);
             }
+            motionStartEvent = null;
         }
     }
 
@@ -197,7 +253,7 @@ public class MotionDetect {
     @EventListener(condition = "#event.eventType.name == 'RECORD_START'")
     public void onRecordStart(final EventData<String> event) {
         fileName = event.getData();
-        eventService.create(new Event(deviceName, event.getEventType().name(), fileName, Timestamp.from(event.getTimestamp())));
+        eventWriter.write(new Event(deviceName, event.getEventType().name(), fileName, Timestamp.from(event.getTimestamp())));
     }
 
     /**
@@ -207,6 +263,20 @@ public class MotionDetect {
      */
     @EventListener(condition = "#event.eventType.name == 'RECORD_STOP'")
     public void onRecordStop(final EventData<String> event) {
-        eventService.create(new Event(deviceName, event.getEventType().name(), fileName, Timestamp.from(event.getTimestamp())));
+        // Data is file name and recording summary
+        final var data = event.getData() == null ? fileName : event.getData();
+        eventWriter.write(new Event(deviceName, event.getEventType().name(), data.substring(0, Math.min(data.length(), 255)),
+                Timestamp.from(event.getTimestamp())));
+    }
+
+    /**
+     * Persist recording stall or handover.
+     *
+     * @param event Event with stall reason or handover timing.
+     */
+    @EventListener(condition = "#event.eventType.name == 'RECORD_STALL' or #event.eventType.name == 'RECORD_HANDOVER'")
+    public void onRecordStall(final EventData<String> event) {
+        eventWriter.write(new Event(deviceName, event.getEventType().name(), event.getData(), Timestamp.from(event.
+                getTimestamp())));
     }
 }
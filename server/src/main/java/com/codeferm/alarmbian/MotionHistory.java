@@ -3,7 +3,6 @@
  */
 package com.codeferm.alarmbian;
 
-import com.codeferm.alarmbian.service.EventService;
 import com.codeferm.alarmbian.entity.Event;
 import com.codeferm.alarmbian.image.HistoryWriter;
 import com.codeferm.alarmbian.image.MatToImage;
@@ -41,7 +40,7 @@ public class MotionHistory {
      * Used to presist event.
      */
     @Autowired
-    private EventService eventService;
+    private EventWriter eventWriter;
     /**
      * History writer.
      */
@@ -118,6 +117,6 @@ public class MotionHistory {
         Core.bitwise_or(historyWriter.getMat(), event.getData(), historyWriter.getMat());
         final var fileName = historyWriter.saveHistoryImage(event);
         // Save off event
-        eventService.create(new Event(deviceName, event.getEventType().name(), fileName, Timestamp.from(event.getTimestamp())));
+        eventWriter.write(new Event(deviceName, event.getEventType().name(), fileName, Timestamp.from(event.getTimestamp())));
     }
 }
@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian;
+
+import com.codeferm.alarmbian.dao.EventDictionary;
+import com.codeferm.alarmbian.service.OrphanService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Find files under the device root that no row references and rows whose files are gone. CleanerJob only deletes files it
+ * has rows for, so files left by crashes, failed inserts or manual copies stay forever and rows of vanished files are never
+ * cleaned.
+ *
+ * The DB and the file system are compared with two Bloom filters instead of a query per file. File names of every row of the
+ * device go into one filter, then the tree is walked once with Files.walkFileTree and a file missing from that filter has no
+ * row. Walked files go into the other filter, then rows are read once and a row missing from that filter has no file, which is
+ * checked with Files.exists before it is reported. False positives only hide an orphan until a later run, so nothing is deleted
+ * by mistake. Files and rows newer than reconcile.grace are skipped, since recordings in progress have no row yet.
+ *
+ * Only the root of device.name is reconciled, the same as CleanerJob, so each camera JVM walks its own tree and JVMs never delete
+ * the same files or rows. Orphans are only logged unless reconcile.delete is true. The reconciler runs on one minimum priority
+ * thread and visits at most reconcile.rate files per second, so it does not compete with recording for disk I/O.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Component
+@Slf4j
+public class OrphanReconciler {
+
+    /**
+     * Fixed size Bloom filter with about 1% false positives at the expected number of names. Each filter has a random seed, so a
+     * false positive of one run is not repeated by the next.
+     */
+    private static final class Bloom {
+
+        /**
+         * Bits per expected name.
+         */
+        private static final int BITS = 10;
+        /**
+         * Hash functions.
+         */
+        private static final int HASHES = 7;
+        /**
+         * Bit set.
+         */
+        private final long[] bits;
+        /**
+         * Number of bits.
+         */
+        private final int size;
+        /**
+         * Hash seed.
+         */
+        private final long seed = ThreadLocalRandom.current().nextLong();
+
+        /**
+         * Size filter.
+         *
+         * @param expected Expected names.
+         */
+        private Bloom(final long expected) {
+            size = (int) Math.min(Math.max(expected, 1024) * BITS, Integer.MAX_VALUE - 63);
+            bits = new long[(size + 63) / 64];
+        }
+
+        /**
+         * 64 bit FNV-1a hash with MurmurHash3 finalizer, so both halves are well mixed.
+         *
+         * @param name Name.
+         * @return Hash.
+         */
+        private long hash(final String name) {
+            var hash = 0xcbf29ce484222325L ^ seed;
+            for (var i = 0; i < name.length(); i++) {
+                hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ hash >>> 33) * 0xff51afd7ed558ccdL;
+            hash = (hash ^ hash >>> 33) * 0xc4ceb9fe1a85ec53L;
+            return hash ^ hash >>> 33;
+        }
+
+        /**
+         * Add name.
+         *
+         * @param name Name.
+         */
+        private void add(final String name) {
+            final var hash = hash(name);
+            for (var i = 0; i < HASHES; i++) {
+                final var index = Math.floorMod((int) hash + i * (int) (hash >>> 32), size);
+                bits[index >>> 6] |= 1L << index;
+            }
+        }
+
+        /**
+         * Check name.
+         *
+         * @param name Name.
+         * @return False if name was never added.
+         */
+        private boolean mightContain(final String name) {
+            final var hash = hash(name);
+            for (var i = 0; i < HASHES; i++) {
+                final var index = Math.floorMod((int) hash + i * (int) (hash >>> 32), size);
+                if ((bits[index >>> 6] & 1L << index) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Orphan service.
+     */
+    @Autowired
+    private OrphanService orphanService;
+    /**
+     * Device name.
+     */
+    @Value("${device.name}")
+    private String deviceName;
+    /**
+     * Enabled flag.
+     */
+    @Value("${reconcile.enabled}")
+    private boolean enabled;
+    /**
+     * Time between runs as ISO duration.
+     */
+    @Value("${reconcile.runtime}")
+    private String runtime;
+    /**
+     * Files and rows newer than this ISO duration are skipped.
+     */
+    @Value("${reconcile.grace}")
+    private String grace;
+    /**
+     * Delete orphans instead of only logging them.
+     */
+    @Value("${reconcile.delete}")
+    private boolean delete;
+    /**
+     * Maximum files visited per second, 0 for no limit.
+     */
+    @Value("${reconcile.rate}")
+    private long rate;
+    /**
+     * Runs reconcile.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Schedule reconcile.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        if (enabled) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final var thread = new Thread(runnable, "reconcile");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            final var delay = Duration.parse(runtime).toMillis();
+            scheduler.scheduleWithFixedDelay(this::reconcile, delay, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop a running reconcile.
+     */
+    @PreDestroy
+    public void done() {
+        log.debug("done");
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Reconcile this device if its root exists. Errors are logged, so later runs still happen.
+     */
+    public void reconcile() {
+        try {
+            orphanService.device(deviceName).filter(device -> Files.isDirectory(Paths.get(device.root()))).ifPresent(
+                    this::reconcile);
+        } catch (RuntimeException e) {
+            log.error(String.format("Reconcile of %s failed", deviceName), e);
+        }
+    }
+
+    /**
+     * Name used in filters.
+     *
+     * @param path File path.
+     * @return Absolute normalized file name.
+     */
+    private static String key(final Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Reconcile device.
+     *
+     * @param device Device.
+     */
+    public void reconcile(final EventDictionary.Device device) {
+        final var start = System.currentTimeMillis();
+        final var cutoff = start - Duration.parse(grace).toMillis();
+        final var expected = orphanService.count(device);
+        final var known = new Bloom(expected);
+        orphanService.rows(device, null, row -> known.add(key(Paths.get(row.fileName()))));
+        // Files of the device are about as many as rows, more files only raise false positives
+        final var found = new Bloom(expected);
+        final var root = Paths.get(device.root());
+        final var counts = new long[4];
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                /**
+                 * Modified time of each open directory before its orphans were deleted.
+                 */
+                private final Deque<FileTime> dirTimes = new ArrayDeque<>();
+
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                    dirTimes.push(attrs.lastModifiedTime());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        final var name = key(file);
+                        found.add(name);
+                        if (attrs.lastModifiedTime().toMillis() <= cutoff && !known.mightContain(name)) {
+                            counts[1]++;
+                            orphanFile(file);
+                        }
+                        pace(++counts[0], start);
+                    }
+                    return Thread.currentThread().isInterrupted() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                    log.warn(String.format("Cannot read %s: %s", file, e.getMessage()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir, final IOException e) {
+                    // A new directory may be about to get its first file
+                    if (dirTimes.pop().toMillis() <= cutoff && delete && !dir.equals(root)) {
+                        deleteEmptyDir(dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        final var orphans = new HashMap<String, List<Long>>();
+        orphanService.rows(device, new Timestamp(cutoff), row -> {
+            counts[2]++;
+            if (!found.mightContain(key(Paths.get(row.fileName()))) && Files.notExists(Paths.get(row.fileName()))) {
+                counts[3]++;
+                log.info(String.format("%s %d file %s is missing", row.table(), row.id(), row.fileName()));
+                orphans.computeIfAbsent(row.table(), k -> new ArrayList<>()).add(row.id());
+            }
+        });
+        if (delete) {
+            orphans.forEach((table, ids) -> {
+                for (var i = 0; i < ids.size(); i += 1000) {
+                    orphanService.deleteAll(table, ids.subList(i, Math.min(i + 1000, ids.size())));
+                }
+            });
+        }
+        log.info(String.format("Reconciled %s in %d ms: %d of %d files and %d of %d rows are orphans%s", device.name(), System.
+                currentTimeMillis() - start, counts[1], counts[0], counts[3], counts[2], delete ? " and were deleted" : ""));
+    }
+
+    /**
+     * Log or delete file without a row.
+     *
+     * @param file File.
+     */
+    private void orphanFile(final Path file) {
+        if (!delete) {
+            log.info(String.format("%s has no row", file));
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+            log.info(String.format("%s has no row, deleted", file));
+        } catch (IOException e) {
+            log.error(String.format("Error deleting %s", file), e);
+        }
+    }
+
+    /**
+     * Delete directory if it is empty.
+     *
+     * @param dir Directory.
+     */
+    private static void deleteEmptyDir(final Path dir) {
+        try {
+            Files.delete(dir);
+            log.info(String.format("%s was empty, deleted", dir));
+        } catch (DirectoryNotEmptyException e) {
+            // Still has files
+        } catch (IOException e) {
+            log.error(String.format("Error deleting %s", dir), e);
+        }
+    }
+
+    /**
+     * Sleep until visited files are under rate.
+     *
+     * @param count Files visited.
+     * @param start Start time in milliseconds.
+     */
+    private void pace(final long count, final long start) {
+        if (rate > 0) {
+            final var delay = start + count * 1000 / rate - System.currentTimeMillis();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian;
+
+import com.codeferm.alarmbian.entity.Segment;
+import com.codeferm.alarmbian.service.SegmentService;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Evict oldest segments when a device is over its byte quota or the recording file system is below its free space floor. Device
+ * usage comes from the running totals in USAGE_DAY, so checking a quota does not scan segments.
+ *
+ * Each camera JVM only evicts segments of its own device.name, for its quota and for the free space floor, so several JVMs on one
+ * file system never delete the same segments. Each frees space from its own oldest segments and retention.rate applies per JVM.
+ *
+ * Segments are read in chunks of retention.chunk oldest first and files are deleted until enough bytes are freed, then their rows
+ * are deleted in one transaction. Deletion is paced to retention.rate bytes per second so cleanup does not starve recording of
+ * I/O.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Component
+@Slf4j
+public class Retention {
+
+    /**
+     * Spring environment.
+     */
+    @Autowired
+    private Environment env;
+    /**
+     * Config bean.
+     */
+    @Autowired
+    private Config config;
+    /**
+     * Persist segments.
+     */
+    @Autowired
+    private SegmentService segmentService;
+    /**
+     * Device name.
+     */
+    @Value("${device.name}")
+    private String deviceName;
+    /**
+     * Enabled flag.
+     */
+    @Value("${retention.enabled}")
+    private boolean enabled;
+    /**
+     * Minimum free bytes on recording file system or 0 to disable.
+     */
+    @Value("${retention.min.free}")
+    private long minFree;
+    /**
+     * Segments per chunk.
+     */
+    @Value("${retention.chunk}")
+    private int chunkSize;
+    /**
+     * Maximum bytes deleted per second.
+     */
+    @Value("${retention.rate}")
+    private long rate;
+    /**
+     * Device name to quota in bytes.
+     */
+    private final LinkedHashMap<String, Long> quotas = new LinkedHashMap<>();
+    /**
+     * Pacing start in milliseconds.
+     */
+    private long paceStart;
+    /**
+     * Bytes deleted since pacing start.
+     */
+    private long paceBytes;
+
+    /**
+     * Load quotas and rebuild this device's running totals.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        final var map = new LinkedHashMap<String, String>();
+        config.getProperties("retention.quota", map);
+        map.forEach((key, value) -> quotas.put(key, Long.valueOf(value)));
+        if (enabled) {
+            log.info(String.format("Rebuilt %d usage days for %s", segmentService.rebuildUsage(deviceName), deviceName));
+        }
+    }
+
+    /**
+     * Enforce this device's quota then free space floor with this device's segments.
+     *
+     * @return Dirs files were deleted from.
+     */
+    public Set<String> enforce() {
+        final var dirs = new HashSet<String>();
+        if (enabled) {
+            paceStart = System.currentTimeMillis();
+            paceBytes = 0;
+            final var quota = quotas.get(deviceName);
+            if (quota != null) {
+                final var usage = segmentService.findUsage(deviceName);
+                if (usage > quota) {
+                    log.info(String.format("%s using %d bytes, quota %d", deviceName, usage, quota));
+                    evict(() -> segmentService.findUsage(deviceName) - quota, () -> segmentService.findOldest(deviceName,
+                            chunkSize), dirs);
+                }
+            }
+            if (minFree > 0 && getUsableSpace() < minFree) {
+                log.info(String.format("%d bytes free, floor %d, evicting %s segments", getUsableSpace(), minFree, deviceName));
+                evict(() -> minFree - getUsableSpace(), () -> segmentService.findOldest(deviceName, chunkSize), dirs);
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * Usable bytes on recording file system.
+     *
+     * @return Usable bytes.
+     */
+    public long getUsableSpace() {
+        try {
+            return Files.getFileStore(Paths.get(env.getProperty("ffmpeg.output.path"))).getUsableSpace();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Evict chunks of oldest segments until excess is covered or there are no segments left.
+     *
+     * @param excess Bytes that need to be freed.
+     * @param chunk Next chunk of oldest segments.
+     * @param dirs Dirs files were deleted from.
+     */
+    private void evict(final LongSupplier excess, final Supplier<List<Segment>> chunk, final Set<String> dirs) {
+        var need = excess.getAsLong();
+        while (need > 0) {
+            final var list = chunk.get();
+            if (list.isEmpty()) {
+                log.warn(String.format("No segments left to evict, %d bytes over", need));
+                break;
+            }
+            final var deleted = new ArrayList<Segment>();
+            var freed = 0L;
+            for (final var segment : list) {
+                if (freed >= need) {
+                    break;
+                }
+                deleteFile(segment.getFileName());
+                dirs.add(segment.getFileName().substring(0, segment.getFileName().lastIndexOf(File.separator)));
+                deleted.add(segment);
+                freed += segment.getFileSize();
+                pace(segment.getFileSize());
+            }
+            segmentService.deleteAll(deleted);
+            log.info(String.format("Evicted %d segments, %d bytes", deleted.size(), freed));
+            need = excess.getAsLong();
+        }
+    }
+
+    /**
+     * Delete file. Missing files are logged, so their rows are still removed.
+     *
+     * @param fileName File name.
+     */
+    private void deleteFile(final String fileName) {
+        try {
+            if (!Files.deleteIfExists(Paths.get(fileName))) {
+                log.warn(String.format("%s already deleted", fileName));
+            }
+        } catch (IOException e) {
+            log.error(String.format("Error deleting %s", fileName), e);
+        }
+    }
+
+    /**
+     * Sleep until deleted bytes are under rate.
+     *
+     * @param bytes Bytes just deleted.
+     */
+    private void pace(final long bytes) {
+        paceBytes += bytes;
+        final var delay = paceStart + paceBytes * 1000 / rate - System.currentTimeMillis();
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian;
+
+import com.codeferm.alarmbian.service.RollupService;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rebuild this device's hourly rollups from raw rows on start up when rollup.rebuild is true, for example with
+ * --rollup.rebuild=true on the command line after restoring a database. Days from the first to the last event other than
+ * START_UP and SHUT_DOWN are rebuilt in parallel on rollup.threads threads, each day in its own transaction. Rollups of days with
+ * no raw rows left are kept.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Component
+@Slf4j
+public class RollupBuilder {
+
+    /**
+     * Rollup service.
+     */
+    @Autowired
+    private RollupService rollupService;
+    /**
+     * Device name.
+     */
+    @Value("${device.name}")
+    private String deviceName;
+    /**
+     * Rebuild flag.
+     */
+    @Value("${rollup.rebuild}")
+    private boolean rebuild;
+    /**
+     * Rebuild threads.
+     */
+    @Value("${rollup.threads}")
+    private int threads;
+
+    /**
+     * Rebuild before frames are read, so no rows are added to rollups while their day is rebuilt.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        if (rebuild) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Rebuild rollups of every day with events.
+     *
+     * @return Rollup rows inserted.
+     */
+    public int rebuild() {
+        final var days = rollupService.days(deviceName);
+        if (days.isEmpty()) {
+            return 0;
+        }
+        final var start = System.currentTimeMillis();
+        final var tasks = new ArrayList<Callable<Integer>>();
+        for (var day = days.get(0); !day.isAfter(days.get(1)); day = day.plusDays(1)) {
+            final var rebuildDay = day;
+            tasks.add(() -> rollupService.rebuild(deviceName, rebuildDay));
+        }
+        var rows = 0;
+        try (final var executor = Executors.newFixedThreadPool(threads)) {
+            for (final var future : executor.invokeAll(tasks)) {
+                rows += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        log.info(String.format("Rebuilt %d rollup rows for %d days of %s in %d ms", rows, tasks.size(), deviceName, System.
+                currentTimeMillis() - start));
+        return rows;
+    }
+}
@@ -4,6 +4,7 @@
 package com.codeferm.alarmbian;
 
 import com.codeferm.alarmbian.image.FfmpegIn;
+import com.codeferm.alarmbian.image.FfmpegTee;
 import com.codeferm.alarmbian.type.VideoSource;
 import java.lang.reflect.InvocationTargetException;
 import java.util.LinkedHashMap;
@@ -36,6 +37,11 @@ public class Substream {
      */
     @Autowired
     private Config config;
+    /**
+     * Mainstream configures recorder when substream tees camera stream.
+     */
+    @Autowired
+    private Mainstream mainstream;
     /**
      * Device name.
      */
@@ -87,7 +93,12 @@ public class Substream {
             final var inArgMap = new LinkedHashMap<String, String>();
             config.getProperties("substream.input.arg", inArgMap);
             ffmpegIn.setBin(env.getProperty("ffmpeg.bin")).setInputArgs(inArgMap);
-        } 
+            // One ffmpeg process records and scales frames for analysis
+        } else if (videoSource instanceof FfmpegTee ffmpegTee) {
+            ffmpegTee.setRecorder(mainstream.createTeeRecord()).setFps(Double.parseDouble(env.getProperty("substream.fps", "0")));
+            ffmpegTee.setWidth(Integer.parseInt(env.getProperty("substream.width", "640"))).setHeight(Integer.parseInt(env.
+                    getProperty("substream.height", "480")));
+        }
         videoSource.open(env.getProperty("substream.device"));
     }
 
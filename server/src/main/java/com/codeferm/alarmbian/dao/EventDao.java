@@ -4,43 +4,358 @@
 package com.codeferm.alarmbian.dao;
 
 import com.codeferm.alarmbian.entity.Event;
+import jakarta.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
-import org.springframework.data.jdbc.repository.query.Modifying;
-import org.springframework.data.jdbc.repository.query.Query;
-import org.springframework.data.repository.ListCrudRepository;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.util.Assert;
 
 /**
- * Crud repository for event table.
+ * Repository for event tables. Rows hold EventDictionary codes instead of device and event type names and file names are stored
+ * relative to the device root, while Event keeps names and absolute file names. Methods that take a table name work on the base
+ * EVENT table or a PartitionDao table.
+ *
+ * Event tables that still have DEVICE_NAME and EVENT_TYPE columns are migrated in place on start up in chunks, so an interrupted
+ * migration continues on the next start.
  *
  * @author Steven P. Goldsmith
  * @version 1.0.0
  * @since 1.0.0
  */
 @Repository
-public interface EventDao extends ListCrudRepository<Event, Long> {
+@Slf4j
+public class EventDao {
+
+    /**
+     * Event columns without ID.
+     */
+    public static final String DATA_COLUMNS = "DEVICE_ID, TYPE_ID, PATH_ID, EVENT_DATA, EVENT_TIME";
+    /**
+     * Event columns.
+     */
+    public static final String COLUMNS = "ID, " + DATA_COLUMNS;
+    /**
+     * Event types with files to delete when cleaning.
+     */
+    public static final List<String> FILE_TYPES = List.of("RECORD_START", "HISTORY_STOP", "MOTION_CLIP");
+    /**
+     * Event types kept when cleaning.
+     */
+    public static final List<String> KEEP_TYPES = List.of("START_UP", "SHUT_DOWN");
+    /**
+     * Rows migrated per batch.
+     */
+    private static final int CHUNK = 1000;
+    /**
+     * JDBC template.
+     */
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    /**
+     * Name codes.
+     */
+    @Autowired
+    private EventDictionary dictionary;
+
+    /**
+     * Migrate event tables that still store names.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        jdbcTemplate.queryForList("select TABLE_NAME from INFORMATION_SCHEMA.COLUMNS where COLUMN_NAME = 'EVENT_TYPE' and "
+                + "TABLE_NAME like 'EVENT%' order by TABLE_NAME", String.class).stream().filter(table -> table.equals("EVENT")
+                || table.matches("EVENT_\\w+_\\d{8}")).forEach(this::migrate);
+    }
+
+    /**
+     * Move names to codes, then drop name columns and their indexes.
+     *
+     * @param table Table name.
+     */
+    private void migrate(final String table) {
+        log.info(String.format("Migrating %s", table));
+        jdbcTemplate.execute(String.format("alter table %s add column if not exists DEVICE_ID smallint null", table));
+        jdbcTemplate.execute(String.format("alter table %s add column if not exists TYPE_ID smallint null", table));
+        jdbcTemplate.execute(String.format("alter table %s add column if not exists PATH_ID int null", table));
+        // Updating indexed code columns row by row is slow, so the indexes are built after
+        jdbcTemplate.execute(String.format("drop index if exists %s", indexName(table)));
+        jdbcTemplate.execute(String.format("drop index if exists %s", timeIndexName(table)));
+        var rows = 0;
+        var lastId = 0L;
+        List<Object[]> chunk;
+        do {
+            // Keyset on primary key so each chunk does not scan migrated rows again
+            chunk = jdbcTemplate.query(String.format("select ID, DEVICE_NAME, EVENT_TYPE, EVENT_DATA from %s where ID > ? and "
+                    + "DEVICE_ID is null order by ID limit %d", table, CHUNK), (rs, rowNum) -> {
+                final var encoded = dictionary.encode(rs.getString("DEVICE_NAME"), rs.getString("EVENT_TYPE"), rs.getString(
+                        "EVENT_DATA"));
+                return new Object[]{encoded.deviceId(), encoded.typeId(), encoded.pathId(), encoded.data(), rs.getLong("ID")};
+            }, lastId);
+            if (!chunk.isEmpty()) {
+                lastId = (Long) chunk.get(chunk.size() - 1)[4];
+                jdbcTemplate.batchUpdate(String.format("update %s set DEVICE_ID = ?, TYPE_ID = ?, PATH_ID = ?, EVENT_DATA = ? "
+                        + "where ID = ?", table), chunk, new int[]{Types.SMALLINT, Types.SMALLINT, Types.INTEGER, Types.VARCHAR,
+                            Types.BIGINT});
+                rows += chunk.size();
+            }
+        } while (chunk.size() == CHUNK);
+        jdbcTemplate.queryForList("select distinct INDEX_NAME from INFORMATION_SCHEMA.INDEX_COLUMNS where TABLE_NAME = ? and "
+                + "COLUMN_NAME in ('DEVICE_NAME', 'EVENT_TYPE')", String.class, table).forEach(index -> jdbcTemplate.execute(String.
+                format("drop index if exists %s", index)));
+        jdbcTemplate.execute(String.format("alter table %s drop column if exists DEVICE_NAME, EVENT_TYPE", table));
+        jdbcTemplate.execute(String.format("alter table %s alter column DEVICE_ID set not null", table));
+        jdbcTemplate.execute(String.format("alter table %s alter column TYPE_ID set not null", table));
+        createIndex(table);
+        log.info(String.format("Migrated %d rows in %s", rows, table));
+    }
+
+    /**
+     * Device, type and time index name. The base table index is also in schema.sql.
+     *
+     * @param table Table name.
+     * @return Index name.
+     */
+    private static String indexName(final String table) {
+        return table.equals("EVENT") ? "EVENT_DEVICE_TYPE_TIME" : String.format("%s_DEVICE", table);
+    }
+
+    /**
+     * Device, time and ID index name. The base table index is also in schema.sql.
+     *
+     * @param table Table name.
+     * @return Index name.
+     */
+    private static String timeIndexName(final String table) {
+        return table.equals("EVENT") ? "EVENT_DEVICE_TIME" : String.format("%s_TIME", table);
+    }
+
+    /**
+     * Create device, type and time index used by cleaning and device, time and ID index used by HistoryDao pages. H2 only stops
+     * a sorted scan early when the index has all order by columns.
+     *
+     * @param table Table name.
+     */
+    public void createIndex(final String table) {
+        jdbcTemplate.execute(String.format("create index if not exists %s on %s(DEVICE_ID, TYPE_ID, EVENT_TIME)", indexName(table),
+                table));
+        jdbcTemplate.execute(String.format("create index if not exists %s on %s(DEVICE_ID, EVENT_TIME, ID)", timeIndexName(table),
+                table));
+    }
+
+    /**
+     * Map event row.
+     *
+     * @param rs Result set.
+     * @param rowNum Row number.
+     * @return Event.
+     * @throws SQLException Possible exception.
+     */
+    public Event mapEvent(final ResultSet rs, final int rowNum) throws SQLException {
+        return dictionary.decode(rs.getLong("ID"), new EventDictionary.Encoded(rs.getInt("DEVICE_ID"), rs.getInt("TYPE_ID"), rs.
+                getObject("PATH_ID", Integer.class), rs.getString("EVENT_DATA")), rs.getTimestamp("EVENT_TIME"));
+    }
 
     /**
-     * Get all entities by device name.
+     * Event type IDs for SQL in list. IDs are numbers, so they are safe to put in SQL.
      *
+     * @param types Event type names.
+     * @return Comma separated IDs.
+     */
+    public String typeIds(final List<String> types) {
+        return types.stream().map(type -> String.valueOf(dictionary.typeId(type))).collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Insert Events into table with one JDBC batch.
+     *
+     * @param table Table name.
+     * @param entities Event entities with null identity.
+     * @return Event entities with identity in the same order.
+     */
+    public List<Event> insert(final String table, final List<Event> entities) {
+        // Encode first since new codes are inserted
+        final var rows = entities.stream().map(dictionary::encode).toList();
+        final var sql = String.format("insert into %s (DEVICE_ID, TYPE_ID, PATH_ID, EVENT_DATA, EVENT_TIME) values (?, ?, ?, ?, ?)",
+                table);
+        return jdbcTemplate.execute(connection -> connection.prepareStatement(sql, new String[]{"ID"}),
+                (PreparedStatement statement) -> {
+                    for (var i = 0; i < entities.size(); i++) {
+                        Assert.isNull(entities.get(i).getId(), "Identity field must be null");
+                        final var row = rows.get(i);
+                        statement.setInt(1, row.deviceId());
+                        statement.setInt(2, row.typeId());
+                        statement.setObject(3, row.pathId(), Types.INTEGER);
+                        statement.setString(4, row.data());
+                        statement.setTimestamp(5, entities.get(i).getEventTime());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    final var list = new ArrayList<Event>();
+                    try (final var keys = statement.getGeneratedKeys()) {
+                        while (keys.next()) {
+                            list.add(entities.get(list.size()).withId(keys.getLong(1)));
+                        }
+                    }
+                    return list;
+                });
+    }
+
+    /**
+     * Get event from base table.
+     *
+     * @param id Event ID.
+     * @return Event.
+     */
+    public Optional<Event> findById(final long id) {
+        return jdbcTemplate.query(String.format("select %s from EVENT where ID = ?", COLUMNS), this::mapEvent, id).stream().
+                findFirst();
+    }
+
+    /**
+     * Get events from base table.
+     *
+     * @param ids Event IDs.
+     * @return List of Event ordered by ID.
+     */
+    public List<Event> findAllById(final Iterable<Long> ids) {
+        final var list = StreamSupport.stream(ids.spliterator(), false).map(String::valueOf).collect(Collectors.joining(", "));
+        return list.isEmpty() ? List.of() : jdbcTemplate.query(String.format("select %s from EVENT where ID in (%s) order by ID",
+                COLUMNS, list), this::mapEvent);
+    }
+
+    /**
+     * Update event in base table.
+     *
+     * @param entity Event with identity.
+     * @return Event.
+     */
+    public Event update(final Event entity) {
+        final var row = dictionary.encode(entity);
+        jdbcTemplate.update("update EVENT set DEVICE_ID = ?, TYPE_ID = ?, PATH_ID = ?, EVENT_DATA = ?, EVENT_TIME = ? where ID = ?",
+                row.deviceId(), row.typeId(), row.pathId(), row.data(), entity.getEventTime(), entity.getId());
+        return entity;
+    }
+
+    /**
+     * Delete event from base table.
+     *
+     * @param id Event ID.
+     */
+    public void deleteById(final long id) {
+        jdbcTemplate.update("delete from EVENT where ID = ?", id);
+    }
+
+    /**
+     * Count base table rows.
+     *
+     * @return Total records.
+     */
+    public long count() {
+        return jdbcTemplate.queryForObject("select count(*) from EVENT", Long.class);
+    }
+
+    /**
+     * Get events by device name with files to delete at or before timestamp.
+     *
+     * @param table Table name.
      * @param deviceName Device name.
      * @param timestamp Timestamp.
-     * @return List of Event entities.
+     * @return List of Event ordered by ID.
+     */
+    public List<Event> findByTime(final String table, final String deviceName, final Timestamp timestamp) {
+        return jdbcTemplate.query(String.format("select %s from %s where DEVICE_ID = ? and TYPE_ID in (%s) and EVENT_TIME <= ? "
+                + "order by ID", COLUMNS, table, typeIds(FILE_TYPES)), this::mapEvent, dictionary.device(deviceName).id(),
+                timestamp);
+    }
+
+    /**
+     * Get events by device name in time range.
+     *
+     * @param table Table name.
+     * @param deviceName Device name.
+     * @param from Range start.
+     * @param to Range end.
+     * @return List of Event ordered by event time.
      */
-    @Query(value
-            = "select ID, DEVICE_NAME, EVENT_TYPE, EVENT_DATA, EVENT_TIME from EVENT where DEVICE_NAME = :deviceName and EVENT_TYPE in ('RECORD_START',  'HISTORY_STOP') and EVENT_TIME <= :timestamp  order by ID")
-    List<Event> findByTime(final String deviceName, final Timestamp timestamp);
+    public List<Event> findByRange(final String table, final String deviceName, final Timestamp from, final Timestamp to) {
+        return jdbcTemplate.query(String.format("select %s from %s where DEVICE_ID = ? and EVENT_TIME between ? and ? order by "
+                + "EVENT_TIME", COLUMNS, table), this::mapEvent, dictionary.device(deviceName).id(), from, to);
+    }
 
     /**
-     * Delete all records by name and timestamp except 'START_UP' and 'SHUT_DOWN'.
+     * Delete events from base table by device name at or before timestamp except 'START_UP' and 'SHUT_DOWN'.
      *
      * @param deviceName Device name.
      * @param timestamp Timestamp.
      * @return Records deleted.
      */
-    @Modifying
-    @Query(value
-            = "delete from EVENT where DEVICE_NAME = :deviceName and EVENT_TYPE not in ('START_UP',  'SHUT_DOWN') and EVENT_TIME <= :timestamp")
-    int deleteByTime(final String deviceName, final Timestamp timestamp);
+    public int deleteByTime(final String deviceName, final Timestamp timestamp) {
+        return jdbcTemplate.update(String.format("delete from EVENT where DEVICE_ID = ? and TYPE_ID not in (%s) and EVENT_TIME "
+                + "<= ?", typeIds(KEEP_TYPES)), dictionary.device(deviceName).id(), timestamp);
+    }
+
+    /**
+     * Get chunk of events by device name at or before timestamp except 'START_UP' and 'SHUT_DOWN'. Chunks use keyset pagination
+     * on the DEVICE_ID, EVENT_TIME, ID index, so H2 stops the index scan after one chunk.
+     *
+     * @param table Table name.
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @param after Cursor of last event of previous chunk or null for first chunk.
+     * @param limit Chunk size.
+     * @param filesOnly Only get events with files to delete.
+     * @return List of Event ordered by event time and ID.
+     */
+    public List<Event> findExpired(final String table, final String deviceName, final Timestamp timestamp,
+            final HistoryDao.Cursor after, final int limit, final boolean filesOnly) {
+        final var args = new ArrayList<Object>(List.of(dictionary.device(deviceName).id(), timestamp));
+        var where = "";
+        if (after != null) {
+            where = " and EVENT_TIME >= ? and (EVENT_TIME > ? or ID > ?)";
+            args.addAll(List.of(after.time(), after.time(), after.id()));
+        }
+        final var types = filesOnly ? String.format("in (%s)", typeIds(FILE_TYPES)) : String.format("not in (%s)", typeIds(
+                KEEP_TYPES));
+        return jdbcTemplate.query(String.format("select %s from %s where DEVICE_ID = ? and EVENT_TIME <= ?%s and TYPE_ID %s order "
+                + "by DEVICE_ID, EVENT_TIME, ID limit %d", COLUMNS, table, where, types, limit), this::mapEvent, args.toArray());
+    }
+
+    /**
+     * Delete events by ID.
+     *
+     * @param table Table name.
+     * @param ids Event IDs.
+     * @return Records deleted.
+     */
+    public int deleteAllById(final String table, final List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return jdbcTemplate.update(String.format("delete from %s where ID in (%s)", table, ids.stream().map(String::valueOf).
+                collect(Collectors.joining(", "))));
+    }
+
+    /**
+     * Copy 'START_UP' and 'SHUT_DOWN' events to base table. Nothing references kept events, so they get new IDs from the EVENT
+     * identity instead of their EVENT_SEQ IDs, which the identity would hand out again once partitioning is off.
+     *
+     * @param table Table name.
+     * @return Records copied.
+     */
+    public int copyKept(final String table) {
+        return jdbcTemplate.update(String.format("insert into EVENT (%s) select %s from %s where TYPE_ID in (%s) order by "
+                + "EVENT_TIME, ID", DATA_COLUMNS, DATA_COLUMNS, table, typeIds(KEEP_TYPES)));
+    }
 }
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.dao;
+
+import com.codeferm.alarmbian.entity.Event;
+import jakarta.annotation.PostConstruct;
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Small integer codes for device names, event types and directories, so event rows and their index hold numbers instead of
+ * repeated strings. Codes are assigned on first use and cached, and codes written by another process are read on a cache miss.
+ *
+ * A device's root is ffmpeg.output.path/device when the device is first seen. File names of EventDao.FILE_TYPES events under the
+ * root are stored as a directory relative to the root plus the file name, and other absolute file names keep their absolute
+ * directory. Other event data, like RECORD_STOP's file name and summary, is stored as is.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Repository
+@Slf4j
+public class EventDictionary {
+
+    /**
+     * Device row.
+     *
+     * @param id Device ID.
+     * @param name Device name.
+     * @param root Directory file names are relative to.
+     */
+    public record Device(int id, String name, String root) {
+
+    }
+
+    /**
+     * Event row columns other than ID and time.
+     *
+     * @param deviceId Device ID.
+     * @param typeId Event type ID.
+     * @param pathId Directory ID or null if data is not a file name.
+     * @param data File name without directory or event data.
+     */
+    public record Encoded(int deviceId, int typeId, Integer pathId, String data) {
+
+    }
+
+    /**
+     * JDBC template.
+     */
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    /**
+     * Recording output path.
+     */
+    @Value("${ffmpeg.output.path}")
+    private String outputPath;
+    /**
+     * Devices by name.
+     */
+    private final Map<String, Device> devicesByName = new ConcurrentHashMap<>();
+    /**
+     * Devices by ID.
+     */
+    private final Map<Integer, Device> devicesById = new ConcurrentHashMap<>();
+    /**
+     * Event type IDs by name.
+     */
+    private final Map<String, Integer> typeIds = new ConcurrentHashMap<>();
+    /**
+     * Event type names by ID.
+     */
+    private final Map<Integer, String> typeNames = new ConcurrentHashMap<>();
+    /**
+     * Directory IDs by device ID and directory.
+     */
+    private final Map<String, Integer> pathIds = new ConcurrentHashMap<>();
+    /**
+     * Directories by ID.
+     */
+    private final Map<Integer, String> paths = new ConcurrentHashMap<>();
+
+    /**
+     * Load dictionaries.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        jdbcTemplate.query("select ID, NAME, ROOT from DEVICE", EventDictionary::mapDevice).forEach(this::cacheDevice);
+        jdbcTemplate.query("select ID, NAME from EVENT_CODE", rs -> {
+            cacheType(rs.getInt("ID"), rs.getString("NAME"));
+        });
+        jdbcTemplate.query("select ID, DEVICE_ID, DIR from PATH_", rs -> {
+            cachePath(rs.getInt("ID"), rs.getInt("DEVICE_ID"), rs.getString("DIR"));
+        });
+        log.info(String.format("%d devices, %d event types, %d paths", devicesById.size(), typeNames.size(), paths.size()));
+    }
+
+    /**
+     * Map device row.
+     *
+     * @param rs Result set.
+     * @param rowNum Row number.
+     * @return Device.
+     * @throws SQLException Possible exception.
+     */
+    private static Device mapDevice(final ResultSet rs, final int rowNum) throws SQLException {
+        return new Device(rs.getInt("ID"), rs.getString("NAME"), rs.getString("ROOT"));
+    }
+
+    /**
+     * Cache device.
+     *
+     * @param device Device.
+     */
+    private void cacheDevice(final Device device) {
+        devicesByName.put(device.name(), device);
+        devicesById.put(device.id(), device);
+    }
+
+    /**
+     * Cache event type.
+     *
+     * @param id Event type ID.
+     * @param name Event type name.
+     */
+    private void cacheType(final int id, final String name) {
+        typeIds.put(name, id);
+        typeNames.put(id, name);
+    }
+
+    /**
+     * Cache directory.
+     *
+     * @param id Directory ID.
+     * @param deviceId Device ID.
+     * @param dir Directory.
+     */
+    private void cachePath(final int id, final int deviceId, final String dir) {
+        pathIds.put(pathKey(deviceId, dir), id);
+        paths.put(id, dir);
+    }
+
+    /**
+     * Directory cache key.
+     *
+     * @param deviceId Device ID.
+     * @param dir Directory.
+     * @return Key.
+     */
+    private static String pathKey(final int deviceId, final String dir) {
+        return String.format("%d:%s", deviceId, dir);
+    }
+
+    /**
+     * Device by name, added if new.
+     *
+     * @param name Device name.
+     * @return Device.
+     */
+    public Device device(final String name) {
+        var device = devicesByName.get(name);
+        if (device == null) {
+            synchronized (devicesByName) {
+                // Root of an existing device is kept
+                jdbcTemplate.update("insert into DEVICE (NAME, ROOT) select ?, ? where not exists (select 1 from DEVICE where "
+                        + "NAME = ?)", name, String.format("%s%s%s", outputPath, File.separator, name), name);
+                device = jdbcTemplate.queryForObject("select ID, NAME, ROOT from DEVICE where NAME = ?", EventDictionary::mapDevice,
+                        name);
+                cacheDevice(device);
+            }
+        }
+        return device;
+    }
+
+    /**
+     * Device by name without adding it.
+     *
+     * @param name Device name.
+     * @return Device or empty if unknown.
+     */
+    public Optional<Device> findDevice(final String name) {
+        final var device = devicesByName.get(name);
+        if (device != null) {
+            return Optional.of(device);
+        }
+        final var list = jdbcTemplate.query("select ID, NAME, ROOT from DEVICE where NAME = ?", EventDictionary::mapDevice, name);
+        list.forEach(this::cacheDevice);
+        return list.stream().findFirst();
+    }
+
+    /**
+     * Device by ID.
+     *
+     * @param id Device ID.
+     * @return Device.
+     */
+    public Device device(final int id) {
+        return devicesById.computeIfAbsent(id, key -> jdbcTemplate.queryForObject("select ID, NAME, ROOT from DEVICE where ID = ?",
+                EventDictionary::mapDevice, key));
+    }
+
+    /**
+     * Event type ID, added if new.
+     *
+     * @param name Event type name.
+     * @return Event type ID.
+     */
+    public int typeId(final String name) {
+        var id = typeIds.get(name);
+        if (id == null) {
+            synchronized (typeIds) {
+                jdbcTemplate.update("merge into EVENT_CODE (NAME) key (NAME) values (?)", name);
+                id = jdbcTemplate.queryForObject("select ID from EVENT_CODE where NAME = ?", Integer.class, name);
+                cacheType(id, name);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Event type ID without adding it.
+     *
+     * @param name Event type name.
+     * @return Event type ID or empty if unknown.
+     */
+    public Optional<Integer> findTypeId(final String name) {
+        final var id = typeIds.get(name);
+        if (id != null) {
+            return Optional.of(id);
+        }
+        final var list = jdbcTemplate.queryForList("select ID from EVENT_CODE where NAME = ?", Integer.class, name);
+        list.forEach(value -> cacheType(value, name));
+        return list.stream().findFirst();
+    }
+
+    /**
+     * Event type name.
+     *
+     * @param id Event type ID.
+     * @return Event type name.
+     */
+    public String typeName(final int id) {
+        return typeNames.computeIfAbsent(id, key -> jdbcTemplate.queryForObject("select NAME from EVENT_CODE where ID = ?",
+                String.class, key));
+    }
+
+    /**
+     * Directory ID, added if new.
+     *
+     * @param deviceId Device ID.
+     * @param dir Directory relative to device root or absolute.
+     * @return Directory ID.
+     */
+    public int pathId(final int deviceId, final String dir) {
+        var id = pathIds.get(pathKey(deviceId, dir));
+        if (id == null) {
+            synchronized (pathIds) {
+                jdbcTemplate.update("merge into PATH_ (DEVICE_ID, DIR) key (DEVICE_ID, DIR) values (?, ?)", deviceId, dir);
+                id = jdbcTemplate.queryForObject("select ID from PATH_ where DEVICE_ID = ? and DIR = ?", Integer.class, deviceId,
+                        dir);
+                cachePath(id, deviceId, dir);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Directory.
+     *
+     * @param id Directory ID.
+     * @return Directory relative to device root or absolute.
+     */
+    public String dir(final int id) {
+        return paths.computeIfAbsent(id, key -> jdbcTemplate.queryForObject("select DIR from PATH_ where ID = ?", String.class,
+                key));
+    }
+
+    /**
+     * Encode event columns.
+     *
+     * @param deviceName Device name.
+     * @param eventType Event type name.
+     * @param eventData Event data.
+     * @return Encoded columns.
+     */
+    public Encoded encode(final String deviceName, final String eventType, final String eventData) {
+        final var device = device(deviceName);
+        final var typeId = typeId(eventType);
+        final int index;
+        if (eventData == null || !EventDao.FILE_TYPES.contains(eventType) || !eventData.startsWith(File.separator) || (index =
+                eventData.lastIndexOf(File.separator)) == 0) {
+            return new Encoded(device.id(), typeId, null, eventData);
+        }
+        var dir = eventData.substring(0, index);
+        final var prefix = device.root() + File.separator;
+        if (dir.equals(device.root())) {
+            dir = "";
+        } else if (dir.startsWith(prefix)) {
+            dir = dir.substring(prefix.length());
+        }
+        return new Encoded(device.id(), typeId, pathId(device.id(), dir), eventData.substring(index + 1));
+    }
+
+    /**
+     * Encode event columns.
+     *
+     * @param event Event.
+     * @return Encoded columns.
+     */
+    public Encoded encode(final Event event) {
+        return encode(event.getDeviceName(), event.getEventType(), event.getEventData());
+    }
+
+    /**
+     * Decode event row.
+     *
+     * @param id Event ID.
+     * @param encoded Encoded columns.
+     * @param eventTime Event time.
+     * @return Event.
+     */
+    public Event decode(final long id, final Encoded encoded, final Timestamp eventTime) {
+        final var device = device(encoded.deviceId());
+        var data = encoded.data();
+        if (encoded.pathId() != null) {
+            final var dir = dir(encoded.pathId());
+            if (dir.startsWith(File.separator)) {
+                data = String.format("%s%s%s", dir, File.separator, data);
+            } else if (dir.isEmpty()) {
+                data = String.format("%s%s%s", device.root(), File.separator, data);
+            } else {
+                data = String.format("%s%s%s%s%s", device.root(), File.separator, dir, File.separator, data);
+            }
+        }
+        return new Event(device.name(), typeName(encoded.typeId()), data, eventTime).withId(id);
+    }
+}
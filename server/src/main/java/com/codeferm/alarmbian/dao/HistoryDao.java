@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.dao;
+
+import com.codeferm.alarmbian.entity.Detection;
+import com.codeferm.alarmbian.entity.Event;
+import com.codeferm.alarmbian.entity.Frame;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Pages of events and frames of one device in time order across the base tables and PartitionDao tables. Pages use keyset
+ * pagination on time and ID, so the next page starts at the Cursor of the last row in an index instead of skipping rows like
+ * OFFSET. Rows are passed to a Consumer as they are read, so a page is never held in a List.
+ *
+ * Each table is read in its own sub-query limited to the page size, which lets H2 stop a sorted index scan after one page. Only
+ * partitions that overlap the time range are read.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Repository
+@Slf4j
+public class HistoryDao {
+
+    /**
+     * Position after the last row of a page.
+     *
+     * @param time Event or frame time.
+     * @param id Event or frame ID.
+     */
+    public record Cursor(Timestamp time, long id) {
+
+        /**
+         * Parse cursor.
+         *
+         * @param value Cursor from toString.
+         * @return Cursor.
+         */
+        public static Cursor parse(final String value) {
+            final var index = value.lastIndexOf('_');
+            if (index < 0) {
+                throw new IllegalArgumentException(String.format("Invalid cursor %s", value));
+            }
+            return new Cursor(Timestamp.valueOf(LocalDateTime.parse(value.substring(0, index))), Long.parseLong(value.substring(
+                    index + 1)));
+        }
+
+        /**
+         * Cursor as ISO local date time and ID.
+         *
+         * @return Cursor like 2024-01-01T10:15:30.25_1234.
+         */
+        @Override
+        public String toString() {
+            return String.format("%s_%d", time.toLocalDateTime(), id);
+        }
+    }
+
+    /**
+     * Page filter. Null fields do not filter.
+     *
+     * @param deviceName Device name.
+     * @param types Event type names or empty for all types.
+     * @param label Detection label.
+     * @param confidence Minimum detection confidence.
+     * @param from Range start.
+     * @param to Range end.
+     * @param after Cursor of last row of previous page or null for first page.
+     * @param limit Page size.
+     */
+    public record Filter(String deviceName, List<String> types, String label, Double confidence, Timestamp from, Timestamp to,
+            Cursor after, int limit) {
+
+        /**
+         * Lower time bound of page.
+         *
+         * @return Later of range start and cursor time or null.
+         */
+        public Timestamp start() {
+            if (after == null) {
+                return from;
+            }
+            return from == null || after.time().after(from) ? after.time() : from;
+        }
+    }
+
+    /**
+     * JDBC template.
+     */
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    /**
+     * Name codes.
+     */
+    @Autowired
+    private EventDictionary dictionary;
+    /**
+     * Event tables.
+     */
+    @Autowired
+    private EventDao eventDao;
+    /**
+     * Partition tables.
+     */
+    @Autowired
+    private PartitionDao partitionDao;
+
+    /**
+     * Partitions of device that overlap page.
+     *
+     * @param filter Page filter.
+     * @return Partitions ordered by start.
+     */
+    private List<PartitionDao.Partition> partitions(final Filter filter) {
+        return partitionDao.isEnabled() ? partitionDao.partitions(filter.deviceName(), filter.start(), filter.to()) : List.of();
+    }
+
+    /**
+     * Add time range and cursor conditions.
+     *
+     * @param where Where clause.
+     * @param args Arguments.
+     * @param column Time column.
+     * @param filter Page filter.
+     */
+    private static void time(final StringBuilder where, final List<Object> args, final String column, final Filter filter) {
+        if (filter.start() != null) {
+            where.append(String.format(" and %s >= ?", column));
+            args.add(filter.start());
+        }
+        if (filter.to() != null) {
+            where.append(String.format(" and %s <= ?", column));
+            args.add(filter.to());
+        }
+        if (filter.after() != null) {
+            where.append(String.format(" and (%s > ? or ID > ?)", column));
+            args.add(filter.after().time());
+            args.add(filter.after().id());
+        }
+    }
+
+    /**
+     * Read page of events ordered by event time and ID.
+     *
+     * @param filter Page filter.
+     * @param consumer Gets each Event.
+     * @return Cursor of next page or null if this is the last page.
+     */
+    public Cursor events(final Filter filter, final Consumer<Event> consumer) {
+        final var device = dictionary.findDevice(filter.deviceName());
+        if (device.isEmpty()) {
+            return null;
+        }
+        // Unknown types cannot match, so they are not added to the dictionary
+        final var typeIds = filter.types().stream().map(dictionary::findTypeId).flatMap(Optional::stream).map(String::valueOf).
+                collect(Collectors.joining(", "));
+        if (!filter.types().isEmpty() && typeIds.isEmpty()) {
+            return null;
+        }
+        final var tables = new ArrayList<>(List.of("EVENT"));
+        partitions(filter).forEach(partition -> tables.add(partition.eventTable()));
+        final var args = new ArrayList<Object>();
+        final var sql = tables.stream().map(table -> {
+            final var where = new StringBuilder("DEVICE_ID = ?");
+            args.add(device.get().id());
+            if (!typeIds.isEmpty()) {
+                where.append(String.format(" and TYPE_ID in (%s)", typeIds));
+            }
+            time(where, args, "EVENT_TIME", filter);
+            return String.format("(select %s from %s where %s order by DEVICE_ID, EVENT_TIME, ID limit %d)", EventDao.COLUMNS,
+                    table, where, filter.limit());
+        }).collect(Collectors.joining(" union all "));
+        final var count = new int[1];
+        final var last = new Event[1];
+        jdbcTemplate.query(String.format("select * from (%s) order by EVENT_TIME, ID limit %d", sql, filter.limit()), rs -> {
+            last[0] = eventDao.mapEvent(rs, count[0]++);
+            consumer.accept(last[0]);
+        }, args.toArray());
+        return count[0] < filter.limit() ? null : new Cursor(last[0].getEventTime(), last[0].getId());
+    }
+
+    /**
+     * Read page of frames with their detections ordered by frame time and ID. If label or confidence are set only frames with a
+     * matching detection are read and only matching detections are added to them.
+     *
+     * @param filter Page filter.
+     * @param consumer Gets each Frame.
+     * @return Cursor of next page or null if this is the last page.
+     */
+    public Cursor frames(final Filter filter, final Consumer<Frame> consumer) {
+        final var device = dictionary.findDevice(filter.deviceName());
+        if (device.isEmpty()) {
+            return null;
+        }
+        final var match = new StringBuilder();
+        final var matchArgs = new ArrayList<Object>();
+        if (filter.label() != null) {
+            match.append(" and d.LABEL_ = ?");
+            matchArgs.add(filter.label());
+        }
+        if (filter.confidence() != null) {
+            match.append(" and d.CONFIDENCE >= ?");
+            matchArgs.add(filter.confidence());
+        }
+        // Base tables hold every device, partition tables only one
+        final var tables = new ArrayList<String[]>();
+        tables.add(new String[]{"FRAME", "DETECTION"});
+        partitions(filter).forEach(partition -> tables.add(new String[]{partition.frameTable(), partition.detectionTable()}));
+        final var args = new ArrayList<Object>();
+        final var sql = tables.stream().map(table -> {
+            final var where = new StringBuilder("1 = 1");
+            if (table[0].equals("FRAME")) {
+                where.append(" and exists (select 1 from EVENT e where e.ID = f.EVENT_ID and e.DEVICE_ID = ?)");
+                args.add(device.get().id());
+            }
+            time(where, args, "FRAME_TIME", filter);
+            if (!match.isEmpty()) {
+                where.append(String.format(" and exists (select 1 from %s d where d.FRAME_ID = f.ID%s)", table[1], match));
+                args.addAll(matchArgs);
+            }
+            final var page = String.format("select ID, EVENT_ID, FRAME_TIME from %s f where %s order by FRAME_TIME, ID limit %d",
+                    table[0], where, filter.limit());
+            args.addAll(matchArgs);
+            return String.format("select p.ID, p.EVENT_ID, p.FRAME_TIME, d.ID DETECTION_ID, d.LABEL_, d.CONFIDENCE, d.Y_MIN, "
+                    + "d.X_MIN, d.Y_MAX, d.X_MAX, d.TRACK_ID from (%s) p left join %s d on d.FRAME_ID = p.ID%s", page, table[1],
+                    match);
+        }).collect(Collectors.joining(" union all "));
+        final var count = new int[1];
+        final var frame = new Frame[1];
+        final var last = new Frame[1];
+        jdbcTemplate.query(String.format("%s order by FRAME_TIME, ID, DETECTION_ID", sql), rs -> {
+            final var id = rs.getLong("ID");
+            if (frame[0] == null || !frame[0].getId().equals(id)) {
+                if (frame[0] != null) {
+                    consumer.accept(frame[0]);
+                    last[0] = frame[0];
+                }
+                // Each table returns a page, so rows after the first page of frames are skipped
+                frame[0] = count[0]++ < filter.limit() ? Frame.builder().eventId(rs.getLong("EVENT_ID")).frameTime(rs.
+                        getTimestamp("FRAME_TIME")).build().withId(id) : null;
+            }
+            if (frame[0] != null && rs.getObject("DETECTION_ID") != null) {
+                final var detection = new Detection(id, rs.getString("LABEL_"), rs.getDouble("CONFIDENCE"), rs.getInt("Y_MIN"), rs.
+                        getInt("X_MIN"), rs.getInt("Y_MAX"), rs.getInt("X_MAX"));
+                detection.setTrackId(rs.getObject("TRACK_ID", Long.class));
+                frame[0].addDetection(detection);
+            }
+        }, args.toArray());
+        if (frame[0] != null) {
+            consumer.accept(frame[0]);
+            last[0] = frame[0];
+        }
+        return count[0] < filter.limit() ? null : new Cursor(last[0].getFrameTime(), last[0].getId());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.dao;
+
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Rows of one device that reference files, which are EventDao.FILE_TYPES events in the base table and every partition table plus
+ * segments. Rows are passed to a Consumer as they are read, so a device with millions of files is never held in a List.
+ *
+ * Partition tables are read even if partition.enabled is false, since a file of any existing row is not an orphan.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Repository
+@Slf4j
+public class OrphanDao {
+
+    /**
+     * Row that references a file.
+     *
+     * @param table Table name.
+     * @param id Row ID.
+     * @param fileName Absolute file name.
+     */
+    public record FileRow(String table, long id, String fileName) {
+
+    }
+
+    /**
+     * JDBC template.
+     */
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    /**
+     * Name codes.
+     */
+    @Autowired
+    private EventDictionary dictionary;
+    /**
+     * Event tables.
+     */
+    @Autowired
+    private EventDao eventDao;
+    /**
+     * Partition tables.
+     */
+    @Autowired
+    private PartitionDao partitionDao;
+
+    /**
+     * Event tables of device.
+     *
+     * @param device Device.
+     * @return Base EVENT table followed by partition event tables.
+     */
+    private List<String> tables(final EventDictionary.Device device) {
+        final var list = new ArrayList<>(List.of("EVENT"));
+        partitionDao.partitions(device.name(), null, null).forEach(partition -> list.add(partition.eventTable()));
+        return list;
+    }
+
+    /**
+     * Count rows of device that reference files.
+     *
+     * @param device Device.
+     * @return Event and segment rows.
+     */
+    public long count(final EventDictionary.Device device) {
+        var count = jdbcTemplate.queryForObject("select count(*) from SEGMENT where DEVICE_NAME = ?", Long.class, device.name());
+        for (final var table : tables(device)) {
+            count += jdbcTemplate.queryForObject(String.format("select count(*) from %s where DEVICE_ID = ? and TYPE_ID in (%s)",
+                    table, eventDao.typeIds(EventDao.FILE_TYPES)), Long.class, device.id());
+        }
+        return count;
+    }
+
+    /**
+     * Read rows of device that reference files. Event data that is not an absolute file name, like RECORD_START's "No file" for
+     * recorders without a file, is skipped.
+     *
+     * @param device Device.
+     * @param before Only rows at or before this time or null for all rows.
+     * @param consumer Gets each row.
+     */
+    public void rows(final EventDictionary.Device device, final Timestamp before, final Consumer<FileRow> consumer) {
+        final var eventTime = before == null ? "" : " and EVENT_TIME <= ?";
+        final var endTime = before == null ? "" : " and END_TIME <= ?";
+        final var args = before == null ? new Object[]{device.id()} : new Object[]{device.id(), before};
+        for (final var table : tables(device)) {
+            jdbcTemplate.query(String.format("select %s from %s where DEVICE_ID = ? and TYPE_ID in (%s)%s", EventDao.COLUMNS, table,
+                    eventDao.typeIds(EventDao.FILE_TYPES), eventTime), rs -> {
+                final var event = eventDao.mapEvent(rs, 0);
+                if (event.getEventData() != null && Paths.get(event.getEventData()).isAbsolute()) {
+                    consumer.accept(new FileRow(table, event.getId(), event.getEventData()));
+                }
+            }, args);
+        }
+        args[0] = device.name();
+        jdbcTemplate.query(String.format("select ID, FILE_NAME from SEGMENT where DEVICE_NAME = ?%s", endTime), rs -> {
+            consumer.accept(new FileRow("SEGMENT", rs.getLong("ID"), rs.getString("FILE_NAME")));
+        }, args);
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.dao;
+
+import com.codeferm.alarmbian.entity.Event;
+import jakarta.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Route event, frame and detection rows to tables per device and period. A partition is the three tables EVENT_device_start,
+ * FRAME_device_start and DETECTION_device_start where device is the upper case device name with other than letters and digits
+ * replaced by _ and start is the first day of the period as yyyyMMdd. Tables are created on first use and share sequences, so IDs
+ * are unique across partitions and the base tables.
+ *
+ * Retention drops a whole partition once its period ended before the cutoff, which costs the same no matter how many rows it
+ * holds. Frames go to the partition of their frame time, so there are no foreign keys between partition tables. Do not change
+ * partition.period while partitions exist.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Repository
+@Slf4j
+public class PartitionDao {
+
+    /**
+     * Partition period.
+     */
+    public enum Period {
+        DAY, WEEK
+    }
+
+    /**
+     * Partition of one device and period.
+     *
+     * @param device Device part of table name.
+     * @param start First day of period.
+     * @param end Day after period.
+     */
+    public record Partition(String device, LocalDate start, LocalDate end) {
+
+        /**
+         * Table name suffix.
+         *
+         * @return Suffix like CAM1_20240101.
+         */
+        public String suffix() {
+            return String.format("%s_%s", device, FORMAT.format(start));
+        }
+
+        /**
+         * Event table name.
+         *
+         * @return Table name.
+         */
+        public String eventTable() {
+            return String.format("EVENT_%s", suffix());
+        }
+
+        /**
+         * Frame table name.
+         *
+         * @return Table name.
+         */
+        public String frameTable() {
+            return String.format("FRAME_%s", suffix());
+        }
+
+        /**
+         * Detection table name.
+         *
+         * @return Table name.
+         */
+        public String detectionTable() {
+            return String.format("DETECTION_%s", suffix());
+        }
+    }
+
+    /**
+     * Table name date format.
+     */
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    /**
+     * Event partition table name.
+     */
+    private static final Pattern TABLE = Pattern.compile("EVENT_(\\w+)_(\\d{8})");
+    /**
+     * JDBC template.
+     */
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    /**
+     * Event tables.
+     */
+    @Autowired
+    private EventDao eventDao;
+    /**
+     * Enabled flag.
+     */
+    @Value("${partition.enabled}")
+    private boolean enabled;
+    /**
+     * Partition period.
+     */
+    @Value("${partition.period}")
+    private Period period;
+    /**
+     * Suffixes of partitions known to exist.
+     */
+    private final Set<String> created = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Move sequences past base table keys and find existing partitions.
+     */
+    @PostConstruct
+    public void init() {
+        log.debug("init");
+        if (enabled) {
+            for (final var table : List.of("EVENT", "FRAME", "DETECTION")) {
+                final var max = jdbcTemplate.queryForObject(String.format("select coalesce(max(ID), 0) from %s", table),
+                        Long.class);
+                final var next = jdbcTemplate.queryForObject(
+                        "select BASE_VALUE from INFORMATION_SCHEMA.SEQUENCES where SEQUENCE_NAME = ?", Long.class, table + "_SEQ");
+                if (next <= max) {
+                    jdbcTemplate.execute(String.format("alter sequence %s_SEQ restart with %d", table, max + 1));
+                }
+            }
+            partitions().forEach(partition -> {
+                index(partition);
+                created.add(partition.suffix());
+            });
+            log.info(String.format("%d %s partitions", created.size(), period));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Device part of table name.
+     *
+     * @param deviceName Device name.
+     * @return Upper case device name with only letters, digits and _.
+     */
+    public static String device(final String deviceName) {
+        return deviceName.toUpperCase().replaceAll("[^A-Z0-9]", "_");
+    }
+
+    /**
+     * Partition holding timestamp.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @return Partition.
+     */
+    public Partition partition(final String deviceName, final Timestamp timestamp) {
+        return partition(device(deviceName), timestamp.toLocalDateTime().toLocalDate());
+    }
+
+    /**
+     * Partition holding day.
+     *
+     * @param device Device part of table name.
+     * @param day Day.
+     * @return Partition.
+     */
+    private Partition partition(final String device, final LocalDate day) {
+        final var start = period == Period.WEEK ? day.with(DayOfWeek.MONDAY) : day;
+        return new Partition(device, start, start.plusDays(period == Period.WEEK ? 7 : 1));
+    }
+
+    /**
+     * Partition holding timestamp, created if it does not exist. H2 commits on DDL, so call this before inserting in a transaction.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @return Partition.
+     */
+    public Partition ensure(final String deviceName, final Timestamp timestamp) {
+        final var partition = partition(deviceName, timestamp);
+        if (!created.contains(partition.suffix())) {
+            synchronized (created) {
+                if (!created.contains(partition.suffix())) {
+                    create(partition);
+                    created.add(partition.suffix());
+                }
+            }
+        }
+        return partition;
+    }
+
+    /**
+     * Create partition tables.
+     *
+     * @param partition Partition.
+     */
+    private void create(final Partition partition) {
+        log.info(String.format("Creating partition %s", partition.suffix()));
+        jdbcTemplate.execute(String.format("create table if not exists %s (ID bigint default next value for EVENT_SEQ primary key, "
+                + "DEVICE_ID smallint not null, TYPE_ID smallint not null, PATH_ID int null, EVENT_DATA varchar(255) null, "
+                + "EVENT_TIME timestamp not null)", partition.eventTable()));
+        jdbcTemplate.execute(String.format("create table if not exists %s (ID bigint default next value for FRAME_SEQ primary key, "
+                + "EVENT_ID bigint not null, FRAME_TIME timestamp not null)", partition.frameTable()));
+        jdbcTemplate.execute(String.format("create table if not exists %s (ID bigint default next value for DETECTION_SEQ primary "
+                + "key, FRAME_ID bigint not null, LABEL_ varchar(50) not null, CONFIDENCE float not null, Y_MIN int not null, "
+                + "X_MIN int not null, Y_MAX int not null, X_MAX int not null, TRACK_ID bigint null)", partition.detectionTable()));
+        index(partition);
+    }
+
+    /**
+     * Create partition indexes. This is also run for existing partitions on start up, so indexes added later are created.
+     *
+     * @param partition Partition.
+     */
+    private void index(final Partition partition) {
+        eventDao.createIndex(partition.eventTable());
+        jdbcTemplate.execute(String.format("create index if not exists %s_EVENT on %s(EVENT_ID)", partition.frameTable(),
+                partition.frameTable()));
+        jdbcTemplate.execute(String.format("create index if not exists %s_TIME on %s(FRAME_TIME, ID)", partition.frameTable(),
+                partition.frameTable()));
+        jdbcTemplate.execute(String.format("create index if not exists %s_FRAME on %s(FRAME_ID)", partition.detectionTable(),
+                partition.detectionTable()));
+    }
+
+    /**
+     * Existing partitions.
+     *
+     * @return Partitions ordered by device and start.
+     */
+    public List<Partition> partitions() {
+        final var list = new ArrayList<Partition>();
+        jdbcTemplate.queryForList("select TABLE_NAME from INFORMATION_SCHEMA.TABLES where TABLE_NAME like 'EVENT\\_%' order by "
+                + "TABLE_NAME", String.class).forEach(name -> {
+            final var matcher = TABLE.matcher(name);
+            if (matcher.matches()) {
+                list.add(partition(matcher.group(1), LocalDate.parse(matcher.group(2), FORMAT)));
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Partitions of device that overlap time range.
+     *
+     * @param deviceName Device name.
+     * @param from Range start or null for no lower bound.
+     * @param to Range end or null for no upper bound.
+     * @return Partitions ordered by start.
+     */
+    public List<Partition> partitions(final String deviceName, final Timestamp from, final Timestamp to) {
+        final var device = device(deviceName);
+        final var fromDay = from == null ? null : from.toLocalDateTime().toLocalDate();
+        final var toDay = to == null ? null : to.toLocalDateTime().toLocalDate();
+        return partitions().stream().filter(partition -> partition.device().equals(device) && (fromDay == null || partition.
+                end().isAfter(fromDay)) && (toDay == null || !partition.start().isAfter(toDay))).toList();
+    }
+
+    /**
+     * Partitions of device whose period ended on or before timestamp.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Cutoff.
+     * @return Partitions ordered by start.
+     */
+    public List<Partition> expired(final String deviceName, final Timestamp timestamp) {
+        final var cutoff = timestamp.toLocalDateTime();
+        return partitions(deviceName, null, timestamp).stream().filter(partition -> !partition.end().atStartOfDay().isAfter(
+                cutoff)).toList();
+    }
+
+    /**
+     * Get events of device in partitions whose period ended on or before timestamp that have files to delete.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Cutoff.
+     * @return List of Event ordered by partition and ID.
+     */
+    public List<Event> findExpired(final String deviceName, final Timestamp timestamp) {
+        final var list = new ArrayList<Event>();
+        for (final var partition : expired(deviceName, timestamp)) {
+            list.addAll(eventDao.findByTime(partition.eventTable(), deviceName, timestamp));
+        }
+        return list;
+    }
+
+    /**
+     * Get events of device in time range, reading only partitions that overlap it.
+     *
+     * @param deviceName Device name.
+     * @param from Range start.
+     * @param to Range end.
+     * @return List of Event ordered by partition and event time.
+     */
+    public List<Event> findByRange(final String deviceName, final Timestamp from, final Timestamp to) {
+        final var list = new ArrayList<Event>();
+        for (final var partition : partitions(deviceName, from, to)) {
+            list.addAll(eventDao.findByRange(partition.eventTable(), deviceName, from, to));
+        }
+        return list;
+    }
+
+    /**
+     * Drop partitions of device whose period ended on or before timestamp. START_UP and SHUT_DOWN events are copied to the base
+     * EVENT table first, since age based cleaning keeps them.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Cutoff.
+     * @return Event rows dropped.
+     */
+    public int dropExpired(final String deviceName, final Timestamp timestamp) {
+        var rows = 0;
+        for (final var partition : expired(deviceName, timestamp)) {
+            eventDao.copyKept(partition.eventTable());
+            rows += jdbcTemplate.queryForObject(String.format("select count(*) from %s", partition.eventTable()), Integer.class);
+            synchronized (created) {
+                jdbcTemplate.execute(String.format("drop table if exists %s, %s, %s", partition.detectionTable(), partition.
+                        frameTable(), partition.eventTable()));
+                created.remove(partition.suffix());
+            }
+            log.info(String.format("Dropped partition %s", partition.suffix()));
+        }
+        return rows;
+    }
+}
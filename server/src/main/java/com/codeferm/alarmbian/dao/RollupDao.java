@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.dao;
+
+import com.codeferm.alarmbian.entity.Event;
+import com.codeferm.alarmbian.entity.Frame;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Hourly rollups of detections and motion per device. DETECTION_HOUR holds detection count and maximum confidence per label and
+ * MOTION_HOUR holds MOTION_START count and total milliseconds to the following MOTION_STOP, both counted in the hour motion
+ * started. Rows are added to as frames and events are inserted, so dashboards read a few rows per hour instead of joining raw
+ * rows. Cleaning does not remove rollups.
+ *
+ * Motion duration is added when MOTION_STOP is inserted using the last MOTION_START seen by this process, so motion that spans a
+ * restart has no duration until its day is rebuilt from raw rows.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Repository
+@Slf4j
+public class RollupDao {
+
+    /**
+     * Detections of one label in one hour.
+     *
+     * @param hour Start of hour.
+     * @param label Label.
+     * @param detections Detection count.
+     * @param maxConfidence Maximum confidence.
+     */
+    public record DetectionHour(Timestamp hour, String label, long detections, double maxConfidence) {
+
+    }
+
+    /**
+     * Motion in one hour.
+     *
+     * @param hour Start of hour.
+     * @param motions Motion count.
+     * @param duration Total motion milliseconds.
+     */
+    public record MotionHour(Timestamp hour, long motions, long duration) {
+
+    }
+
+    /**
+     * JDBC template.
+     */
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    /**
+     * Name codes.
+     */
+    @Autowired
+    private EventDictionary dictionary;
+    /**
+     * Event type codes.
+     */
+    @Autowired
+    private EventDao eventDao;
+    /**
+     * Partition tables.
+     */
+    @Autowired
+    private PartitionDao partitionDao;
+    /**
+     * Last MOTION_START time by device ID.
+     */
+    private final Map<Integer, Timestamp> motionStarts = new ConcurrentHashMap<>();
+
+    /**
+     * Start of hour.
+     *
+     * @param timestamp Timestamp.
+     * @return Timestamp truncated to hour.
+     */
+    private static Timestamp hour(final Timestamp timestamp) {
+        return Timestamp.valueOf(timestamp.toLocalDateTime().truncatedTo(ChronoUnit.HOURS));
+    }
+
+    /**
+     * Add detections of frames. Counts are summed per hour and label before merging, so a batch of frames merges each row once.
+     *
+     * @param deviceName Device name.
+     * @param frames Frame entities with detections.
+     */
+    public void addDetections(final String deviceName, final List<Frame> frames) {
+        final var deviceId = dictionary.device(deviceName).id();
+        final var rows = new HashMap<List<Object>, Object[]>();
+        frames.forEach(frame -> frame.getDetections().forEach(detection -> {
+            final var row = rows.computeIfAbsent(List.of(hour(frame.getFrameTime()), detection.getLabel()), key -> new Object[]{
+                deviceId, key.get(0), key.get(1), 0L, 0.0});
+            row[3] = (Long) row[3] + 1;
+            row[4] = Math.max((Double) row[4], detection.getConfidence());
+        }));
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("merge into DETECTION_HOUR U using (values (cast(? as smallint), cast(? as timestamp), "
+                    + "cast(? as varchar(50)), cast(? as bigint), cast(? as float))) S(DEVICE_ID, HOUR_TIME, LABEL_, DETECTIONS, "
+                    + "MAX_CONFIDENCE) on U.DEVICE_ID = S.DEVICE_ID and U.HOUR_TIME = S.HOUR_TIME and U.LABEL_ = S.LABEL_ when "
+                    + "matched then update set DETECTIONS = U.DETECTIONS + S.DETECTIONS, MAX_CONFIDENCE = "
+                    + "greatest(U.MAX_CONFIDENCE, S.MAX_CONFIDENCE) when not matched then insert values (S.DEVICE_ID, "
+                    + "S.HOUR_TIME, S.LABEL_, S.DETECTIONS, S.MAX_CONFIDENCE)", new ArrayList<>(rows.values()));
+        }
+    }
+
+    /**
+     * Add MOTION_START and MOTION_STOP events. Other events are ignored.
+     *
+     * @param events Event entities.
+     */
+    public void addEvents(final List<Event> events) {
+        final var rows = new HashMap<List<Object>, Object[]>();
+        for (final var event : events) {
+            final var start = event.getEventType().equals("MOTION_START");
+            if (start || event.getEventType().equals("MOTION_STOP")) {
+                final var deviceId = dictionary.device(event.getDeviceName()).id();
+                final var startTime = start ? event.getEventTime() : motionStarts.remove(deviceId);
+                if (startTime != null) {
+                    final var row = rows.computeIfAbsent(List.of(deviceId, hour(startTime)), key -> new Object[]{key.get(0), key.
+                        get(1), 0L, 0L});
+                    if (start) {
+                        motionStarts.put(deviceId, startTime);
+                        row[2] = (Long) row[2] + 1;
+                    } else {
+                        row[3] = (Long) row[3] + event.getEventTime().getTime() - startTime.getTime();
+                    }
+                }
+            }
+        }
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("merge into MOTION_HOUR U using (values (cast(? as smallint), cast(? as timestamp), cast(? as "
+                    + "bigint), cast(? as bigint))) S(DEVICE_ID, HOUR_TIME, MOTIONS, DURATION) on U.DEVICE_ID = S.DEVICE_ID and "
+                    + "U.HOUR_TIME = S.HOUR_TIME when matched then update set MOTIONS = U.MOTIONS + S.MOTIONS, DURATION = "
+                    + "U.DURATION + S.DURATION when not matched then insert values (S.DEVICE_ID, S.HOUR_TIME, S.MOTIONS, "
+                    + "S.DURATION)", new ArrayList<>(rows.values()));
+        }
+    }
+
+    /**
+     * Base and partition tables of device that overlap time range.
+     *
+     * @param deviceName Device name.
+     * @param from Range start.
+     * @param to Range end.
+     * @return Partitions ordered by start.
+     */
+    private List<PartitionDao.Partition> partitions(final String deviceName, final Timestamp from, final Timestamp to) {
+        return partitionDao.isEnabled() ? partitionDao.partitions(deviceName, from, to) : List.of();
+    }
+
+    /**
+     * First and last day of device's events. START_UP and SHUT_DOWN are never cleaned, so they are left out or the range would
+     * go back to the first start up.
+     *
+     * @param deviceName Device name.
+     * @return First and last day or empty list if device has no events.
+     */
+    public List<LocalDate> days(final String deviceName) {
+        final var deviceId = dictionary.device(deviceName).id();
+        final var keepIds = eventDao.typeIds(EventDao.KEEP_TYPES);
+        final var tables = new ArrayList<>(List.of("EVENT"));
+        partitions(deviceName, null, null).forEach(partition -> tables.add(partition.eventTable()));
+        final var sql = tables.stream().map(table -> String.format("select min(EVENT_TIME) FIRST_TIME, max(EVENT_TIME) LAST_TIME "
+                + "from %s where DEVICE_ID = %d and TYPE_ID not in (%s)", table, deviceId, keepIds)).collect(Collectors.joining(
+                " union all "));
+        final var range = jdbcTemplate.queryForMap(String.format("select min(FIRST_TIME) FIRST_TIME, max(LAST_TIME) LAST_TIME "
+                + "from (%s)", sql));
+        if (range.get("FIRST_TIME") == null) {
+            return List.of();
+        }
+        return List.of(((Timestamp) range.get("FIRST_TIME")).toLocalDateTime().toLocalDate(), ((Timestamp) range.get("LAST_TIME")).
+                toLocalDateTime().toLocalDate());
+    }
+
+    /**
+     * Replace device's rollups of one day with rollups computed from raw rows in base and partition tables. Motion that started
+     * on day is paired with a MOTION_STOP up to the end of the next day. Detection or motion rollups of a day without raw
+     * detections or MOTION_START rows are kept, since cleaning removed the rows they were built from.
+     *
+     * @param deviceName Device name.
+     * @param day Day.
+     * @return Rollup rows inserted.
+     */
+    public int rebuild(final String deviceName, final LocalDate day) {
+        final var deviceId = dictionary.device(deviceName).id();
+        final var from = Timestamp.valueOf(day.atStartOfDay());
+        final var to = Timestamp.valueOf(day.plusDays(1).atStartOfDay());
+        final var next = Timestamp.valueOf(day.plusDays(2).atStartOfDay());
+        // Base tables hold every device, partition tables only one
+        final var detections = new ArrayList<>(List.of(String.format("select f.FRAME_TIME, d.LABEL_, d.CONFIDENCE from FRAME f "
+                + "join DETECTION d on d.FRAME_ID = f.ID join EVENT e on e.ID = f.EVENT_ID where e.DEVICE_ID = %d and f.FRAME_TIME "
+                + ">= ? and f.FRAME_TIME < ?", deviceId)));
+        final var detectionArgs = new ArrayList<Object>(List.of(from, to));
+        partitions(deviceName, from, to).forEach(partition -> {
+            detections.add(String.format("select f.FRAME_TIME, d.LABEL_, d.CONFIDENCE from %s f join %s d on d.FRAME_ID = f.ID "
+                    + "where f.FRAME_TIME >= ? and f.FRAME_TIME < ?", partition.frameTable(), partition.detectionTable()));
+            detectionArgs.addAll(List.of(from, to));
+        });
+        var rows = 0;
+        final var detectionSql = String.join(" union all ", detections);
+        if (jdbcTemplate.queryForObject(String.format("select count(*) from (%s)", detectionSql), Long.class, detectionArgs.
+                toArray()) > 0) {
+            jdbcTemplate.update("delete from DETECTION_HOUR where DEVICE_ID = ? and HOUR_TIME >= ? and HOUR_TIME < ?", deviceId,
+                    from, to);
+            rows += jdbcTemplate.update(String.format("insert into DETECTION_HOUR select %d, date_trunc('HOUR', FRAME_TIME), "
+                    + "LABEL_, count(*), max(CONFIDENCE) from (%s) group by date_trunc('HOUR', FRAME_TIME), LABEL_", deviceId,
+                    detectionSql), detectionArgs.toArray());
+        }
+        final var startId = dictionary.typeId("MOTION_START");
+        final var stopId = dictionary.typeId("MOTION_STOP");
+        final var tables = new ArrayList<>(List.of("EVENT"));
+        partitions(deviceName, from, next).forEach(partition -> tables.add(partition.eventTable()));
+        final var motionArgs = new ArrayList<Object>();
+        final var events = tables.stream().map(table -> {
+            motionArgs.addAll(List.of(from, next));
+            return String.format("select ID, TYPE_ID, EVENT_TIME from %s where DEVICE_ID = %d and TYPE_ID in (%d, %d) and "
+                    + "EVENT_TIME >= ? and EVENT_TIME < ?", table, deviceId, startId, stopId);
+        }).collect(Collectors.joining(" union all "));
+        motionArgs.add(to);
+        if (jdbcTemplate.queryForObject(String.format("select count(*) from (%s) where TYPE_ID = %d and EVENT_TIME < ?", events,
+                startId), Long.class, motionArgs.toArray()) > 0) {
+            jdbcTemplate.update("delete from MOTION_HOUR where DEVICE_ID = ? and HOUR_TIME >= ? and HOUR_TIME < ?", deviceId, from,
+                    to);
+            rows += jdbcTemplate.update(String.format("insert into MOTION_HOUR select %d, date_trunc('HOUR', EVENT_TIME), "
+                    + "count(*), coalesce(sum(case when NEXT_TYPE = %d then datediff('MILLISECOND', EVENT_TIME, NEXT_TIME) else 0 "
+                    + "end), 0) from (select TYPE_ID, EVENT_TIME, lead(TYPE_ID) over (order by EVENT_TIME, ID) NEXT_TYPE, "
+                    + "lead(EVENT_TIME) over (order by EVENT_TIME, ID) NEXT_TIME from (%s)) where TYPE_ID = %d and EVENT_TIME < ? "
+                    + "group by date_trunc('HOUR', EVENT_TIME)", deviceId, stopId, events, startId), motionArgs.toArray());
+        }
+        return rows;
+    }
+
+    /**
+     * Get detection rollups of device in time range.
+     *
+     * @param deviceName Device name.
+     * @param label Label or null for all labels.
+     * @param from Range start.
+     * @param to Range end.
+     * @return List of DetectionHour ordered by hour and label.
+     */
+    public List<DetectionHour> findDetections(final String deviceName, final String label, final Timestamp from,
+            final Timestamp to) {
+        final var device = dictionary.findDevice(deviceName);
+        if (device.isEmpty()) {
+            return List.of();
+        }
+        return jdbcTemplate.query("select HOUR_TIME, LABEL_, DETECTIONS, MAX_CONFIDENCE from DETECTION_HOUR where DEVICE_ID = ? "
+                + "and (cast(? as varchar(50)) is null or LABEL_ = ?) and HOUR_TIME between ? and ? order by HOUR_TIME, LABEL_",
+                (rs, rowNum) -> new DetectionHour(rs.getTimestamp("HOUR_TIME"), rs.getString("LABEL_"), rs.getLong("DETECTIONS"),
+                        rs.getDouble("MAX_CONFIDENCE")), device.get().id(), label, label, from, to);
+    }
+
+    /**
+     * Get motion rollups of device in time range.
+     *
+     * @param deviceName Device name.
+     * @param from Range start.
+     * @param to Range end.
+     * @return List of MotionHour ordered by hour.
+     */
+    public List<MotionHour> findMotion(final String deviceName, final Timestamp from, final Timestamp to) {
+        final var device = dictionary.findDevice(deviceName);
+        if (device.isEmpty()) {
+            return List.of();
+        }
+        return jdbcTemplate.query("select HOUR_TIME, MOTIONS, DURATION from MOTION_HOUR where DEVICE_ID = ? and HOUR_TIME "
+                + "between ? and ? order by HOUR_TIME", (rs, rowNum) -> new MotionHour(rs.getTimestamp("HOUR_TIME"), rs.getLong(
+                        "MOTIONS"), rs.getLong("DURATION")), device.get().id(), from, to);
+    }
+}
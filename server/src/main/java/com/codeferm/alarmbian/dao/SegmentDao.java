@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.dao;
+
+import com.codeferm.alarmbian.entity.Segment;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.List;
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.data.repository.ListCrudRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Crud repository for segment table. USAGE_DAY holds the running total of segment bytes per device and day, so quotas are checked
+ * without scanning segments.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Repository
+public interface SegmentDao extends ListCrudRepository<Segment, Long> {
+
+    /**
+     * Get segments that overlap time range ordered by start time.
+     *
+     * @param deviceName Device name.
+     * @param from Range start.
+     * @param to Range end.
+     * @return List of Segment entities.
+     */
+    @Query(value
+            = "select ID, DEVICE_NAME, FILE_NAME, START_TIME, END_TIME, DURATION, FILE_SIZE from SEGMENT where DEVICE_NAME = :deviceName and START_TIME <= :to and END_TIME >= :from order by START_TIME")
+    List<Segment> findByRange(final String deviceName, final Timestamp from, final Timestamp to);
+
+    /**
+     * Get segments that ended on or before timestamp.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @return List of Segment entities.
+     */
+    @Query(value
+            = "select ID, DEVICE_NAME, FILE_NAME, START_TIME, END_TIME, DURATION, FILE_SIZE from SEGMENT where DEVICE_NAME = :deviceName and END_TIME <= :timestamp order by START_TIME")
+    List<Segment> findByTime(final String deviceName, final Timestamp timestamp);
+
+    /**
+     * Get oldest segments that ended on or before timestamp.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @param limit Maximum rows.
+     * @return List of Segment ordered by start time.
+     */
+    @Query(value
+            = "select ID, DEVICE_NAME, FILE_NAME, START_TIME, END_TIME, DURATION, FILE_SIZE from SEGMENT where DEVICE_NAME = :deviceName and END_TIME <= :timestamp order by START_TIME limit :limit")
+    List<Segment> findByTime(final String deviceName, final Timestamp timestamp, final int limit);
+
+    /**
+     * Delete segments that ended on or before timestamp.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @return Records deleted.
+     */
+    @Modifying
+    @Query(value = "delete from SEGMENT where DEVICE_NAME = :deviceName and END_TIME <= :timestamp")
+    int deleteByTime(final String deviceName, final Timestamp timestamp);
+
+    /**
+     * Get oldest segments for device.
+     *
+     * @param deviceName Device name.
+     * @param limit Maximum rows.
+     * @return List of Segment entities.
+     */
+    @Query(value
+            = "select ID, DEVICE_NAME, FILE_NAME, START_TIME, END_TIME, DURATION, FILE_SIZE from SEGMENT where DEVICE_NAME = :deviceName order by START_TIME, ID limit :limit")
+    List<Segment> findOldest(final String deviceName, final int limit);
+
+    /**
+     * Add bytes to device's day. Use negative bytes to subtract.
+     *
+     * @param deviceName Device name.
+     * @param usageDate Day.
+     * @param bytes Bytes to add.
+     * @return Records merged.
+     */
+    @Modifying
+    @Query(value
+            = "merge into USAGE_DAY U using (values (cast(:deviceName as varchar(50)), cast(:usageDate as date), cast(:bytes as bigint))) S(DEVICE_NAME, USAGE_DATE, BYTES) on U.DEVICE_NAME = S.DEVICE_NAME and U.USAGE_DATE = S.USAGE_DATE when matched then update set BYTES = U.BYTES + S.BYTES when not matched then insert values (S.DEVICE_NAME, S.USAGE_DATE, S.BYTES)")
+    int addUsage(final String deviceName, final Date usageDate, final long bytes);
+
+    /**
+     * Subtract bytes of segments that ended on or before timestamp. Run before deleteByTime.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @return Records updated.
+     */
+    @Modifying
+    @Query(value
+            = "update USAGE_DAY U set BYTES = BYTES - (select coalesce(sum(FILE_SIZE), 0) from SEGMENT S where S.DEVICE_NAME = U.DEVICE_NAME and cast(S.START_TIME as date) = U.USAGE_DATE and S.END_TIME <= :timestamp) where DEVICE_NAME = :deviceName and USAGE_DATE <= cast(:timestamp as date)")
+    int subtractUsageByTime(final String deviceName, final Timestamp timestamp);
+
+    /**
+     * Delete days with no bytes left.
+     *
+     * @return Records deleted.
+     */
+    @Modifying
+    @Query(value = "delete from USAGE_DAY where BYTES <= 0")
+    int deleteEmptyUsage();
+
+    /**
+     * Delete device's usage before rebuild.
+     *
+     * @param deviceName Device name.
+     * @return Records deleted.
+     */
+    @Modifying
+    @Query(value = "delete from USAGE_DAY where DEVICE_NAME = :deviceName")
+    int deleteUsage(final String deviceName);
+
+    /**
+     * Rebuild device's usage from segments.
+     *
+     * @param deviceName Device name.
+     * @return Records inserted.
+     */
+    @Modifying
+    @Query(value
+            = "insert into USAGE_DAY select DEVICE_NAME, cast(START_TIME as date), sum(FILE_SIZE) from SEGMENT where DEVICE_NAME = :deviceName group by DEVICE_NAME, cast(START_TIME as date)")
+    int insertUsage(final String deviceName);
+
+    /**
+     * Total bytes used by device.
+     *
+     * @param deviceName Device name.
+     * @return Bytes.
+     */
+    @Query(value = "select coalesce(sum(BYTES), 0) from USAGE_DAY where DEVICE_NAME = :deviceName")
+    long findUsage(final String deviceName);
+}
@@ -46,6 +46,10 @@ public class Detection {
     private int yMax;
     @NotNull
     private int xMax;
+    /**
+     * Track ID within event or null.
+     */
+    private Long trackId;
 
     /**
      * Writable fields constructor.
@@ -8,10 +8,12 @@ import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import lombok.With;
 import org.springframework.data.annotation.Id;
 
 /**
@@ -23,12 +25,14 @@ import org.springframework.data.annotation.Id;
  */
 @Data
 @NoArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class Event {
 
     /**
-     * Database generates primary key.
+     * Database generates primary key. Batch inserts use withId to return entity with its key.
      */
     @Id
+    @With
     @Setter(AccessLevel.NONE)
     private Long id;
 
@@ -8,13 +8,14 @@ import jakarta.validation.constraints.NotNull;
 import java.util.ArrayList;
 import java.util.List;
 import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import lombok.With;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.relational.core.mapping.MappedCollection;
-import org.springframework.util.Assert;
 
 /**
  * Frame entity.
@@ -25,12 +26,14 @@ import org.springframework.util.Assert;
  */
 @Data
 @NoArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class Frame {
 
     /**
-     * Database generates primary key.
+     * Database generates primary key. Batch inserts use withId to return entity with its key.
      */
     @Id
+    @With
     @Setter(AccessLevel.NONE)
     private Long id;
     @NotNull
@@ -58,12 +61,11 @@ public class Frame {
     }
     
     /**
-     * Add detection.
+     * Add detection. Frame ID can be null until the frame is inserted.
      *
      * @param detection Detection entity.
      */
     public void addDetection(final Detection detection) {
-        Assert.notNull(id, "Frame ID cannot be null");
         detections.add(detection);
     }    
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.entity;
+
+import java.sql.Timestamp;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+
+/**
+ * Recording segment entity. One row is written for each segment file ffmpeg closes.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Data
+@NoArgsConstructor
+public class Segment {
+
+    /**
+     * Database generates primary key.
+     */
+    @Id
+    @Setter(AccessLevel.NONE)
+    private Long id;
+
+    @Size(min = 1, max = 50)
+    @NotBlank(message = "deviceName is required")
+    private String deviceName;
+
+    @Size(min = 1, max = 255)
+    @NotBlank(message = "fileName is required")
+    private String fileName;
+
+    @NotNull
+    private Timestamp startTime;
+
+    @NotNull
+    private Timestamp endTime;
+
+    /**
+     * Duration in milliseconds.
+     */
+    @NotNull
+    private long duration;
+
+    /**
+     * File size in bytes.
+     */
+    @NotNull
+    private long fileSize;
+
+    /**
+     * Writable fields constructor.
+     *
+     * @param deviceName Device name.
+     * @param fileName File name.
+     * @param startTime Start time.
+     * @param endTime End time.
+     * @param duration Duration in milliseconds.
+     * @param fileSize File size in bytes.
+     */
+    @Builder
+    public Segment(final String deviceName, final String fileName, final Timestamp startTime, final Timestamp endTime,
+            final long duration, final long fileSize) {
+        this.deviceName = deviceName;
+        this.fileName = fileName;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.duration = duration;
+        this.fileSize = fileSize;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Track motion blobs between object detections. Each motion image is dilated so fragments of one object join, then external
+ * contours with at least minArea pixels are blobs. Blobs are matched to tracks greedily by overlap, falling back to centroid
+ * distance for small fast blobs. Unmatched blobs start tracks and tracks missing for more than maxMisses frames are dropped.
+ *
+ * Detection is needed while there is a track that has not been checked by detection yet or after a labeled track was lost. Seed
+ * assigns detection results to tracks, which gives predictions a track ID that stays the same while the object moves.
+ *
+ * Update is called on the frame thread and seed on a detect worker, so public methods are synchronized.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class BlobTracker {
+
+    /**
+     * Tracked blob.
+     */
+    public static class Track {
+
+        /**
+         * Track ID, unique within a motion event.
+         */
+        private final long id;
+        /**
+         * Last blob rectangle.
+         */
+        private Rect rect;
+        /**
+         * Frames since last match.
+         */
+        private int misses;
+        /**
+         * Detection has seen this track.
+         */
+        private boolean checked;
+        /**
+         * Label of matched prediction or null.
+         */
+        private String label;
+
+        /**
+         * Create track.
+         *
+         * @param id Track ID.
+         * @param rect Blob rectangle.
+         */
+        public Track(final long id, final Rect rect) {
+            this.id = id;
+            this.rect = rect;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Rect getRect() {
+            return rect;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Minimum overlap to match.
+     */
+    private double minOverlap;
+    /**
+     * Maximum centroid distance in pixels to match when blobs do not overlap.
+     */
+    private double maxDistance;
+    /**
+     * Frames a track can be missing.
+     */
+    private int maxMisses;
+    /**
+     * Minimum blob area in pixels.
+     */
+    private double minArea;
+    /**
+     * Dilate kernel size.
+     */
+    private int kernelSize;
+    /**
+     * Dilate kernel.
+     */
+    private Mat kernel;
+    /**
+     * Dilated motion image.
+     */
+    private Mat work;
+    /**
+     * Contour hierarchy.
+     */
+    private Mat hierarchy;
+    /**
+     * Active tracks.
+     */
+    private final List<Track> tracks = new ArrayList<>();
+    /**
+     * Last track ID.
+     */
+    private long lastId;
+    /**
+     * A labeled track was lost since last offer.
+     */
+    private boolean lost;
+
+    public double getMinOverlap() {
+        return minOverlap;
+    }
+
+    public BlobTracker setMinOverlap(final double minOverlap) {
+        this.minOverlap = minOverlap;
+        return this;
+    }
+
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    public BlobTracker setMaxDistance(final double maxDistance) {
+        this.maxDistance = maxDistance;
+        return this;
+    }
+
+    public int getMaxMisses() {
+        return maxMisses;
+    }
+
+    public BlobTracker setMaxMisses(final int maxMisses) {
+        this.maxMisses = maxMisses;
+        return this;
+    }
+
+    public double getMinArea() {
+        return minArea;
+    }
+
+    public BlobTracker setMinArea(final double minArea) {
+        this.minArea = minArea;
+        return this;
+    }
+
+    public int getKernelSize() {
+        return kernelSize;
+    }
+
+    public BlobTracker setKernelSize(final int kernelSize) {
+        this.kernelSize = kernelSize;
+        return this;
+    }
+
+    /**
+     * Allocate Mats.
+     */
+    public void init() {
+        log.debug("init");
+        kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(kernelSize, kernelSize));
+        work = new Mat();
+        hierarchy = new Mat();
+    }
+
+    /**
+     * Drop all tracks and start IDs over for a new motion event.
+     */
+    public synchronized void reset() {
+        tracks.clear();
+        lastId = 0;
+        lost = false;
+    }
+
+    /**
+     * Find blobs in motion image and match them to tracks.
+     *
+     * @param bwImg Black and white motion image.
+     * @return True if detection is needed.
+     */
+    public synchronized boolean update(final Mat bwImg) {
+        final var blobs = findBlobs(bwImg);
+        final var matched = new boolean[blobs.size()];
+        final var updated = new boolean[tracks.size()];
+        // Greedy match, best score first
+        while (true) {
+            var bestScore = 0.0;
+            var bestTrack = -1;
+            var bestBlob = -1;
+            for (var t = 0; t < tracks.size(); t++) {
+                for (var b = 0; b < blobs.size(); b++) {
+                    if (!updated[t] && !matched[b]) {
+                        final var score = score(tracks.get(t).rect, blobs.get(b));
+                        if (score > bestScore) {
+                            bestScore = score;
+                            bestTrack = t;
+                            bestBlob = b;
+                        }
+                    }
+                }
+            }
+            if (bestTrack < 0) {
+                break;
+            }
+            final var track = tracks.get(bestTrack);
+            track.rect = blobs.get(bestBlob);
+            track.misses = 0;
+            updated[bestTrack] = true;
+            matched[bestBlob] = true;
+        }
+        final var iterator = tracks.iterator();
+        var t = 0;
+        while (iterator.hasNext()) {
+            final var track = iterator.next();
+            if (!updated[t++] && ++track.misses > maxMisses) {
+                iterator.remove();
+                if (track.label != null) {
+                    log.debug(String.format("Lost track %d %s", track.id, track.label));
+                    lost = true;
+                }
+            }
+        }
+        for (var b = 0; b < blobs.size(); b++) {
+            if (!matched[b]) {
+                tracks.add(new Track(++lastId, blobs.get(b)));
+            }
+        }
+        return lost || tracks.stream().anyMatch(track -> !track.checked);
+    }
+
+    /**
+     * Note that the current frame is going to detection.
+     *
+     * @return Last track ID, which is passed to seed.
+     */
+    public synchronized long offered() {
+        lost = false;
+        return lastId;
+    }
+
+    /**
+     * Assign detection results to tracks. Tracks created before the frame was offered are marked checked.
+     *
+     * @param rects Prediction rectangles in frame coordinates.
+     * @param labels Prediction labels.
+     * @param offeredId Last track ID when frame was offered.
+     * @return Track ID for each prediction, null if it did not match a track.
+     */
+    public synchronized List<Long> seed(final List<Rect> rects, final List<String> labels, final long offeredId) {
+        final var ids = new ArrayList<Long>();
+        final var used = new boolean[tracks.size()];
+        for (var p = 0; p < rects.size(); p++) {
+            var bestScore = 0.0;
+            var best = -1;
+            for (var t = 0; t < tracks.size(); t++) {
+                if (!used[t]) {
+                    final var score = score(rects.get(p), tracks.get(t).rect);
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = t;
+                    }
+                }
+            }
+            if (best < 0) {
+                ids.add(null);
+            } else {
+                used[best] = true;
+                final var track = tracks.get(best);
+                track.label = labels.get(p);
+                ids.add(track.id);
+            }
+        }
+        tracks.stream().filter(track -> track.id <= offeredId).forEach(track -> track.checked = true);
+        return ids;
+    }
+
+    /**
+     * Copy of active tracks.
+     *
+     * @return Tracks.
+     */
+    public synchronized List<Track> getTracks() {
+        return List.copyOf(tracks);
+    }
+
+    /**
+     * Bounding rectangles of large enough contours.
+     *
+     * @param bwImg Black and white motion image.
+     * @return Blob rectangles.
+     */
+    private List<Rect> findBlobs(final Mat bwImg) {
+        Imgproc.dilate(bwImg, work, kernel);
+        final var contours = new ArrayList<MatOfPoint>();
+        Imgproc.findContours(work, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        final var blobs = new ArrayList<Rect>();
+        for (final var contour : contours) {
+            final var rect = Imgproc.boundingRect(contour);
+            if (rect.area() >= minArea) {
+                blobs.add(rect);
+            }
+            contour.release();
+        }
+        return blobs;
+    }
+
+    /**
+     * Match score. Overlap is intersection over the smaller area, since a blob is often only part of an object. Rectangles that do
+     * not overlap enough score less than any overlap if their centers are within maxDistance.
+     *
+     * @param a First rectangle.
+     * @param b Second rectangle.
+     * @return Score, 0 for no match.
+     */
+    private double score(final Rect a, final Rect b) {
+        final var w = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        final var h = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        final var overlap = w > 0 && h > 0 ? (double) w * h / Math.min(a.area(), b.area()) : 0.0;
+        var score = 0.0;
+        if (overlap >= minOverlap) {
+            score = 1.0 + overlap;
+        } else {
+            final var distance = Math.hypot(a.x + a.width / 2.0 - b.x - b.width / 2.0, a.y + a.height / 2.0 - b.y - b.height
+                    / 2.0);
+            if (distance <= maxDistance) {
+                score = 1.0 - distance / (maxDistance + 1.0);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Release Mats.
+     */
+    public void done() {
+        log.debug("done");
+        kernel.release();
+        work.release();
+        hierarchy.release();
+    }
+}
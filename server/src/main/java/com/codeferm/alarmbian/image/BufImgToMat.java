@@ -6,14 +6,21 @@ package com.codeferm.alarmbian.image;
 import com.codeferm.alarmbian.type.Convert;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.List;
 import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
 
 /**
  * Convert BufferedImage to Mat. We reuse the same Mat every time, so as not to leak heap and native memory because the crappy
  * OpenCV bindings rely on Finalizer to clean things up. Therefore, this class is not thread safe.
  *
+ * TYPE_BYTE_GRAY and TYPE_3BYTE_BGR are copied directly. TYPE_INT_RGB is unpacked to BGR bytes and TYPE_4BYTE_ABGR drops the alpha
+ * channel, so both produce a CV_8UC3 Mat.
+ *
  * @author Steven P. Goldsmith
  * @version 1.0.0
  * @since 1.0.0
@@ -25,6 +32,18 @@ public class BufImgToMat extends Convert<BufferedImage, Mat> {
      * Reuse mat to prevent heap and native memory leaks.
      */
     private Mat mat;
+    /**
+     * Four channel work Mat for TYPE_4BYTE_ABGR.
+     */
+    private Mat abgrMat;
+    /**
+     * ABGR to BGR channel mapping for mixChannels.
+     */
+    private MatOfInt fromTo;
+    /**
+     * BGR work buffer for TYPE_INT_RGB.
+     */
+    private byte[] bgr;
 
     /**
      * Initialize Mat to color or gray scale depending on BufferedImage source.
@@ -39,6 +58,13 @@ public class BufImgToMat extends Convert<BufferedImage, Mat> {
             // Color
         } else {
             mat = new Mat(source.getHeight(), source.getWidth(), CvType.CV_8UC3);
+            if (source.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
+                abgrMat = new Mat(source.getHeight(), source.getWidth(), CvType.CV_8UC4);
+                // A, B, G, R -> B, G, R
+                fromTo = new MatOfInt(1, 0, 2, 1, 3, 2);
+            } else if (source.getType() == BufferedImage.TYPE_INT_RGB) {
+                bgr = new byte[source.getHeight() * source.getWidth() * 3];
+            }
         }
     }
 
@@ -51,10 +77,24 @@ public class BufImgToMat extends Convert<BufferedImage, Mat> {
      */
     @Override
     public Mat execute(final BufferedImage source) {
-        // Convert buffered image to byte array
-        final var data = ((DataBufferByte) source.getRaster().getDataBuffer()).getData();
-        // Copy byte array to Mat
-        mat.put(0, 0, data);
+        switch (source.getType()) {
+            case BufferedImage.TYPE_INT_RGB -> {
+                final var pixels = ((DataBufferInt) source.getRaster().getDataBuffer()).getData();
+                var i = 0;
+                for (final var pixel : pixels) {
+                    bgr[i++] = (byte) pixel;
+                    bgr[i++] = (byte) (pixel >> 8);
+                    bgr[i++] = (byte) (pixel >> 16);
+                }
+                mat.put(0, 0, bgr);
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR -> {
+                abgrMat.put(0, 0, ((DataBufferByte) source.getRaster().getDataBuffer()).getData());
+                Core.mixChannels(List.of(abgrMat), List.of(mat), fromTo);
+            }
+            // Copy byte array to Mat
+            default -> mat.put(0, 0, ((DataBufferByte) source.getRaster().getDataBuffer()).getData());
+        }
         return mat;
     }
 
@@ -64,5 +104,9 @@ public class BufImgToMat extends Convert<BufferedImage, Mat> {
     public void done() {
         log.debug("done");
         mat.release();
+        if (abgrMat != null) {
+            abgrMat.release();
+            fromTo.release();
+        }
     }
 }
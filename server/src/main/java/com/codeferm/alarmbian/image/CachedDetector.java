@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import com.codeferm.alarmbian.type.ObjectDetector;
+import com.codeferm.deepstack.Prediction;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Mat;
+
+/**
+ * Detect objects with another ObjectDetector unless a near identical image is in the cache. The cache can be shared by detectors on
+ * other threads, so a hit on one worker saves a call on all of them.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class CachedDetector extends ObjectDetector {
+
+    /**
+     * Detector called on a miss.
+     */
+    private ObjectDetector detector;
+    /**
+     * Shared cache.
+     */
+    private DetectCache cache;
+    /**
+     * Image hash.
+     */
+    private DHash dHash;
+
+    public ObjectDetector getDetector() {
+        return detector;
+    }
+
+    public CachedDetector setDetector(final ObjectDetector detector) {
+        this.detector = detector;
+        return this;
+    }
+
+    public DetectCache getCache() {
+        return cache;
+    }
+
+    public CachedDetector setCache(final DetectCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Initialize hash and detector.
+     */
+    @Override
+    public void init() {
+        log.debug("init");
+        dHash = new DHash();
+        dHash.init();
+        detector.init();
+    }
+
+    /**
+     * Return cached predictions or detect and cache them.
+     *
+     * @param image BGR image.
+     * @return Predictions in image coordinates.
+     */
+    @Override
+    public List<Prediction> detect(final Mat image) {
+        final long hash = dHash.execute(image);
+        var predictions = cache.get(hash, image.width(), image.height());
+        if (predictions == null) {
+            predictions = detector.detect(image);
+            cache.put(hash, image.width(), image.height(), predictions);
+        }
+        return predictions;
+    }
+
+    /**
+     * Release hash and detector.
+     */
+    @Override
+    public void done() {
+        log.debug("done");
+        dHash.done();
+        detector.done();
+    }
+}
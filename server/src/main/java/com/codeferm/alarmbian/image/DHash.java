@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import com.codeferm.alarmbian.type.Convert;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Difference hash of an image. The image is converted to gray and shrunk to 9x8, then each bit is set if a pixel is brighter than
+ * its right neighbor. Small changes in lighting, noise or compression flip few bits, so near identical images have a small Hamming
+ * distance.
+ *
+ * We reuse the same Mats every time, so this class is not thread safe.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class DHash extends Convert<Mat, Long> {
+
+    /**
+     * Hash width plus one column.
+     */
+    private static final int WIDTH = 9;
+    /**
+     * Hash height.
+     */
+    private static final int HEIGHT = 8;
+    /**
+     * Gray image.
+     */
+    private Mat gray;
+    /**
+     * Shrunk image.
+     */
+    private Mat small;
+    /**
+     * Shrunk pixels.
+     */
+    private final byte[] pixels = new byte[WIDTH * HEIGHT];
+
+    /**
+     * Allocate Mats.
+     */
+    public void init() {
+        log.debug("init");
+        gray = new Mat();
+        small = new Mat();
+    }
+
+    /**
+     * Hash image.
+     *
+     * @param source BGR image.
+     * @return 64 bit hash.
+     */
+    @Override
+    public Long execute(final Mat source) {
+        Imgproc.cvtColor(source, gray, Imgproc.COLOR_BGR2GRAY);
+        Imgproc.resize(gray, small, new Size(WIDTH, HEIGHT), 0, 0, Imgproc.INTER_AREA);
+        small.get(0, 0, pixels);
+        var hash = 0L;
+        for (var y = 0; y < HEIGHT; y++) {
+            for (var x = 0; x < WIDTH - 1; x++) {
+                hash <<= 1;
+                if ((pixels[y * WIDTH + x] & 0xff) > (pixels[y * WIDTH + x + 1] & 0xff)) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Number of bits that differ.
+     *
+     * @param a First hash.
+     * @param b Second hash.
+     * @return Hamming distance.
+     */
+    public static int distance(final long a, final long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Release Mat memory.
+     */
+    public void done() {
+        log.debug("done");
+        gray.release();
+        small.release();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import com.codeferm.alarmbian.type.ObjectDetector;
+import com.codeferm.deepstack.Balancer;
+import com.codeferm.deepstack.Base64EncodedMultipartFile;
+import com.codeferm.deepstack.Client;
+import com.codeferm.deepstack.Prediction;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Mat;
+
+/**
+ * Detect objects with a Deepstack server. The image is encoded and sent as a multipart request. If a Balancer is set it picks the
+ * server for each request, otherwise deepstack.url is used.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class DeepStackDetector extends ObjectDetector {
+
+    /**
+     * Deepstack client.
+     */
+    private Client client;
+    /**
+     * Balancer or null for deepstack.url.
+     */
+    private Balancer balancer;
+    /**
+     * Extension to convert image to.
+     */
+    private String extension;
+    /**
+     * Image converter.
+     */
+    private MatToImage convert;
+
+    public Client getClient() {
+        return client;
+    }
+
+    public DeepStackDetector setClient(final Client client) {
+        this.client = client;
+        return this;
+    }
+
+    public Balancer getBalancer() {
+        return balancer;
+    }
+
+    public DeepStackDetector setBalancer(final Balancer balancer) {
+        this.balancer = balancer;
+        return this;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public DeepStackDetector setExtension(final String extension) {
+        this.extension = extension;
+        return this;
+    }
+
+    /**
+     * Initialize converter.
+     */
+    @Override
+    public void init() {
+        log.debug("init");
+        convert = new MatToImage().setExtension(extension);
+        convert.init();
+    }
+
+    /**
+     * Call Deepstack.
+     *
+     * @param image BGR image.
+     * @return Predictions in image coordinates.
+     */
+    @Override
+    public List<Prediction> detect(final Mat image) {
+        final var file = new Base64EncodedMultipartFile(convert.execute(image), String.format("mat%s", extension));
+        final var response = balancer == null ? client.objectDetection(file) : balancer.call(apiUri -> client.objectDetection(
+                apiUri, file));
+        return response.getPredictions();
+    }
+
+    /**
+     * Release converter.
+     */
+    @Override
+    public void done() {
+        log.debug("done");
+        convert.done();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import com.codeferm.deepstack.Prediction;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of predictions keyed by image hash. A lookup matches the closest entry within maxDistance bits of the same
+ * image size, so a parked car under a passing shadow reuses the last result. Entries older than ttl are not matched, so a scene
+ * that really changed is detected again.
+ *
+ * Matching scans every entry, which is cheap for the few hundred entries a camera needs. This class is thread safe.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class DetectCache {
+
+    /**
+     * Cached predictions.
+     *
+     * @param width Image width.
+     * @param height Image height.
+     * @param predictions Predictions.
+     * @param created Time added in milliseconds.
+     */
+    private record Entry(int width, int height, List<Prediction> predictions, long created) {
+
+    }
+
+    /**
+     * Maximum entries.
+     */
+    private final int maxEntries;
+    /**
+     * Milliseconds entries can be matched.
+     */
+    private final long ttl;
+    /**
+     * Maximum Hamming distance of a match.
+     */
+    private final int maxDistance;
+    /**
+     * Hash to entry in access order.
+     */
+    private final LinkedHashMap<Long, Entry> entries;
+    /**
+     * Lookups that matched.
+     */
+    private long hits;
+    /**
+     * Lookups that did not match.
+     */
+    private long misses;
+    /**
+     * Entries evicted by size or expired.
+     */
+    private long evictions;
+
+    /**
+     * Create cache.
+     *
+     * @param maxEntries Maximum entries.
+     * @param ttl Milliseconds entries can be matched.
+     * @param maxDistance Maximum Hamming distance of a match.
+     */
+    public DetectCache(final int maxEntries, final long ttl, final int maxDistance) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.maxDistance = maxDistance;
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Entry> eldest) {
+                final var remove = size() > DetectCache.this.maxEntries;
+                if (remove) {
+                    evictions++;
+                }
+                return remove;
+            }
+        };
+    }
+
+    /**
+     * Find predictions of closest unexpired entry.
+     *
+     * @param hash Image hash.
+     * @param width Image width.
+     * @param height Image height.
+     * @return Predictions or null if there is no match.
+     */
+    public synchronized List<Prediction> get(final long hash, final int width, final int height) {
+        final var now = System.currentTimeMillis();
+        Long best = null;
+        var bestDistance = maxDistance + 1;
+        final var iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final var mapEntry = iterator.next();
+            final var entry = mapEntry.getValue();
+            if (now - entry.created() > ttl) {
+                iterator.remove();
+                evictions++;
+            } else if (entry.width() == width && entry.height() == height) {
+                final var distance = DHash.distance(hash, mapEntry.getKey());
+                if (distance < bestDistance) {
+                    best = mapEntry.getKey();
+                    bestDistance = distance;
+                }
+            }
+        }
+        List<Prediction> predictions = null;
+        if (best == null) {
+            misses++;
+        } else {
+            hits++;
+            // Touch entry so it is most recently used
+            predictions = entries.get(best).predictions();
+        }
+        return predictions;
+    }
+
+    /**
+     * Add predictions.
+     *
+     * @param hash Image hash.
+     * @param width Image width.
+     * @param height Image height.
+     * @param predictions Predictions.
+     */
+    public synchronized void put(final long hash, final int width, final int height, final List<Prediction> predictions) {
+        entries.put(hash, new Entry(width, height, List.copyOf(predictions), System.currentTimeMillis()));
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Fraction of lookups that matched.
+     *
+     * @return Hit rate or 0 if there were no lookups.
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0.0 : hits / (double) (hits + misses);
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import com.codeferm.alarmbian.type.ObjectDetector;
+import com.codeferm.deepstack.Prediction;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfRect2d;
+import org.opencv.core.Rect2d;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Detect objects in process with OpenCV DNN on CPU. This loads a YOLO model as ONNX (YOLOv5 or YOLOv8 export) or Darknet (cfg and
+ * weights). The image is resized to the model input size and written into a blob Mat that is reused across calls, so there is no
+ * encode, HTTP or JSON step.
+ *
+ * Rows of YOLOv5 and Darknet outputs are box, objectness then class scores. YOLOv8 output is transposed and has no objectness.
+ * Boxes are in input pixels except Darknet, which are normalized. Class NMS is applied and predictions use the names file for
+ * labels, so results have the same shape as Deepstack's.
+ *
+ * Each instance loads its own Net, so this class is not thread safe.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class DnnDetector extends ObjectDetector {
+
+    /**
+     * Model file, .onnx or .weights.
+     */
+    private String model;
+    /**
+     * Darknet cfg file or empty.
+     */
+    private String config;
+    /**
+     * Class names file, one per line.
+     */
+    private String names;
+    /**
+     * Model input size in pixels.
+     */
+    private int size;
+    /**
+     * Minimum confidence.
+     */
+    private float confidence;
+    /**
+     * NMS IoU threshold.
+     */
+    private float nms;
+    /**
+     * Network.
+     */
+    private Net net;
+    /**
+     * Output layer names.
+     */
+    private List<String> outNames;
+    /**
+     * Class labels.
+     */
+    private List<String> labels;
+    /**
+     * Box coordinates are normalized.
+     */
+    private boolean normalized;
+    /**
+     * Reused input blob NCHW.
+     */
+    private Mat blob;
+    /**
+     * Channel planes that are views into blob.
+     */
+    private Mat[] planes;
+    /**
+     * Resized image.
+     */
+    private Mat resized;
+    /**
+     * Resized image as float.
+     */
+    private Mat floatImg;
+    /**
+     * Reused output Mats.
+     */
+    private List<Mat> outs;
+    /**
+     * Reused output buffer.
+     */
+    private float[] data = new float[0];
+
+    public String getModel() {
+        return model;
+    }
+
+    public DnnDetector setModel(final String model) {
+        this.model = model;
+        return this;
+    }
+
+    public String getConfig() {
+        return config;
+    }
+
+    public DnnDetector setConfig(final String config) {
+        this.config = config;
+        return this;
+    }
+
+    public String getNames() {
+        return names;
+    }
+
+    public DnnDetector setNames(final String names) {
+        this.names = names;
+        return this;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public DnnDetector setSize(final int size) {
+        this.size = size;
+        return this;
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+
+    public DnnDetector setConfidence(final float confidence) {
+        this.confidence = confidence;
+        return this;
+    }
+
+    public float getNms() {
+        return nms;
+    }
+
+    public DnnDetector setNms(final float nms) {
+        this.nms = nms;
+        return this;
+    }
+
+    /**
+     * Load model and allocate blob.
+     */
+    @Override
+    public void init() {
+        log.debug("init");
+        try {
+            labels = Files.readAllLines(Paths.get(names)).stream().map(String::strip).filter(line -> !line.isEmpty()).toList();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        net = config == null || config.isBlank() ? Dnn.readNet(model) : Dnn.readNet(model, config);
+        net.setPreferableBackend(Dnn.DNN_BACKEND_OPENCV);
+        net.setPreferableTarget(Dnn.DNN_TARGET_CPU);
+        outNames = net.getUnconnectedOutLayersNames();
+        normalized = model.endsWith(".weights");
+        blob = new Mat(new int[]{1, 3, size, size}, CvType.CV_32F);
+        // Rows of the 2D view are R plane, G plane then B plane
+        final var flat = blob.reshape(1, 3 * size);
+        planes = new Mat[3];
+        for (var i = 0; i < planes.length; i++) {
+            planes[i] = flat.rowRange(i * size, (i + 1) * size);
+        }
+        resized = new Mat();
+        floatImg = new Mat();
+        outs = new ArrayList<>();
+        log.info(String.format("Loaded %s with %d classes", model, labels.size()));
+    }
+
+    /**
+     * Run network and decode predictions.
+     *
+     * @param image BGR image.
+     * @return Predictions in image coordinates.
+     */
+    @Override
+    public List<Prediction> detect(final Mat image) {
+        Imgproc.resize(image, resized, new Size(size, size));
+        resized.convertTo(floatImg, CvType.CV_32F, 1.0 / 255.0);
+        // BGR to RGB planes written in place
+        for (var i = 0; i < planes.length; i++) {
+            Core.extractChannel(floatImg, planes[i], 2 - i);
+        }
+        net.setInput(blob);
+        outs.forEach(Mat::release);
+        outs.clear();
+        net.forward(outs, outNames);
+        final var scaleX = image.width() / (double) size;
+        final var scaleY = image.height() / (double) size;
+        final var boxes = new ArrayList<Rect2d>();
+        final var scores = new ArrayList<Float>();
+        final var classIds = new ArrayList<Integer>();
+        for (final var out : outs) {
+            decode(out, boxes, scores, classIds);
+        }
+        final var predictions = new ArrayList<Prediction>();
+        if (!boxes.isEmpty()) {
+            final var boxMat = new MatOfRect2d(boxes.toArray(Rect2d[]::new));
+            final var scoreMat = new MatOfFloat();
+            scoreMat.fromList(scores);
+            final var classMat = new MatOfInt();
+            classMat.fromList(classIds);
+            final var indices = new MatOfInt();
+            Dnn.NMSBoxesBatched(boxMat, scoreMat, classMat, confidence, nms, indices);
+            for (final var i : indices.toArray()) {
+                final var box = boxes.get(i);
+                predictions.add(new Prediction(labels.get(classIds.get(i)), scores.get(i), (int) Math.round(box.y * scaleY),
+                        (int) Math.round(box.x * scaleX), (int) Math.round((box.y + box.height) * scaleY), (int) Math.round((box.x
+                        + box.width) * scaleX)));
+            }
+            boxMat.release();
+            scoreMat.release();
+            classMat.release();
+            indices.release();
+        }
+        return predictions;
+    }
+
+    /**
+     * Decode one output into boxes in input pixels.
+     *
+     * @param out Output Mat.
+     * @param boxes Boxes.
+     * @param scores Scores.
+     * @param classIds Class IDs.
+     */
+    private void decode(final Mat out, final List<Rect2d> boxes, final List<Float> scores, final List<Integer> classIds) {
+        // 3D outputs are 1 x rows x cols
+        var mat = out.dims() > 2 ? out.reshape(1, out.size(1)) : out;
+        // YOLOv8 is 1 x (4 + classes) x boxes
+        final var transposed = mat.rows() == 4 + labels.size() && mat.cols() != 5 + labels.size();
+        if (transposed) {
+            final var t = new Mat();
+            Core.transpose(mat, t);
+            mat = t;
+        }
+        final var rows = mat.rows();
+        final var cols = mat.cols();
+        final var first = transposed ? 4 : 5;
+        if (data.length < rows * cols) {
+            data = new float[rows * cols];
+        }
+        mat.get(0, 0, data);
+        if (transposed) {
+            mat.release();
+        }
+        final var boxScale = normalized ? size : 1.0;
+        for (var r = 0; r < rows; r++) {
+            final var base = r * cols;
+            final var objectness = transposed ? 1.0f : data[base + 4];
+            if (objectness < confidence) {
+                continue;
+            }
+            var best = first;
+            for (var c = first + 1; c < cols; c++) {
+                if (data[base + c] > data[base + best]) {
+                    best = c;
+                }
+            }
+            final var score = objectness * data[base + best];
+            if (score >= confidence && best - first < labels.size()) {
+                final var w = data[base + 2] * boxScale;
+                final var h = data[base + 3] * boxScale;
+                boxes.add(new Rect2d(data[base] * boxScale - w / 2, data[base + 1] * boxScale - h / 2, w, h));
+                scores.add(score);
+                classIds.add(best - first);
+            }
+        }
+    }
+
+    /**
+     * Release Mats.
+     */
+    @Override
+    public void done() {
+        log.debug("done");
+        outs.forEach(Mat::release);
+        resized.release();
+        floatImg.release();
+        blob.release();
+    }
+}
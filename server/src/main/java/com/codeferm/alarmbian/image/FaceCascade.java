@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import com.codeferm.deepstack.Balancer;
+import com.codeferm.deepstack.Base64EncodedMultipartFile;
+import com.codeferm.deepstack.Client;
+import com.codeferm.deepstack.FaceDetectionResponse;
+import com.codeferm.deepstack.FaceRecognizeResponse;
+import com.codeferm.deepstack.Prediction;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Find and recognize faces inside a person box. The padded box is cropped from the full frame at native resolution and sent to
+ * Deepstack face detection, and only if a face is found to face recognition. Running face models on person crops instead of whole
+ * frames keeps their cost bounded by the number of people.
+ *
+ * Faces are returned in frame coordinates with label face:userid, where userid is unknown if the face is not registered.
+ *
+ * We reuse the same Mat every time, so this class is not thread safe.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class FaceCascade {
+
+    /**
+     * Deepstack client.
+     */
+    private Client client;
+    /**
+     * Balancer or null for deepstack.url.
+     */
+    private Balancer balancer;
+    /**
+     * Extension to convert image to.
+     */
+    private String extension;
+    /**
+     * Padding added to each side as a fraction of box size.
+     */
+    private double pad;
+    /**
+     * Minimum box width and height in pixels.
+     */
+    private int minSize;
+    /**
+     * Image converter.
+     */
+    private MatToImage convert;
+
+    public Client getClient() {
+        return client;
+    }
+
+    public FaceCascade setClient(final Client client) {
+        this.client = client;
+        return this;
+    }
+
+    public Balancer getBalancer() {
+        return balancer;
+    }
+
+    public FaceCascade setBalancer(final Balancer balancer) {
+        this.balancer = balancer;
+        return this;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public FaceCascade setExtension(final String extension) {
+        this.extension = extension;
+        return this;
+    }
+
+    public double getPad() {
+        return pad;
+    }
+
+    public FaceCascade setPad(final double pad) {
+        this.pad = pad;
+        return this;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public FaceCascade setMinSize(final int minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    /**
+     * Initialize converter.
+     */
+    public void init() {
+        log.debug("init");
+        convert = new MatToImage().setExtension(extension);
+        convert.init();
+    }
+
+    /**
+     * Detect and recognize faces in person box.
+     *
+     * @param frame Full frame.
+     * @param person Person box in frame coordinates.
+     * @return Faces in frame coordinates.
+     */
+    public List<Prediction> detect(final Mat frame, final Rect person) {
+        final var faces = new ArrayList<Prediction>();
+        final var padX = (int) Math.round(person.width * pad);
+        final var padY = (int) Math.round(person.height * pad);
+        final var x = Math.max(person.x - padX, 0);
+        final var y = Math.max(person.y - padY, 0);
+        final var crop = new Rect(x, y, Math.min(person.x + person.width + padX, frame.width()) - x, Math.min(person.y
+                + person.height + padY, frame.height()) - y);
+        if (crop.width >= minSize && crop.height >= minSize) {
+            final var subMat = frame.submat(crop);
+            final var image = convert.execute(subMat);
+            subMat.release();
+            final var name = String.format("face%s", extension);
+            final FaceDetectionResponse detected = balancer == null ? client.faceDetection(new Base64EncodedMultipartFile(image,
+                    name)) : balancer.call(apiUri -> client.faceDetection(apiUri, new Base64EncodedMultipartFile(image, name)));
+            if (detected.getPredictions() != null && !detected.getPredictions().isEmpty()) {
+                final FaceRecognizeResponse recognized = balancer == null ? client.faceRecognize(new Base64EncodedMultipartFile(
+                        image, name)) : balancer.call(apiUri -> client.faceRecognize(apiUri, new Base64EncodedMultipartFile(image,
+                        name)));
+                final var predictions = recognized.getPredictions() == null || recognized.getPredictions().isEmpty() ? detected.
+                        getPredictions() : recognized.getPredictions();
+                for (final var face : predictions) {
+                    final var label = String.format("face:%s", face.getUserId() == null ? "unknown" : face.getUserId());
+                    // Label column holds 50 characters
+                    faces.add(new Prediction(label.substring(0, Math.min(label.length(), 50)), face.getConfidence(), face.getYMin()
+                            + crop.y, face.getXMin() + crop.x, face.getYMax() + crop.y, face.getXMax() + crop.x));
+                }
+            }
+        }
+        return faces;
+    }
+
+    /**
+     * Release converter.
+     */
+    public void done() {
+        log.debug("done");
+        convert.done();
+    }
+}
@@ -4,6 +4,7 @@
 package com.codeferm.alarmbian.image;
 
 import com.codeferm.alarmbian.type.Record;
+import com.github.kokorin.jaffree.ffmpeg.BaseInOut;
 import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
 import com.github.kokorin.jaffree.ffmpeg.FFmpegProgress;
 import com.github.kokorin.jaffree.ffmpeg.FFmpegResult;
@@ -89,6 +90,10 @@ public class FfmpegOut extends Record implements ProgressListener {
      * File name formatter.
      */
     private DateTimeFormatter fileFormatter;
+    /**
+     * Throughput from ffmpeg progress.
+     */
+    private final RecordStats stats = new RecordStats();
 
     public FFmpegResultFuture getFuture() {
         return future;
@@ -186,9 +191,96 @@ public class FfmpegOut extends Record implements ProgressListener {
         return this;
     }
 
+    public RecordStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Capture progress in stats.
+     *
+     * @param progress Progress.
+     */
     @Override
-    public void onProgress(FFmpegProgress progress) {
-        //logger.info(String.format("FPS %.1f", progress.getFps()));
+    public void onProgress(final FFmpegProgress progress) {
+        stats.update(progress, System.currentTimeMillis());
+    }
+
+    /**
+     * Set file name. Subclasses use this when they construct the output name themselves.
+     *
+     * @param fileName File name.
+     * @return This.
+     */
+    protected FfmpegOut setFileName(final String fileName) {
+        this.fileName = fileName;
+        return this;
+    }
+
+    /**
+     * Directory name formatter built from dirPattern.
+     *
+     * @return Directory name formatter.
+     */
+    protected DateTimeFormatter getDirFormatter() {
+        return dirFormatter;
+    }
+
+    /**
+     * File name formatter built from filePattern.
+     *
+     * @return File name formatter.
+     */
+    protected DateTimeFormatter getFileFormatter() {
+        return fileFormatter;
+    }
+
+    /**
+     * Add arguments from Map. A null value means the key is a single argument.
+     *
+     * @param <T> Input or output type.
+     * @param inOut Input or output.
+     * @param args Arguments, can be null.
+     */
+    protected <T extends BaseInOut<T>> void addArguments(final T inOut, final Map<String, String> args) {
+        if (args != null) {
+            args.entrySet().forEach(entry -> {
+                if (entry.getValue() != null) {
+                    inOut.addArguments(entry.getKey(), entry.getValue());
+                } else {
+                    inOut.addArgument(entry.getKey());
+                }
+            });
+        }
+    }
+
+    /**
+     * Create input from device and input arguments.
+     *
+     * @return Input.
+     */
+    protected UrlInput createInput() {
+        final var input = UrlInput.fromUrl(device);
+        // Set input args
+        addArguments(input, inputArgs);
+        return input;
+    }
+
+    /**
+     * Create dated directory for timestamp and return its name.
+     *
+     * @param timestamp Timestamp to use in directory name.
+     * @return Directory name.
+     */
+    protected String createDir(final Instant timestamp) {
+        // Construct directory name
+        final var dirName = String.format("%s%s%s", path, File.separator, dirFormatter.format(timestamp));
+        // Create dir
+        try {
+            Files.createDirectories(Paths.get(dirName));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return dirName;
     }
 
     /**
@@ -200,40 +292,16 @@ public class FfmpegOut extends Record implements ProgressListener {
     public void start(final Instant timestamp) {
         // Make sure previous recording is done
         if (future == null || future.isDone()) {
-            // Construct directory name
-            final var dirName = String.format("%s%s%s", path, File.separator, dirFormatter.format(timestamp));
-            // Create dir
-            try {
-                Files.createDirectories(Paths.get(dirName));
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            final var dirName = createDir(timestamp);
             // Construct file name 
             fileName = String.
                     format("%s%s%s-%s.%s", dirName, File.separator, fileFormatter.format(timestamp), fileSuffix, container);
             log.info(String.format("Recording %s starting", fileName));
-            final var input = UrlInput.fromUrl(device);
-            // Set input args
-            if (inputArgs != null) {
-                inputArgs.entrySet().forEach(entry -> {
-                    if (entry.getValue() != null) {
-                        input.addArguments(entry.getKey(), entry.getValue());
-                    } else {
-                        input.addArgument(entry.getKey());
-                    }
-                });
-            }
+            stats.reset(System.currentTimeMillis());
+            final var input = createInput();
             final var output = UrlOutput.toPath(Paths.get(fileName));
             // Set output args
-            if (outputArgs != null) {
-                outputArgs.entrySet().forEach(entry -> {
-                    if (entry.getValue() != null) {
-                        output.addArguments(entry.getKey(), entry.getValue());
-                    } else {
-                        output.addArgument(entry.getKey());
-                    }
-                });
-            }
+            addArguments(output, outputArgs);
             FFmpeg ffmpeg = FFmpeg.atPath(Paths.get(bin)).addInput(input).addOutput(output).setProgressListener(this);
             // Execute in background
             future = ffmpeg.executeAsync();
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import com.codeferm.alarmbian.entity.Segment;
+import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
+import com.github.kokorin.jaffree.ffmpeg.FFmpegProgress;
+import com.github.kokorin.jaffree.ffmpeg.Output;
+import com.github.kokorin.jaffree.ffmpeg.UrlOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Use one long lived ffmpeg process and the segment muxer to record stream to files of segmentTime length. Streams are always
+ * copied and timestamps are reset per segment, so there are no gaps between files.
+ *
+ * ffmpeg writes segments to a work directory and appends a line to a CSV segment list as each one is closed. The list is polled on
+ * progress updates, and each closed segment is moved to the same dated directory layout FfmpegOut uses before the listener is
+ * notified. The list file name is returned by getFileName.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class FfmpegSegmentOut extends FfmpegOut {
+
+    /**
+     * Segment length in milliseconds.
+     */
+    private long segmentTime;
+    /**
+     * Device name used in Segment entity.
+     */
+    private String deviceName;
+    /**
+     * Called for each closed segment.
+     */
+    private Consumer<Segment> listener;
+    /**
+     * Directory ffmpeg writes segments to.
+     */
+    private Path workDir;
+    /**
+     * Time ffmpeg started, segment list times are relative to this.
+     */
+    private Instant base;
+    /**
+     * Segment list opened for read.
+     */
+    private RandomAccessFile list;
+    /**
+     * Segment list bytes already processed.
+     */
+    private long offset;
+
+    public long getSegmentTime() {
+        return segmentTime;
+    }
+
+    public FfmpegSegmentOut setSegmentTime(final long segmentTime) {
+        this.segmentTime = segmentTime;
+        return this;
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    public FfmpegSegmentOut setDeviceName(final String deviceName) {
+        this.deviceName = deviceName;
+        return this;
+    }
+
+    public Consumer<Segment> getListener() {
+        return listener;
+    }
+
+    public FfmpegSegmentOut setListener(final Consumer<Segment> listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Create segment muxer output. This is also used by classes that add the recording as one output of a larger ffmpeg process.
+     *
+     * @param timestamp Timestamp to use in list and work directory names.
+     * @return Segment output.
+     */
+    public UrlOutput createOutput(final Instant timestamp) {
+        final var dirName = createDir(timestamp);
+        final var baseName = String.format("%s%s%s-%s", dirName, File.separator, getFileFormatter().format(timestamp),
+                getFileSuffix());
+        setFileName(String.format("%s.csv", baseName));
+        workDir = Paths.get(baseName);
+        try {
+            Files.createDirectories(workDir);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        base = timestamp;
+        list = null;
+        offset = 0;
+        log.info(String.format("Segment recording %s starting", getFileName()));
+        final var output = UrlOutput.toUrl(String.format("%s%s%%09d.%s", baseName, File.separator, getContainer()));
+        // Set output args
+        addArguments(output, getOutputArgs());
+        return output.addArguments("-c", "copy").setFormat("segment").addArguments("-segment_time", String.valueOf(segmentTime
+                / 1000.0)).addArguments("-reset_timestamps", "1").addArguments("-segment_list", getFileName()).addArguments(
+                "-segment_list_type", "csv");
+    }
+
+    /**
+     * Start recording. Future is used to run in the background.
+     *
+     * @param timestamp Timestamp to use in file name.
+     */
+    @Override
+    public void start(final Instant timestamp) {
+        start(timestamp, new Output[0]);
+    }
+
+    /**
+     * Start recording with additional outputs from the same input. Future is used to run in the background.
+     *
+     * @param timestamp Timestamp to use in file name.
+     * @param outputs Additional outputs.
+     */
+    public void start(final Instant timestamp, final Output... outputs) {
+        // Make sure previous recording is done
+        if (getFuture() == null || getFuture().isDone()) {
+            getStats().reset(System.currentTimeMillis());
+            final var ffmpeg = FFmpeg.atPath(Paths.get(getBin())).addInput(createInput()).addOutput(createOutput(timestamp)).
+                    setProgressListener(this);
+            for (final var output : outputs) {
+                ffmpeg.addOutput(output);
+            }
+            // Execute in background
+            setFuture(ffmpeg.executeAsync());
+            // Pick up last segment once ffmpeg exits
+            getFuture().toCompletableFuture().whenComplete((result, throwable) -> finish());
+        } else {
+            throw new RuntimeException(String.format("Cannot start recording until previous recording %s finished",
+                    getFileName()));
+        }
+    }
+
+    /**
+     * Poll segment list on each progress update.
+     *
+     * @param progress Progress.
+     */
+    @Override
+    public void onProgress(final FFmpegProgress progress) {
+        super.onProgress(progress);
+        poll();
+    }
+
+    /**
+     * Read complete lines added to the segment list since the last poll and handle each closed segment.
+     */
+    public synchronized void poll() {
+        try {
+            if (list == null) {
+                if (!Files.exists(Paths.get(getFileName()))) {
+                    return;
+                }
+                list = new RandomAccessFile(getFileName(), "r");
+            }
+            final var length = list.length();
+            if (length > offset) {
+                final var bytes = new byte[(int) (length - offset)];
+                list.seek(offset);
+                list.readFully(bytes);
+                // ISO_8859_1 keeps one char per byte, so offsets stay correct
+                final var text = new String(bytes, StandardCharsets.ISO_8859_1);
+                final var end = text.lastIndexOf('\n');
+                // Only consume complete lines
+                if (end >= 0) {
+                    offset += end + 1;
+                    for (final var line : text.substring(0, end).split("\n")) {
+                        if (!line.isBlank()) {
+                            closeSegment(line.strip());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error(String.format("Error reading segment list %s", getFileName()), e);
+        }
+    }
+
+    /**
+     * Move closed segment to dated directory and notify listener.
+     *
+     * @param line CSV line in format file name,start seconds,end seconds.
+     */
+    private void closeSegment(final String line) {
+        final var split = line.split(",");
+        final var start = base.plusMillis(Math.round(Double.parseDouble(split[1]) * 1000.0));
+        final var end = base.plusMillis(Math.round(Double.parseDouble(split[2]) * 1000.0));
+        final var source = workDir.resolve(split[0]);
+        final var dirName = createDir(start);
+        var target = Paths.get(String.format("%s%s%s-%s.%s", dirName, File.separator, getFileFormatter().format(start),
+                getFileSuffix(), getContainer()));
+        // Segments started in the same second keep their sequence number
+        if (Files.exists(target)) {
+            target = Paths.get(String.format("%s%s%s-%s-%s", dirName, File.separator, getFileFormatter().format(start),
+                    getFileSuffix(), split[0]));
+        }
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            final var segment = new Segment(deviceName, target.toString(), Timestamp.from(start), Timestamp.from(end), end.
+                    toEpochMilli() - start.toEpochMilli(), Files.size(target));
+            log.debug(String.format("Segment %s closed", segment.getFileName()));
+            if (listener != null) {
+                listener.accept(segment);
+            }
+        } catch (IOException e) {
+            log.error(String.format("Error moving segment %s", source), e);
+        }
+    }
+
+    /**
+     * Handle last segment, close list and remove work directory if empty.
+     */
+    private synchronized void finish() {
+        poll();
+        try {
+            if (list != null) {
+                list.close();
+                list = null;
+            }
+            Files.deleteIfExists(workDir);
+        } catch (IOException e) {
+            log.warn(String.format("Error cleaning up %s", workDir), e);
+        }
+        log.info(String.format("Segment recording %s stopped", getFileName()));
+    }
+}
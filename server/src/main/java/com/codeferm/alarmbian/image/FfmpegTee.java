@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import com.codeferm.alarmbian.type.VideoSource;
+import com.github.kokorin.jaffree.ffmpeg.PipeOutput;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * One ffmpeg process reads the camera once and tees it. The recorder's segment output copies the stream to disk and a second output
+ * decodes, scales and pipes raw BGR frames that are returned as a Mat. This halves camera sessions compared to recording and
+ * analyzing separate streams and does not use the OpenCV RTSP stack.
+ *
+ * Only the latest frames are kept, so a slow consumer drops older frames instead of growing a queue. We reuse the same Mat every
+ * time, so this class is not thread safe.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class FfmpegTee extends VideoSource {
+
+    /**
+     * Number of frame buffers.
+     */
+    private static final int BUFFERS = 3;
+    /**
+     * Recorder that owns the ffmpeg process.
+     */
+    private FfmpegSegmentOut recorder;
+    /**
+     * Output frames per second or 0 to keep source rate.
+     */
+    private double fps;
+    /**
+     * Filled frames in arrival order.
+     */
+    private BlockingQueue<byte[]> frames;
+    /**
+     * Empty frame buffers.
+     */
+    private BlockingQueue<byte[]> free;
+    /**
+     * Mat returned by getFrame.
+     */
+    private Mat mat;
+    /**
+     * Frames dropped because consumer was behind.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    public FfmpegSegmentOut getRecorder() {
+        return recorder;
+    }
+
+    public FfmpegTee setRecorder(final FfmpegSegmentOut recorder) {
+        this.recorder = recorder;
+        return this;
+    }
+
+    public double getFps() {
+        return fps;
+    }
+
+    public FfmpegTee setFps(final double fps) {
+        this.fps = fps;
+        return this;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Assembles raw video bytes from the pipe into whole frames.
+     */
+    private final class FrameStream extends OutputStream {
+
+        /**
+         * Frame being filled.
+         */
+        private byte[] buffer;
+        /**
+         * Bytes filled.
+         */
+        private int pos;
+
+        @Override
+        public void write(final int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            var offset = off;
+            var remaining = len;
+            while (remaining > 0) {
+                if (buffer == null) {
+                    buffer = free.poll();
+                    // Consumer is behind, so reuse oldest frame
+                    if (buffer == null) {
+                        buffer = frames.poll();
+                        if (buffer != null) {
+                            dropped.incrementAndGet();
+                        } else {
+                            // Consumer is holding the rest
+                            buffer = new byte[getWidth() * getHeight() * 3];
+                        }
+                    }
+                    pos = 0;
+                }
+                final var count = Math.min(remaining, buffer.length - pos);
+                System.arraycopy(b, offset, buffer, pos, count);
+                pos += count;
+                offset += count;
+                remaining -= count;
+                if (pos == buffer.length) {
+                    offer(buffer);
+                    buffer = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Add filled frame. If frames is full then the oldest frame is dropped, and if the consumer took that one first then this
+     * frame is.
+     *
+     * @param buffer Filled frame.
+     */
+    private void offer(final byte[] buffer) {
+        if (!frames.offer(buffer)) {
+            final var oldest = frames.poll();
+            if (oldest != null) {
+                free.offer(oldest);
+                dropped.incrementAndGet();
+            }
+            if (!frames.offer(buffer)) {
+                free.offer(buffer);
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Start recorder with raw video output. Width and height must be set to the size frames are scaled to.
+     *
+     * @param device Camera URL used by recorder.
+     * @return True on success and false on failure.
+     */
+    @Override
+    public boolean open(final String device) {
+        frames = new ArrayBlockingQueue<>(BUFFERS);
+        free = new ArrayBlockingQueue<>(BUFFERS);
+        for (var i = 0; i < BUFFERS; i++) {
+            free.add(new byte[getWidth() * getHeight() * 3]);
+        }
+        mat = new Mat(getHeight(), getWidth(), CvType.CV_8UC3);
+        final var output = PipeOutput.pumpTo(new FrameStream()).setFormat("rawvideo").setPixelFormat("bgr24").setFrameSize(
+                getWidth(), getHeight()).addArgument("-an").addArgument("-sn").addArgument("-dn");
+        if (fps > 0.0) {
+            output.setFrameRate(fps);
+        }
+        log.info(String.format("Tee %s to recording and %dw x %dh frames", device, getWidth(), getHeight()));
+        recorder.setDevice(device);
+        recorder.start(Instant.now(), output);
+        return true;
+    }
+
+    /**
+     * Return latest frame as a Mat or null if no frame arrived before timeout.
+     *
+     * @param <T> Type of frame, Mat.
+     * @return Image as a Mat or null.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getFrame() {
+        Mat frame = null;
+        try {
+            // Skip to latest frame, the producer may take the oldest frame first
+            while (frames.size() > 1) {
+                final var stale = frames.poll();
+                if (stale == null) {
+                    break;
+                }
+                free.offer(stale);
+                dropped.incrementAndGet();
+            }
+            final var buffer = frames.poll(getTimeout(), TimeUnit.MILLISECONDS);
+            if (buffer != null) {
+                mat.put(0, 0, buffer);
+                free.offer(buffer);
+                frame = mat;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return (T) frame;
+    }
+
+    /**
+     * Stop ffmpeg and release Mat.
+     */
+    @Override
+    public void close() {
+        log.info(String.format("Tee stopping, %d frames dropped", dropped.get()));
+        recorder.stop(Instant.now());
+        mat.release();
+    }
+}
@@ -5,57 +5,70 @@ package com.codeferm.alarmbian.image;
 
 import com.codeferm.alarmbian.type.Convert;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import javax.imageio.ImageIO;
+import java.awt.image.DataBufferByte;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.imgcodecs.Imgcodecs;
 
 /**
- * Convert Mat to BufferedImage format. We reuse the same Mat every time, so as not to leak heap and native memory because the
- * crappy OpenCV bindings rely on Finalizer to clean things up. Therefore, this this class is not thread safe.
+ * Convert Mat to BufferedImage format. Mat bytes are copied directly into the DataBufferByte of a reused BufferedImage, so there is
+ * no lossy encode/decode step. We reuse the same BufferedImage every time, so this class is not thread safe and the returned image
+ * is overwritten by the next call.
  *
  * @author Steven P. Goldsmith
  * @version 1.0.0
  * @since 1.0.0
  */
+@Slf4j
 public class MatToBufImg extends Convert<Mat, BufferedImage> {
 
     /**
-     * Reuse mat to prevent heap and native memory leaks.
+     * Reuse BufferedImage to prevent heap churn.
      */
-    private MatOfByte mat;
+    private BufferedImage bufferedImage;
+    /**
+     * Backing array of bufferedImage.
+     */
+    private byte[] data;
 
     /**
-     * Initialize return Mat.
+     * Initialize BufferedImage to color or gray scale depending on Mat source. Only 8 bit Mats with 1 or 3 channels are supported.
+     *
+     * @param source Mat image.
      */
-    public void init() {
-        mat = new MatOfByte();
+    public void init(final Mat source) {
+        log.debug("init");
+        // Grayscale?
+        if (source.type() == CvType.CV_8UC1) {
+            bufferedImage = new BufferedImage(source.width(), source.height(), BufferedImage.TYPE_BYTE_GRAY);
+            // Color
+        } else if (source.type() == CvType.CV_8UC3) {
+            bufferedImage = new BufferedImage(source.width(), source.height(), BufferedImage.TYPE_3BYTE_BGR);
+        } else {
+            throw new IllegalArgumentException(String.format("Unsupported Mat type %s", CvType.typeToString(source.type())));
+        }
+        data = ((DataBufferByte) bufferedImage.getRaster().getDataBuffer()).getData();
     }
 
     /**
-     * Convert Mat to JPEG image then BufferedImage.
+     * Copy Mat bytes into BufferedImage with a single Mat.get call. OpenCV BGR order matches TYPE_3BYTE_BGR, so no channel swap is
+     * needed.
      *
      * @param source Mat format image.
      * @return BufferedImage format image.
      */
     @Override
     public BufferedImage execute(final Mat source) {
-        Imgcodecs.imencode(".jpg", source, mat);
-        BufferedImage bufferedImage;
-        try {
-            bufferedImage = ImageIO.read(new ByteArrayInputStream(mat.toArray()));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        source.get(0, 0, data);
         return bufferedImage;
     }
 
     /**
-     * Release Mat memory.
+     * Release references.
      */
     public void done() {
-        mat.release();
+        log.debug("done");
+        bufferedImage = null;
+        data = null;
     }
 }
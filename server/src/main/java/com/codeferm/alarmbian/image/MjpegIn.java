@@ -8,6 +8,7 @@ import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Authenticator;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
@@ -20,7 +21,8 @@ import javax.imageio.ImageIO;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * Pure Java MJPEG implementation. Handles authorization if user and password passed in URL.
+ * Pure Java MJPEG implementation. Handles authorization if user and password passed in URL. A recorded stream can be read with
+ * open(InputStream).
  *
  * @author Steven P. Goldsmith
  * @version 1.0.0
@@ -95,27 +97,39 @@ public class MjpegIn extends VideoSource {
         }
         try {
             connection.connect();
-            bufferedInputStream = new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE);
-            // First time through skipLines = -1 to skip readLine call until set below
-            getFrameLength();
-            String line = null;
-            // Number of lines to skip after Content-Length and before JPEG image data
-            do {
-                line = readLine();
-                skipLines++;
-                // Check for JPEG header
-            } while (!line.contains("\uffff\uffd8\uffff"));
-            // Get JPEG encoded frame
-            final var frame = getFrame();
-            setWidth(frame.getWidth()).setHeight(frame.getHeight());
-            log.debug(String.format("Resolution %dw x %dh", getWidth(), getHeight()));
-            isOpen = true;
+            isOpen = open(connection.getInputStream());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
         return isOpen;
     }
 
+    /**
+     * Read MJPEG from a stream that is already open like a recorded stream. The first frame is read to find the lines before JPEG
+     * data and the resolution.
+     *
+     * @param inputStream MJPEG stream.
+     * @return True on success and false on failure.
+     */
+    public boolean open(final InputStream inputStream) {
+        bufferedInputStream = new BufferedInputStream(inputStream, BUFFER_SIZE);
+        // First time through skipLines = -1 to skip readLine call until set below
+        skipLines = -1;
+        getFrameLength();
+        String line = null;
+        // Number of lines to skip after Content-Length and before JPEG image data
+        do {
+            line = readLine();
+            skipLines++;
+            // Check for JPEG header
+        } while (!line.contains("\uffff\uffd8\uffff"));
+        // Get JPEG encoded frame
+        final var frame = getFrame();
+        setWidth(frame.getWidth()).setHeight(frame.getHeight());
+        log.debug(String.format("Resolution %dw x %dh", getWidth(), getHeight()));
+        return true;
+    }
+
     /**
      * Create HttpURLConnection from String URL. Handles Authorization if passed in URL.
      *
@@ -237,6 +251,8 @@ public class MjpegIn extends VideoSource {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        connection.disconnect();
+        if (connection != null) {
+            connection.disconnect();
+        }
     }
 }
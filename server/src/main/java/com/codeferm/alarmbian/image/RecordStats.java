@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import com.github.kokorin.jaffree.ffmpeg.FFmpegProgress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Recording throughput captured from ffmpeg progress. The ffmpeg progress thread writes and the frame and metrics threads read, so
+ * all values are atomics and nothing blocks. Gauges hold the latest value and fps, speed and bitrate also keep a rolling window of
+ * recent samples for quantiles.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class RecordStats {
+
+    /**
+     * Samples kept in each rolling window.
+     */
+    public static final int WINDOW = 64;
+    /**
+     * Frames per second.
+     */
+    private final Window fps = new Window(WINDOW);
+    /**
+     * Encoding speed where 1.0 is real time.
+     */
+    private final Window speed = new Window(WINDOW);
+    /**
+     * Bitrate in kbits/s.
+     */
+    private final Window bitrate = new Window(WINDOW);
+    /**
+     * Output size in bytes.
+     */
+    private final AtomicLong size = new AtomicLong();
+    /**
+     * Frames written.
+     */
+    private final AtomicLong frames = new AtomicLong();
+    /**
+     * Frames dropped by ffmpeg.
+     */
+    private final AtomicLong drop = new AtomicLong();
+    /**
+     * Frames duplicated by ffmpeg.
+     */
+    private final AtomicLong dup = new AtomicLong();
+    /**
+     * Output time in milliseconds.
+     */
+    private final AtomicLong outTime = new AtomicLong();
+    /**
+     * Epoch milliseconds of recording start.
+     */
+    private final AtomicLong started = new AtomicLong();
+    /**
+     * Epoch milliseconds of last progress update.
+     */
+    private final AtomicLong updated = new AtomicLong();
+    /**
+     * Epoch milliseconds of first progress with output time.
+     */
+    private final AtomicLong firstUpdated = new AtomicLong();
+    /**
+     * Output time in milliseconds at first progress.
+     */
+    private final AtomicLong firstOutTime = new AtomicLong();
+    /**
+     * Epoch milliseconds speed first dropped below minimum or 0 if not slow.
+     */
+    private final AtomicLong slowSince = new AtomicLong();
+    /**
+     * Number of stalls.
+     */
+    private final AtomicLong stalls = new AtomicLong();
+    /**
+     * Stall in progress.
+     */
+    private final AtomicBoolean stalled = new AtomicBoolean();
+    /**
+     * Minimum speed before recording is considered slow.
+     */
+    private volatile double minSpeed = 1.0;
+
+    /**
+     * Rolling window of double samples stored as long bits.
+     */
+    public static final class Window {
+
+        /**
+         * Samples.
+         */
+        private final AtomicLongArray samples;
+        /**
+         * Total samples added.
+         */
+        private final AtomicLong count = new AtomicLong();
+        /**
+         * Last sample as long bits.
+         */
+        private final AtomicLong last = new AtomicLong();
+
+        /**
+         * Create window.
+         *
+         * @param size Number of samples to keep.
+         */
+        public Window(final int size) {
+            samples = new AtomicLongArray(size);
+        }
+
+        /**
+         * Add sample overwriting the oldest.
+         *
+         * @param value Sample.
+         */
+        public void add(final double value) {
+            final var bits = Double.doubleToRawLongBits(value);
+            samples.set((int) (count.getAndIncrement() % samples.length()), bits);
+            last.set(bits);
+        }
+
+        /**
+         * Latest sample.
+         *
+         * @return Latest sample or 0.0.
+         */
+        public double last() {
+            return Double.longBitsToDouble(last.get());
+        }
+
+        /**
+         * Clear samples.
+         */
+        public void reset() {
+            count.set(0);
+            last.set(0);
+        }
+
+        /**
+         * Sorted copy of samples in window. A writer may overwrite a slot while copying, which only skews one sample.
+         *
+         * @return Sorted samples.
+         */
+        public double[] snapshot() {
+            final var n = (int) Math.min(count.get(), samples.length());
+            final var values = new double[n];
+            for (var i = 0; i < n; i++) {
+                values[i] = Double.longBitsToDouble(samples.get(i));
+            }
+            Arrays.sort(values);
+            return values;
+        }
+
+        /**
+         * Quantile of sorted samples.
+         *
+         * @param sorted Sorted samples.
+         * @param q Quantile 0.0 to 1.0.
+         * @return Quantile or 0.0 if there are no samples.
+         */
+        public static double quantile(final double[] sorted, final double q) {
+            return sorted.length == 0 ? 0.0 : sorted[(int) Math.round(q * (sorted.length - 1))];
+        }
+
+        /**
+         * Mean of samples.
+         *
+         * @param values Samples.
+         * @return Mean or 0.0 if there are no samples.
+         */
+        public static double mean(final double[] values) {
+            return values.length == 0 ? 0.0 : Arrays.stream(values).sum() / values.length;
+        }
+    }
+
+    public Window getFps() {
+        return fps;
+    }
+
+    public Window getSpeed() {
+        return speed;
+    }
+
+    public Window getBitrate() {
+        return bitrate;
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    public long getFrames() {
+        return frames.get();
+    }
+
+    public long getDrop() {
+        return drop.get();
+    }
+
+    public long getDup() {
+        return dup.get();
+    }
+
+    public long getOutTime() {
+        return outTime.get();
+    }
+
+    public long getStarted() {
+        return started.get();
+    }
+
+    public long getUpdated() {
+        return updated.get();
+    }
+
+    /**
+     * See if ffmpeg has written any output.
+     *
+     * @return True after first progress with output time.
+     */
+    public boolean hasOutput() {
+        return firstUpdated.get() > 0;
+    }
+
+    /**
+     * Estimate wall clock time of first frame written. This is the first progress time less the output time it reported.
+     *
+     * @return Epoch milliseconds or 0 if there has been no output.
+     */
+    public long getFirstFrameTime() {
+        final var first = firstUpdated.get();
+        return first > 0 ? first - firstOutTime.get() : 0;
+    }
+
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    public boolean isStalled() {
+        return stalled.get();
+    }
+
+    public double getMinSpeed() {
+        return minSpeed;
+    }
+
+    public RecordStats setMinSpeed(final double minSpeed) {
+        this.minSpeed = minSpeed;
+        return this;
+    }
+
+    /**
+     * Clear values when recording starts.
+     *
+     * @param now Epoch milliseconds.
+     */
+    public void reset(final long now) {
+        fps.reset();
+        speed.reset();
+        bitrate.reset();
+        size.set(0);
+        frames.set(0);
+        drop.set(0);
+        dup.set(0);
+        outTime.set(0);
+        started.set(now);
+        updated.set(now);
+        firstUpdated.set(0);
+        firstOutTime.set(0);
+        slowSince.set(0);
+        stalled.set(false);
+    }
+
+    /**
+     * Update from ffmpeg progress. Values ffmpeg did not report are left unchanged.
+     *
+     * @param progress Progress.
+     * @param now Epoch milliseconds.
+     */
+    public void update(final FFmpegProgress progress, final long now) {
+        if (progress.getFps() != null) {
+            fps.add(progress.getFps());
+        }
+        if (progress.getBitrate() != null) {
+            bitrate.add(progress.getBitrate());
+        }
+        if (progress.getSpeed() != null) {
+            speed.add(progress.getSpeed());
+            if (progress.getSpeed() < minSpeed) {
+                slowSince.compareAndSet(0, now);
+            } else {
+                slowSince.set(0);
+            }
+        }
+        if (progress.getSize() != null) {
+            size.set(progress.getSize());
+        }
+        if (progress.getFrame() != null) {
+            frames.set(progress.getFrame());
+        }
+        if (progress.getDrop() != null) {
+            drop.set(progress.getDrop());
+        }
+        if (progress.getDup() != null) {
+            dup.set(progress.getDup());
+        }
+        if (progress.getTimeMillis() != null) {
+            outTime.set(progress.getTimeMillis());
+            // Only the progress thread writes, so no race setting first values
+            if (progress.getTimeMillis() > 0 && firstUpdated.get() == 0) {
+                firstOutTime.set(progress.getTimeMillis());
+                firstUpdated.set(now);
+            }
+        }
+        updated.set(now);
+    }
+
+    /**
+     * See if a stall started. Recording is stalled when there has been no progress or speed has stayed below minSpeed for timeout
+     * milliseconds.
+     *
+     * @param now Epoch milliseconds.
+     * @param timeout Milliseconds.
+     * @return True only on the check that detects a new stall.
+     */
+    public boolean checkStall(final long now, final long timeout) {
+        final var slow = slowSince.get();
+        final var stall = now - updated.get() > timeout || (slow > 0 && now - slow > timeout);
+        var newStall = false;
+        if (stall) {
+            if (stalled.compareAndSet(false, true)) {
+                stalls.incrementAndGet();
+                newStall = true;
+            }
+        } else {
+            stalled.set(false);
+        }
+        return newStall;
+    }
+
+    /**
+     * Describe why recording is stalled.
+     *
+     * @param now Epoch milliseconds.
+     * @return Reason.
+     */
+    public String stallReason(final long now) {
+        return String.format("No progress for %d ms, speed %.2fx, fps %.1f", now - updated.get(), speed.last(), fps.last());
+    }
+
+    /**
+     * Short summary of recording.
+     *
+     * @return Summary.
+     */
+    public String summary() {
+        final var fpsValues = fps.snapshot();
+        final var speedValues = speed.snapshot();
+        return String.format("fps %.1f/%.1f/%.1f speed %.2f/%.2f kbps %.0f size %d frames %d drop %d dup %d stalls %d",
+                Window.quantile(fpsValues, 0.0), Window.mean(fpsValues), Window.quantile(fpsValues, 1.0), Window.quantile(
+                speedValues, 0.0), Window.mean(speedValues), Window.mean(bitrate.snapshot()), size.get(), frames.get(), drop.get(),
+                dup.get(), stalls.get());
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.image;
+
+import com.codeferm.alarmbian.type.Convert;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Crop motion region of interest and resize it to the detection model's input size. The region is padded, made square so the
+ * model sees the same aspect ratio it was trained on and shifted to stay inside the frame. Upscaling is limited by maxScale so a
+ * few changed pixels do not turn into a blurry crop. Without a region the frame is returned as is. Use mapX and mapY to convert
+ * coordinates in the returned image back to the frame.
+ *
+ * We reuse the same Mat every time, so this class is not thread safe.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class RoiCrop extends Convert<Mat, Mat> {
+
+    /**
+     * Model input size in pixels.
+     */
+    private int size;
+    /**
+     * Padding added to each side as a fraction of region size.
+     */
+    private double pad;
+    /**
+     * Maximum upscale factor.
+     */
+    private double maxScale;
+    /**
+     * Motion region or null for whole frame unchanged.
+     */
+    private Rect roi;
+    /**
+     * Region of frame that was cropped.
+     */
+    private Rect crop;
+    /**
+     * Resized crop.
+     */
+    private Mat resized;
+    /**
+     * Crop pixels per output pixel horizontally.
+     */
+    private double scaleX;
+    /**
+     * Crop pixels per output pixel vertically.
+     */
+    private double scaleY;
+
+    public int getSize() {
+        return size;
+    }
+
+    public RoiCrop setSize(final int size) {
+        this.size = size;
+        return this;
+    }
+
+    public double getPad() {
+        return pad;
+    }
+
+    public RoiCrop setPad(final double pad) {
+        this.pad = pad;
+        return this;
+    }
+
+    public double getMaxScale() {
+        return maxScale;
+    }
+
+    public RoiCrop setMaxScale(final double maxScale) {
+        this.maxScale = maxScale;
+        return this;
+    }
+
+    public Rect getRoi() {
+        return roi;
+    }
+
+    public RoiCrop setRoi(final Rect roi) {
+        this.roi = roi;
+        return this;
+    }
+
+    public Rect getCrop() {
+        return crop;
+    }
+
+    /**
+     * Allocate Mat.
+     */
+    public void init() {
+        log.debug("init");
+        resized = new Mat();
+    }
+
+    /**
+     * Crop and resize region of interest.
+     *
+     * @param source Full frame.
+     * @return Resized crop, or source if there is no region or the whole frame is already the model size.
+     */
+    @Override
+    public Mat execute(final Mat source) {
+        crop = cropRect(source.width(), source.height());
+        // Without a region the detector gets the frame it got before ROI mode
+        final var scale = roi == null ? 1.0 : size / (double) Math.max(crop.width, crop.height);
+        Mat dest;
+        if (crop.width == source.width() && crop.height == source.height() && scale == 1.0) {
+            dest = source;
+        } else {
+            final var subMat = source.submat(crop);
+            Imgproc.resize(subMat, resized, new Size(Math.round(crop.width * scale), Math.round(crop.height * scale)), 0, 0,
+                    scale < 1.0 ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+            subMat.release();
+            dest = resized;
+        }
+        scaleX = crop.width / (double) dest.width();
+        scaleY = crop.height / (double) dest.height();
+        return dest;
+    }
+
+    /**
+     * Padded square region centered on roi and shifted inside frame.
+     *
+     * @param width Frame width.
+     * @param height Frame height.
+     * @return Crop rectangle.
+     */
+    private Rect cropRect(final int width, final int height) {
+        final Rect rect;
+        if (roi == null || roi.area() == 0) {
+            rect = new Rect(0, 0, width, height);
+        } else {
+            final var side = Math.max((int) Math.round(Math.max(roi.width, roi.height) * (1.0 + 2.0 * pad)), (int) Math.round(size
+                    / maxScale));
+            final var w = Math.min(side, width);
+            final var h = Math.min(side, height);
+            final var x = Math.clamp(roi.x + roi.width / 2 - w / 2, 0, width - w);
+            final var y = Math.clamp(roi.y + roi.height / 2 - h / 2, 0, height - h);
+            rect = new Rect(x, y, w, h);
+        }
+        return rect;
+    }
+
+    /**
+     * Map x in returned image to frame.
+     *
+     * @param x X in returned image.
+     * @return X in frame.
+     */
+    public int mapX(final int x) {
+        return crop.x + (int) Math.round(x * scaleX);
+    }
+
+    /**
+     * Map y in returned image to frame.
+     *
+     * @param y Y in returned image.
+     * @return Y in frame.
+     */
+    public int mapY(final int y) {
+        return crop.y + (int) Math.round(y * scaleY);
+    }
+
+    /**
+     * Release Mat memory.
+     */
+    public void done() {
+        log.debug("done");
+        resized.release();
+    }
+}
@@ -4,18 +4,27 @@
 package com.codeferm.alarmbian.service;
 
 import com.codeferm.alarmbian.dao.EventDao;
+import com.codeferm.alarmbian.dao.HistoryDao;
+import com.codeferm.alarmbian.dao.PartitionDao;
+import com.codeferm.alarmbian.dao.RollupDao;
 import com.codeferm.alarmbian.entity.Event;
 import jakarta.validation.Valid;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
 /**
- * Event service.
+ * Event service. If partition.enabled is true new events go to PartitionDao tables and cleaning drops expired partitions. Reads by
+ * ID only see the base EVENT table. Creating events adds motion to RollupDao hours in the same transaction.
  *
  * @author Steven P. Goldsmith
  * @version 1.0.0
@@ -26,6 +35,12 @@ public class EventService {
 
     @Autowired
     private EventDao eventDao;
+    @Autowired
+    private PartitionDao partitionDao;
+    @Autowired
+    private HistoryDao historyDao;
+    @Autowired
+    private RollupDao rollupDao;
 
     /**
      * Create Event if identity is null. Identity is generated.
@@ -36,7 +51,39 @@ public class EventService {
     @Transactional
     public Event create(@Valid final Event entity) {
         Assert.isNull(entity.getId(), "Identity field must be null");
-        return eventDao.save(entity);
+        return createAll(List.of(entity)).get(0);
+    }
+
+    /**
+     * Create Events with one JDBC batch insert per table. Identities are generated. Rollups are added after inserting, since
+     * creating a partition commits.
+     *
+     * @param entities Event entities with null identity.
+     * @return Event entities with identity in the same order.
+     */
+    @Transactional
+    public List<Event> createAll(final List<Event> entities) {
+        if (!partitionDao.isEnabled()) {
+            final var list = eventDao.insert("EVENT", entities);
+            rollupDao.addEvents(list);
+            return list;
+        }
+        // Create partitions before any insert since DDL commits
+        final var tables = new LinkedHashMap<String, List<Integer>>();
+        for (var i = 0; i < entities.size(); i++) {
+            final var entity = entities.get(i);
+            final var table = partitionDao.ensure(entity.getDeviceName(), entity.getEventTime()).eventTable();
+            tables.computeIfAbsent(table, k -> new ArrayList<>()).add(i);
+        }
+        final var events = new Event[entities.size()];
+        tables.forEach((table, indexes) -> {
+            final var list = eventDao.insert(table, indexes.stream().map(entities::get).toList());
+            for (var i = 0; i < indexes.size(); i++) {
+                events[indexes.get(i)] = list.get(i);
+            }
+        });
+        rollupDao.addEvents(entities);
+        return Arrays.asList(events);
     }
 
     /**
@@ -79,7 +126,7 @@ public class EventService {
     @Transactional
     public Event update(@Valid final Event entity) {
         Assert.notNull(entity.getId(), "Identity field must not be null");
-        return eventDao.save(entity);
+        return eventDao.update(entity);
     }
 
     /**
@@ -112,24 +159,116 @@ public class EventService {
     }
 
     /**
-     * Find events by device name and timestamp.
+     * Find events by device name and timestamp. Partitioned events are returned once their whole partition is older than timestamp,
+     * so they are cleaned together with the partition.
      *
      * @param deviceName Device name.
      * @param timestamp Timestamp.
      * @return List of Event.
      */
     public List<Event> findByTime(final String deviceName, final Timestamp timestamp) {
-        return eventDao.findByTime(deviceName, timestamp);
+        final var list = new ArrayList<>(eventDao.findByTime("EVENT", deviceName, timestamp));
+        if (partitionDao.isEnabled()) {
+            list.addAll(partitionDao.findExpired(deviceName, timestamp));
+        }
+        return list;
+    }
+
+    /**
+     * Find events by device name in time range. Partitions that do not overlap the range are not read.
+     *
+     * @param deviceName Device name.
+     * @param from Range start.
+     * @param to Range end.
+     * @return List of Event ordered by event time.
+     */
+    public List<Event> findByRange(final String deviceName, final Timestamp from, final Timestamp to) {
+        if (!partitionDao.isEnabled()) {
+            return eventDao.findByRange("EVENT", deviceName, from, to);
+        }
+        final var list = new ArrayList<>(eventDao.findByRange("EVENT", deviceName, from, to));
+        list.addAll(partitionDao.findByRange(deviceName, from, to));
+        list.sort(Comparator.comparing(Event::getEventTime));
+        return list;
+    }
+
+    /**
+     * Read page of events ordered by event time and ID without collecting them.
+     *
+     * @param filter Page filter.
+     * @param consumer Gets each Event.
+     * @return Cursor of next page or null if this is the last page.
+     */
+    public HistoryDao.Cursor page(final HistoryDao.Filter filter, final Consumer<Event> consumer) {
+        return historyDao.events(filter, consumer);
+    }
+
+    /**
+     * Tables with events to clean. Partitions are cleaned once their whole period is older than timestamp.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @return Base EVENT table followed by expired partition event tables.
+     */
+    public List<String> expiredTables(final String deviceName, final Timestamp timestamp) {
+        final var list = new ArrayList<>(List.of("EVENT"));
+        if (partitionDao.isEnabled()) {
+            partitionDao.expired(deviceName, timestamp).forEach(partition -> list.add(partition.eventTable()));
+        }
+        return list;
+    }
+
+    /**
+     * Find chunk of events to clean in table.
+     *
+     * @param table Table from expiredTables.
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @param after Cursor of last event of previous chunk or null for first chunk.
+     * @param limit Chunk size.
+     * @param filesOnly Only get events with files to delete.
+     * @return List of Event ordered by event time and ID.
+     */
+    public List<Event> findExpired(final String table, final String deviceName, final Timestamp timestamp,
+            final HistoryDao.Cursor after, final int limit, final boolean filesOnly) {
+        return eventDao.findExpired(table, deviceName, timestamp, after, limit, filesOnly);
+    }
+
+    /**
+     * Delete chunk of events in its own transaction.
+     *
+     * @param table Table from expiredTables.
+     * @param list Event entities.
+     * @return Records deleted.
+     */
+    @Transactional
+    public int deleteAll(final String table, final List<Event> list) {
+        return eventDao.deleteAllById(table, list.stream().map(Event::getId).toList());
+    }
+
+    /**
+     * Drop partitions whose whole period is older than timestamp.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @return Records dropped.
+     */
+    public int dropExpired(final String deviceName, final Timestamp timestamp) {
+        return partitionDao.isEnabled() ? partitionDao.dropExpired(deviceName, timestamp) : 0;
     }
 
     /**
-     * Delete events by device name and timestamp.
+     * Delete events by device name and timestamp. Partitions whose whole period is older than timestamp are dropped.
      *
      * @param deviceName Device name.
      * @param timestamp Timestamp.
      * @return Records deleted.
      */
     public int deleteByTime(final String deviceName, final Timestamp timestamp) {
-        return eventDao.deleteByTime(deviceName, timestamp);
+        var count = eventDao.deleteByTime(deviceName, timestamp);
+        if (partitionDao.isEnabled()) {
+            count += partitionDao.dropExpired(deviceName, timestamp);
+        }
+        return count;
     }
 }
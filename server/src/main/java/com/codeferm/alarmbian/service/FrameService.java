@@ -4,17 +4,28 @@
 package com.codeferm.alarmbian.service;
 
 import com.codeferm.alarmbian.dao.FrameDao;
+import com.codeferm.alarmbian.dao.HistoryDao;
+import com.codeferm.alarmbian.dao.PartitionDao;
+import com.codeferm.alarmbian.dao.RollupDao;
 import com.codeferm.alarmbian.entity.Frame;
 import jakarta.validation.Valid;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
 /**
- * Frame service.
+ * Frame service. If partition.enabled is true new frames and detections go to PartitionDao tables. Reads by ID only see the base
+ * FRAME table. Creating frames adds detections to RollupDao hours in the same transaction.
  *
  * @author Steven P. Goldsmith
  * @version 1.0.0
@@ -25,6 +36,14 @@ public class FrameService {
 
     @Autowired
     private FrameDao frameDao;
+    @Autowired
+    private PartitionDao partitionDao;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private HistoryDao historyDao;
+    @Autowired
+    private RollupDao rollupDao;
     
     /**
      * Create Frame if identity is null. Identity is generated.
@@ -38,6 +57,85 @@ public class FrameService {
         return frameDao.save(entity);
     }
     
+    /**
+     * Create Frames and their Detections in one transaction. Frames are inserted with one JDBC batch per table that returns their
+     * keys, then all detections with a second batch. This avoids the delete and insert of child rows that saving an aggregate does.
+     *
+     * @param deviceName Device name used to pick partitions.
+     * @param entities Frame entities with null identity.
+     * @return Frame entities with identity in the same order. Detections have their frame ID set.
+     */
+    @Transactional
+    public List<Frame> createAll(final String deviceName, final List<Frame> entities) {
+        if (!partitionDao.isEnabled()) {
+            final var list = insert("FRAME", "DETECTION", entities);
+            rollupDao.addDetections(deviceName, list);
+            return list;
+        }
+        // Create partitions before any insert since DDL commits
+        final var partitions = new LinkedHashMap<PartitionDao.Partition, List<Integer>>();
+        for (var i = 0; i < entities.size(); i++) {
+            final var partition = partitionDao.ensure(deviceName, entities.get(i).getFrameTime());
+            partitions.computeIfAbsent(partition, k -> new ArrayList<>()).add(i);
+        }
+        final var frames = new Frame[entities.size()];
+        partitions.forEach((partition, indexes) -> {
+            final var list = insert(partition.frameTable(), partition.detectionTable(), indexes.stream().map(entities::get).
+                    toList());
+            for (var i = 0; i < indexes.size(); i++) {
+                frames[indexes.get(i)] = list.get(i);
+            }
+        });
+        rollupDao.addDetections(deviceName, entities);
+        return Arrays.asList(frames);
+    }
+
+    /**
+     * Insert Frames and their Detections with one JDBC batch each.
+     *
+     * @param frameTable Frame table name.
+     * @param detectionTable Detection table name.
+     * @param entities Frame entities with null identity.
+     * @return Frame entities with identity in the same order.
+     */
+    private List<Frame> insert(final String frameTable, final String detectionTable, final List<Frame> entities) {
+        final var sql = String.format("insert into %s (EVENT_ID, FRAME_TIME) values (?, ?)", frameTable);
+        final var frames = jdbcTemplate.execute(connection -> connection.prepareStatement(sql, new String[]{"ID"}),
+                (PreparedStatement statement) -> {
+                    for (final var entity : entities) {
+                        Assert.isNull(entity.getId(), "Identity field must be null");
+                        statement.setLong(1, entity.getEventId());
+                        statement.setTimestamp(2, entity.getFrameTime());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    final var list = new ArrayList<Frame>();
+                    try (final var keys = statement.getGeneratedKeys()) {
+                        while (keys.next()) {
+                            list.add(entities.get(list.size()).withId(keys.getLong(1)));
+                        }
+                    }
+                    return list;
+                });
+        final var detections = frames.stream().flatMap(frame -> frame.getDetections().stream().peek(detection -> detection.
+                setFrameId(frame.getId()))).toList();
+        if (!detections.isEmpty()) {
+            jdbcTemplate.batchUpdate(String.format("insert into %s (FRAME_ID, LABEL_, CONFIDENCE, Y_MIN, X_MIN, Y_MAX, X_MAX, "
+                    + "TRACK_ID) values (?, ?, ?, ?, ?, ?, ?, ?)", detectionTable), detections, detections.size(),
+                    (statement, detection) -> {
+                        statement.setLong(1, detection.getFrameId());
+                        statement.setString(2, detection.getLabel());
+                        statement.setDouble(3, detection.getConfidence());
+                        statement.setInt(4, detection.getYMin());
+                        statement.setInt(5, detection.getXMin());
+                        statement.setInt(6, detection.getYMax());
+                        statement.setInt(7, detection.getXMax());
+                        statement.setObject(8, detection.getTrackId(), Types.BIGINT);
+                    });
+        }
+        return frames;
+    }
+
     /**
      * Read Frame entity if identity is not null.
      *
@@ -109,4 +207,15 @@ public class FrameService {
     public long count() {
         return frameDao.count();
     }    
+
+    /**
+     * Read page of frames with their detections ordered by frame time and ID without collecting them.
+     *
+     * @param filter Page filter.
+     * @param consumer Gets each Frame.
+     * @return Cursor of next page or null if this is the last page.
+     */
+    public HistoryDao.Cursor page(final HistoryDao.Filter filter, final Consumer<Frame> consumer) {
+        return historyDao.frames(filter, consumer);
+    }
 }
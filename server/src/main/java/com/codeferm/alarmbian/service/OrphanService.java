@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.service;
+
+import com.codeferm.alarmbian.dao.EventDao;
+import com.codeferm.alarmbian.dao.EventDictionary;
+import com.codeferm.alarmbian.dao.OrphanDao;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Orphan service. Reads rows that reference files for reconciling them with the file system and deletes rows whose files are gone.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Service
+public class OrphanService {
+
+    @Autowired
+    private OrphanDao orphanDao;
+    @Autowired
+    private EventDao eventDao;
+    @Autowired
+    private EventDictionary dictionary;
+    @Autowired
+    private SegmentService segmentService;
+
+    /**
+     * Device by name without adding it.
+     *
+     * @param name Device name.
+     * @return Device with its root directory or empty if it has no rows yet.
+     */
+    public Optional<EventDictionary.Device> device(final String name) {
+        return dictionary.findDevice(name);
+    }
+
+    /**
+     * Count rows of device that reference files.
+     *
+     * @param device Device.
+     * @return Event and segment rows.
+     */
+    public long count(final EventDictionary.Device device) {
+        return orphanDao.count(device);
+    }
+
+    /**
+     * Read rows of device that reference files without collecting them.
+     *
+     * @param device Device.
+     * @param before Only rows at or before this time or null for all rows.
+     * @param consumer Gets each row.
+     */
+    public void rows(final EventDictionary.Device device, final Timestamp before, final Consumer<OrphanDao.FileRow> consumer) {
+        orphanDao.rows(device, before, consumer);
+    }
+
+    /**
+     * Delete rows of one table in one transaction. Segment bytes are subtracted from usage.
+     *
+     * @param table Table from FileRow.
+     * @param ids Row identities.
+     */
+    @Transactional
+    public void deleteAll(final String table, final List<Long> ids) {
+        if (table.equals("SEGMENT")) {
+            segmentService.deleteAllById(ids);
+        } else {
+            eventDao.deleteAllById(table, ids);
+        }
+    }
+}
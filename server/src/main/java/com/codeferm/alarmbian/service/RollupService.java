@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.service;
+
+import com.codeferm.alarmbian.dao.RollupDao;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Rollup service. EventService and FrameService add to rollups as they create rows, this reads them and rebuilds them from raw
+ * rows.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Service
+public class RollupService {
+
+    @Autowired
+    private RollupDao rollupDao;
+
+    /**
+     * First and last day of device's events.
+     *
+     * @param deviceName Device name.
+     * @return First and last day or empty list if device has no events.
+     */
+    public List<LocalDate> days(final String deviceName) {
+        return rollupDao.days(deviceName);
+    }
+
+    /**
+     * Rebuild device's rollups of one day in its own transaction.
+     *
+     * @param deviceName Device name.
+     * @param day Day.
+     * @return Rollup rows inserted.
+     */
+    @Transactional
+    public int rebuild(final String deviceName, final LocalDate day) {
+        return rollupDao.rebuild(deviceName, day);
+    }
+
+    /**
+     * Find detection rollups of device in time range.
+     *
+     * @param deviceName Device name.
+     * @param label Label or null for all labels.
+     * @param from Range start.
+     * @param to Range end.
+     * @return List of DetectionHour ordered by hour and label.
+     */
+    public List<RollupDao.DetectionHour> findDetections(final String deviceName, final String label, final Timestamp from,
+            final Timestamp to) {
+        return rollupDao.findDetections(deviceName, label, from, to);
+    }
+
+    /**
+     * Find motion rollups of device in time range.
+     *
+     * @param deviceName Device name.
+     * @param from Range start.
+     * @param to Range end.
+     * @return List of MotionHour ordered by hour.
+     */
+    public List<RollupDao.MotionHour> findMotion(final String deviceName, final Timestamp from, final Timestamp to) {
+        return rollupDao.findMotion(deviceName, from, to);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.service;
+
+import com.codeferm.alarmbian.dao.SegmentDao;
+import com.codeferm.alarmbian.entity.Segment;
+import jakarta.validation.Valid;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.Assert;
+
+/**
+ * Segment service. Creating and deleting segments keeps the USAGE_DAY running totals in step in the same transaction.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Service
+public class SegmentService {
+
+    @Autowired
+    private SegmentDao segmentDao;
+
+    /**
+     * Create Segment if identity is null. Identity is generated.
+     *
+     * @param entity Segment entity.
+     * @return Segment entity.
+     */
+    @Transactional
+    public Segment create(@Valid final Segment entity) {
+        Assert.isNull(entity.getId(), "Identity field must be null");
+        segmentDao.addUsage(entity.getDeviceName(), usageDate(entity), entity.getFileSize());
+        return segmentDao.save(entity);
+    }
+
+    /**
+     * Read Segment entity if identity is not null.
+     *
+     * @param id Entity identity.
+     * @return Segment entity.
+     */
+    public Optional<Segment> read(final Long id) {
+        Assert.notNull(id, "Identity field must not be null");
+        return segmentDao.findById(id);
+    }
+
+    /**
+     * Delete segment if identity is not null.
+     *
+     * @param id Entity identity.
+     */
+    @Transactional
+    public void delete(final Long id) {
+        Assert.notNull(id, "Identity field must not be null");
+        segmentDao.findById(id).ifPresent(entity -> deleteAll(List.of(entity)));
+    }
+
+    /**
+     * Count records.
+     *
+     * @return Total records.
+     */
+    public long count() {
+        return segmentDao.count();
+    }
+
+    /**
+     * Find segments overlapping time range.
+     *
+     * @param deviceName Device name.
+     * @param from Range start.
+     * @param to Range end.
+     * @return List of Segment.
+     */
+    public List<Segment> findByRange(final String deviceName, final Timestamp from, final Timestamp to) {
+        return segmentDao.findByRange(deviceName, from, to);
+    }
+
+    /**
+     * Find segments by device name that ended on or before timestamp.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @return List of Segment.
+     */
+    public List<Segment> findByTime(final String deviceName, final Timestamp timestamp) {
+        return segmentDao.findByTime(deviceName, timestamp);
+    }
+
+    /**
+     * Find oldest segments by device name that ended on or before timestamp.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @param limit Maximum rows.
+     * @return List of Segment.
+     */
+    public List<Segment> findByTime(final String deviceName, final Timestamp timestamp, final int limit) {
+        return segmentDao.findByTime(deviceName, timestamp, limit);
+    }
+
+    /**
+     * Delete segments by device name that ended on or before timestamp.
+     *
+     * @param deviceName Device name.
+     * @param timestamp Timestamp.
+     * @return Records deleted.
+     */
+    @Transactional
+    public int deleteByTime(final String deviceName, final Timestamp timestamp) {
+        segmentDao.subtractUsageByTime(deviceName, timestamp);
+        final var count = segmentDao.deleteByTime(deviceName, timestamp);
+        segmentDao.deleteEmptyUsage();
+        return count;
+    }
+
+    /**
+     * Find oldest segments for device.
+     *
+     * @param deviceName Device name.
+     * @param limit Maximum rows.
+     * @return List of Segment entities.
+     */
+    public List<Segment> findOldest(final String deviceName, final int limit) {
+        return segmentDao.findOldest(deviceName, limit);
+    }
+
+    /**
+     * Delete segments and subtract their bytes once per device and day.
+     *
+     * @param list Segment entities.
+     */
+    @Transactional
+    public void deleteAll(final List<Segment> list) {
+        final var usage = new HashMap<String, Map<Date, Long>>();
+        list.forEach(entity -> usage.computeIfAbsent(entity.getDeviceName(), key -> new HashMap<>()).merge(usageDate(entity),
+                entity.getFileSize(), Long::sum));
+        usage.forEach((deviceName, days) -> days.forEach((day, bytes) -> segmentDao.addUsage(deviceName, day, -bytes)));
+        segmentDao.deleteAll(list);
+        segmentDao.deleteEmptyUsage();
+    }
+
+    /**
+     * Delete segments by ID and subtract their bytes.
+     *
+     * @param ids Segment identities.
+     */
+    @Transactional
+    public void deleteAllById(final List<Long> ids) {
+        deleteAll(segmentDao.findAllById(ids));
+    }
+
+    /**
+     * Total segment bytes for device.
+     *
+     * @param deviceName Device name.
+     * @return Bytes.
+     */
+    public long findUsage(final String deviceName) {
+        return segmentDao.findUsage(deviceName);
+    }
+
+    /**
+     * Rebuild device's running totals from segments.
+     *
+     * @param deviceName Device name.
+     * @return Days rebuilt.
+     */
+    @Transactional
+    public int rebuildUsage(final String deviceName) {
+        segmentDao.deleteUsage(deviceName);
+        return segmentDao.insertUsage(deviceName);
+    }
+
+    /**
+     * Day segment bytes are counted against.
+     *
+     * @param entity Segment entity.
+     * @return Day.
+     */
+    private Date usageDate(final Segment entity) {
+        return Date.valueOf(entity.getStartTime().toLocalDateTime().toLocalDate());
+    }
+}
@@ -40,6 +40,18 @@ public enum EventType {
      * Stop recording.
      */
     RECORD_STOP,
+    /**
+     * Recording stopped making progress or fell behind real time.
+     */
+    RECORD_STALL,
+    /**
+     * Overlapped rollover from one recording to the next.
+     */
+    RECORD_HANDOVER,
+    /**
+     * Recording segment closed.
+     */
+    SEGMENT_STOP,
     /**
      * Start motion.
      */
@@ -56,6 +68,10 @@ public enum EventType {
      * Motion in effect.
      */
     MOTION_FRAME,
+    /**
+     * Motion clip extracted from recording.
+     */
+    MOTION_CLIP,
     /**
      * When motion percent resets due to maximum percent change.
      */
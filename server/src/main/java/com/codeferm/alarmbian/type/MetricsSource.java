@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.type;
+
+/**
+ * Component that publishes metrics on the metrics endpoint. Metrics are written in Prometheus text format with the device name as a
+ * label.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public interface MetricsSource {
+
+    /**
+     * Append metrics.
+     *
+     * @param out Metrics text.
+     */
+    void writeMetrics(StringBuilder out);
+
+    /**
+     * Append one sample.
+     *
+     * @param out Metrics text.
+     * @param name Metric name.
+     * @param device Device name.
+     * @param value Value.
+     */
+    default void sample(final StringBuilder out, final String name, final String device, final double value) {
+        out.append(String.format("%s{device=\"%s\"} %s%n", name, device, value));
+    }
+
+    /**
+     * Append one sample with an extra label.
+     *
+     * @param out Metrics text.
+     * @param name Metric name.
+     * @param device Device name.
+     * @param label Label name.
+     * @param labelValue Label value.
+     * @param value Value.
+     */
+    default void sample(final StringBuilder out, final String name, final String device, final String label,
+            final String labelValue, final double value) {
+        out.append(String.format("%s{device=\"%s\",%s=\"%s\"} %s%n", name, device, label, labelValue, value));
+    }
+
+    /**
+     * Append one quantile sample.
+     *
+     * @param out Metrics text.
+     * @param name Metric name.
+     * @param device Device name.
+     * @param quantile Quantile.
+     * @param value Value.
+     */
+    default void quantile(final StringBuilder out, final String name, final String device, final double quantile,
+            final double value) {
+        out.append(String.format("%s{device=\"%s\",quantile=\"%s\"} %s%n", name, device, quantile, value));
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.type;
+
+import com.codeferm.deepstack.Prediction;
+import java.util.List;
+import org.opencv.core.Mat;
+
+/**
+ * Detect objects in an image. Implementations are not thread safe, so use one instance per thread.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public abstract class ObjectDetector {
+
+    /**
+     * Allocate resources after properties are set.
+     */
+    public abstract void init();
+
+    /**
+     * Detect objects.
+     *
+     * @param image BGR image.
+     * @return Predictions in image coordinates.
+     */
+    public abstract List<Prediction> detect(final Mat image);
+
+    /**
+     * Release resources.
+     */
+    public abstract void done();
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.alarmbian.type;
+
+/**
+ * Which motion frames of a motion event are sent to detection.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public enum SamplePolicy {
+
+    /**
+     * First motion frame only.
+     */
+    FIRST,
+    /**
+     * One motion frame every interval.
+     */
+    INTERVAL,
+    /**
+     * Motion frame with the most motion so far, at most once every interval.
+     */
+    PEAK,
+    /**
+     * Motion frame with a blob detection has not seen yet or after a labeled track was lost, at most once every interval.
+     */
+    TRACK
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.deepstack;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Client side load balancer over Deepstack compatible endpoints. Each call goes to the healthy endpoint with the fewest outstanding
+ * requests, ties broken by latency EWMA. An endpoint is marked down after maxFailures consecutive failures and a health check
+ * every healthInterval milliseconds brings it back when its base URL answers.
+ *
+ * If hedging is on and a call has not finished by the endpoint's p95 latency (at least hedgeMin milliseconds) the same request is
+ * sent to the next best endpoint and the first response wins. The slower call still runs to completion, since Feign calls cannot
+ * be cancelled.
+ *
+ * This class is thread safe.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class Balancer {
+
+    /**
+     * Latency samples kept for p95.
+     */
+    private static final int SAMPLES = 64;
+
+    /**
+     * Endpoint state.
+     */
+    public static final class Endpoint {
+
+        /**
+         * Base URI used for health checks.
+         */
+        private final URI uri;
+        /**
+         * API URI passed to Feign.
+         */
+        private final URI apiUri;
+        /**
+         * Requests in flight.
+         */
+        private final AtomicInteger outstanding = new AtomicInteger();
+        /**
+         * Requests sent.
+         */
+        private final AtomicLong requests = new AtomicLong();
+        /**
+         * Requests failed.
+         */
+        private final AtomicLong failed = new AtomicLong();
+        /**
+         * Consecutive failures.
+         */
+        private final AtomicInteger failures = new AtomicInteger();
+        /**
+         * Endpoint is up.
+         */
+        private volatile boolean healthy = true;
+        /**
+         * Latency EWMA in milliseconds.
+         */
+        private double ewma;
+        /**
+         * Latency samples in milliseconds.
+         */
+        private final long[] samples = new long[SAMPLES];
+        /**
+         * Samples written.
+         */
+        private long count;
+
+        /**
+         * Create endpoint.
+         *
+         * @param uri Base URI.
+         * @param path API path.
+         */
+        public Endpoint(final URI uri, final String path) {
+            this.uri = uri;
+            this.apiUri = uri.resolve(path);
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public synchronized double getEwma() {
+            return ewma;
+        }
+
+        /**
+         * Add latency sample.
+         *
+         * @param millis Latency in milliseconds.
+         * @param alpha EWMA weight of new sample.
+         */
+        private synchronized void addLatency(final long millis, final double alpha) {
+            ewma = count == 0 ? millis : alpha * millis + (1.0 - alpha) * ewma;
+            samples[(int) (count++ % SAMPLES)] = millis;
+        }
+
+        /**
+         * 95th percentile latency.
+         *
+         * @return Latency in milliseconds or 0 if there are no samples.
+         */
+        public synchronized long getP95() {
+            final var sorted = Arrays.copyOf(samples, (int) Math.min(count, SAMPLES));
+            Arrays.sort(sorted);
+            return sorted.length == 0 ? 0 : sorted[(int) Math.ceil(0.95 * sorted.length) - 1];
+        }
+
+        /**
+         * Routing cost, lower is better.
+         *
+         * @return Cost.
+         */
+        private double cost() {
+            // Unknown latency counts as 1 ms so new endpoints get traffic
+            return (outstanding.get() + 1) * Math.max(getEwma(), 1.0);
+        }
+    }
+
+    /**
+     * Endpoints.
+     */
+    private final List<Endpoint> endpoints;
+    /**
+     * EWMA weight of new sample.
+     */
+    private double alpha;
+    /**
+     * Consecutive failures that mark endpoint down.
+     */
+    private int maxFailures;
+    /**
+     * Milliseconds between health checks.
+     */
+    private long healthInterval;
+    /**
+     * Hedge slow requests.
+     */
+    private boolean hedge;
+    /**
+     * Minimum milliseconds before hedging.
+     */
+    private long hedgeMin;
+    /**
+     * Requests hedged.
+     */
+    private final AtomicLong hedged = new AtomicLong();
+    /**
+     * Runs calls when hedging.
+     */
+    private ExecutorService executor;
+    /**
+     * Runs health checks.
+     */
+    private ScheduledExecutorService scheduler;
+    /**
+     * Health check client.
+     */
+    private HttpClient httpClient;
+
+    /**
+     * Create balancer.
+     *
+     * @param uris Base URIs.
+     * @param path API path relative to base URI.
+     */
+    public Balancer(final List<String> uris, final String path) {
+        endpoints = uris.stream().map(uri -> new Endpoint(URI.create(uri.endsWith("/") ? uri : uri + "/"), path)).toList();
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public Balancer setAlpha(final double alpha) {
+        this.alpha = alpha;
+        return this;
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    public Balancer setMaxFailures(final int maxFailures) {
+        this.maxFailures = maxFailures;
+        return this;
+    }
+
+    public long getHealthInterval() {
+        return healthInterval;
+    }
+
+    public Balancer setHealthInterval(final long healthInterval) {
+        this.healthInterval = healthInterval;
+        return this;
+    }
+
+    public boolean isHedge() {
+        return hedge;
+    }
+
+    public Balancer setHedge(final boolean hedge) {
+        this.hedge = hedge;
+        return this;
+    }
+
+    public long getHedgeMin() {
+        return hedgeMin;
+    }
+
+    public Balancer setHedgeMin(final long hedgeMin) {
+        this.hedgeMin = hedgeMin;
+        return this;
+    }
+
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    /**
+     * Start health checks and hedging threads.
+     */
+    public void init() {
+        log.debug("init");
+        httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(Math.max(healthInterval / 2, 100))).build();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "balancer-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkHealth, healthInterval, healthInterval, TimeUnit.MILLISECONDS);
+        if (hedge) {
+            executor = Executors.newCachedThreadPool(runnable -> {
+                final var thread = new Thread(runnable, "balancer-call");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        log.info(String.format("Balancing %d endpoints, hedge %s", endpoints.size(), hedge));
+    }
+
+    /**
+     * Stop threads.
+     */
+    public void done() {
+        log.debug("done");
+        scheduler.shutdownNow();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Pick endpoint with lowest cost.
+     *
+     * @param exclude Endpoint to skip or null.
+     * @return Endpoint or null if none are healthy.
+     */
+    private Endpoint choose(final Endpoint exclude) {
+        return endpoints.stream().filter(endpoint -> endpoint.healthy && endpoint != exclude).min(Comparator.comparingDouble(
+                Endpoint::cost)).orElse(null);
+    }
+
+    /**
+     * Call endpoint and record outcome.
+     *
+     * @param <T> Response type.
+     * @param endpoint Endpoint.
+     * @param call Call taking API URI.
+     * @return Response.
+     */
+    private <T> T invoke(final Endpoint endpoint, final Function<URI, T> call) {
+        endpoint.outstanding.incrementAndGet();
+        endpoint.requests.incrementAndGet();
+        final var start = System.nanoTime();
+        try {
+            final var response = call.apply(endpoint.apiUri);
+            endpoint.addLatency((System.nanoTime() - start) / 1000000, alpha);
+            endpoint.failures.set(0);
+            return response;
+        } catch (RuntimeException e) {
+            endpoint.failed.incrementAndGet();
+            if (endpoint.failures.incrementAndGet() >= maxFailures && endpoint.healthy) {
+                endpoint.healthy = false;
+                log.warn(String.format("%s down after %d failures", endpoint.uri, endpoint.failures.get()));
+            }
+            throw e;
+        } finally {
+            endpoint.outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * Call best endpoint, hedging to the next best if it is slow.
+     *
+     * @param <T> Response type.
+     * @param call Call taking API URI.
+     * @return Response.
+     */
+    public <T> T call(final Function<URI, T> call) {
+        final var primary = choose(null);
+        if (primary == null) {
+            throw new RuntimeException("No healthy endpoints");
+        }
+        if (!hedge) {
+            return invoke(primary, call);
+        }
+        final var first = CompletableFuture.supplyAsync(() -> invoke(primary, call), executor);
+        try {
+            return first.get(Math.max(primary.getP95(), hedgeMin), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            final var secondary = choose(primary);
+            if (secondary == null) {
+                return join(first);
+            }
+            hedged.incrementAndGet();
+            log.debug(String.format("Hedging %s to %s", primary.uri, secondary.uri));
+            final var second = CompletableFuture.supplyAsync(() -> invoke(secondary, call), executor);
+            // First success wins, fail only if both fail
+            final var winner = new CompletableFuture<T>();
+            final var failures = new AtomicInteger();
+            for (final var future : List.of(first, second)) {
+                future.whenComplete((response, error) -> {
+                    if (error == null) {
+                        winner.complete(response);
+                    } else if (failures.incrementAndGet() == 2) {
+                        winner.completeExceptionally(error);
+                    }
+                });
+            }
+            return join(winner);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(e.
+                    getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Wait for future and unwrap its exception.
+     *
+     * @param <T> Response type.
+     * @param future Future.
+     * @return Response.
+     */
+    private <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+    }
+
+    /**
+     * Probe base URI of each endpoint. Any HTTP response below 500 means the server is up.
+     */
+    private void checkHealth() {
+        for (final var endpoint : endpoints) {
+            boolean up;
+            try {
+                final var request = HttpRequest.newBuilder(endpoint.uri).timeout(Duration.ofMillis(Math.max(healthInterval / 2,
+                        100))).GET().build();
+                up = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() < 500;
+            } catch (IOException e) {
+                up = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (up && !endpoint.healthy) {
+                endpoint.failures.set(0);
+                endpoint.healthy = true;
+                log.info(String.format("%s up", endpoint.uri));
+            } else if (!up && endpoint.healthy) {
+                endpoint.healthy = false;
+                log.warn(String.format("%s failed health check", endpoint.uri));
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.deepstack;
+
+/**
+ * Stop calling a failing service for a while. After failureThreshold consecutive failures the circuit opens and calls are refused
+ * for openMillis. Then one trial call is allowed and the circuit closes if it works or opens again if it fails.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class CircuitBreaker {
+
+    /**
+     * Circuit state.
+     */
+    public enum State {
+        /**
+         * Calls allowed.
+         */
+        CLOSED,
+        /**
+         * Calls refused.
+         */
+        OPEN,
+        /**
+         * One trial call allowed.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Consecutive failures that open circuit.
+     */
+    private final int failureThreshold;
+    /**
+     * Milliseconds circuit stays open.
+     */
+    private final long openMillis;
+    /**
+     * Current state.
+     */
+    private State state = State.CLOSED;
+    /**
+     * Consecutive failures.
+     */
+    private int failures;
+    /**
+     * Time circuit opened.
+     */
+    private long openedAt;
+    /**
+     * Trial call in progress.
+     */
+    private boolean trial;
+    /**
+     * Times circuit opened.
+     */
+    private long opens;
+
+    /**
+     * Create circuit breaker.
+     *
+     * @param failureThreshold Consecutive failures that open circuit.
+     * @param openMillis Milliseconds circuit stays open.
+     */
+    public CircuitBreaker(final int failureThreshold, final long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * See if a call is allowed. A true return in HALF_OPEN state claims the trial call, so success or failure must be reported.
+     *
+     * @return True if call is allowed.
+     */
+    public synchronized boolean allow() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            trial = false;
+        }
+        var allowed = state == State.CLOSED;
+        if (state == State.HALF_OPEN && !trial) {
+            trial = true;
+            allowed = true;
+        }
+        return allowed;
+    }
+
+    /**
+     * Report successful call.
+     */
+    public synchronized void success() {
+        failures = 0;
+        trial = false;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Report failed call.
+     */
+    public synchronized void failure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            if (state != State.OPEN) {
+                opens++;
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            trial = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getOpens() {
+        return opens;
+    }
+}
@@ -3,6 +3,7 @@
  */
 package com.codeferm.deepstack;
 
+import java.net.URI;
 import org.springframework.cloud.openfeign.FeignClient;
 import static org.springframework.http.MediaType.MULTIPART_FORM_DATA_VALUE;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -12,6 +13,9 @@ import org.springframework.web.multipart.MultipartFile;
 /**
  * Deepstack AI client.
  *
+ * Methods with a URI argument send the request to that API URI (for example http://host/v1/vision) instead of deepstack.url, which
+ * lets Balancer pick the endpoint per call.
+ *
  * @author Steven P. Goldsmith
  * @version 1.0.0
  * @since 1.0.0
@@ -25,15 +29,24 @@ public interface Client {
     @PostMapping(path = "/face/", consumes = MULTIPART_FORM_DATA_VALUE)
     FaceDetectionResponse faceDetection(@RequestPart("image") MultipartFile image, @RequestPart("min_confidence") double minConfidence);
 
+    @PostMapping(path = "/face/", consumes = MULTIPART_FORM_DATA_VALUE)
+    FaceDetectionResponse faceDetection(URI apiUri, @RequestPart("image") MultipartFile image);
+
     @PostMapping(path = "/face/register", consumes = MULTIPART_FORM_DATA_VALUE)
     FaceRegisterResponse faceRegister(@RequestPart("image") MultipartFile image, @RequestPart("userid") String name);
 
     @PostMapping(path = "/face/recognize", consumes = MULTIPART_FORM_DATA_VALUE)
     FaceRecognizeResponse faceRecognize(@RequestPart("image") MultipartFile image);
 
+    @PostMapping(path = "/face/recognize", consumes = MULTIPART_FORM_DATA_VALUE)
+    FaceRecognizeResponse faceRecognize(URI apiUri, @RequestPart("image") MultipartFile image);
+
     @PostMapping(path = "/detection", consumes = MULTIPART_FORM_DATA_VALUE)
     ObjectDetectionResponse objectDetection(@RequestPart("image") MultipartFile image);
 
+    @PostMapping(path = "/detection", consumes = MULTIPART_FORM_DATA_VALUE)
+    ObjectDetectionResponse objectDetection(URI apiUri, @RequestPart("image") MultipartFile image);
+
     @PostMapping(path = "/scene", consumes = MULTIPART_FORM_DATA_VALUE)
     SceneDetectionResponse sceneDetection(@RequestPart("image") MultipartFile image);
 }
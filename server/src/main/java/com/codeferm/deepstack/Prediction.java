@@ -29,4 +29,13 @@ public class Prediction {
     @JsonProperty("x_max")
     int xMax;
 
+    public Prediction(final String label, final double confidence, final int yMin, final int xMin, final int yMax, final int xMax) {
+        this.label = label;
+        this.confidence = confidence;
+        this.yMin = yMin;
+        this.xMin = xMin;
+        this.yMax = yMax;
+        this.xMax = xMax;
+    }
+
 }
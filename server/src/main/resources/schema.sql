@@ -1,17 +1,47 @@
 -- Drop everything
 --drop all objects;
 
--- Event table
+-- Device, root is the directory event file names are stored relative to
+create table if not exists device (
+    id smallint auto_increment primary key,
+    name varchar(50) not null unique,
+    root varchar(255) not null
+);
+
+-- Event type code
+create table if not exists event_code (
+    id smallint auto_increment primary key,
+    name varchar(50) not null unique
+);
+
+-- Event file directory relative to device root or absolute if it starts with a separator
+create table if not exists path_ (
+    id int auto_increment primary key,
+    device_id smallint not null,
+    dir varchar(255) not null,
+    constraint uk_path unique (device_id, dir)
+);
+
+-- Event table, event_data is the file name without directory if path_id is not null
 create table if not exists event (
     id identity primary key,
-    device_name varchar(50) not null,
-    event_type varchar(50) not null,
+    device_id smallint not null,
+    type_id smallint not null,
+    path_id int null,
     event_data varchar(255) null,
     event_time timestamp not null
 );
 
--- Device name index
-create index if not exists event_device_name on event(device_name, event_type, event_time);
+-- Code columns for event tables created with names, EventDao moves names to codes and drops them
+alter table event add column if not exists device_id smallint null;
+alter table event add column if not exists type_id smallint null;
+alter table event add column if not exists path_id int null;
+
+-- Device, type and time index
+create index if not exists event_device_type_time on event(device_id, type_id, event_time);
+
+-- Device, time and ID index for keyset pages
+create index if not exists event_device_time on event(device_id, event_time, id);
 
 -- Detection frame
 create table if not exists frame (
@@ -21,6 +51,9 @@ create table if not exists frame (
     constraint fk_frame_event foreign key (event_id) references event(id) on delete cascade
 );
 
+-- Time and ID index for keyset pages
+create index if not exists frame_time on frame(frame_time, id);
+
 -- Deepstack detection
 create table if not exists detection (
     id identity primary key,
@@ -33,3 +66,52 @@ create table if not exists detection (
     x_max int not null,
     constraint fk_detection_frame foreign key (frame_id) references frame(id) on delete cascade
 );
+
+-- Track ID within event, added to existing databases
+alter table detection add column if not exists track_id bigint null;
+
+-- Partition tables take IDs from these so they are unique across partitions and base tables
+create sequence if not exists event_seq;
+create sequence if not exists frame_seq;
+create sequence if not exists detection_seq;
+
+-- Detection count and maximum confidence per device, hour and label
+create table if not exists detection_hour (
+    device_id smallint not null,
+    hour_time timestamp not null,
+    label_ varchar(50) not null,
+    detections bigint not null,
+    max_confidence float not null,
+    primary key (device_id, hour_time, label_)
+);
+
+-- Motion count and milliseconds per device and hour motion started
+create table if not exists motion_hour (
+    device_id smallint not null,
+    hour_time timestamp not null,
+    motions bigint not null,
+    duration bigint not null,
+    primary key (device_id, hour_time)
+);
+
+-- Recording segment
+create table if not exists segment (
+    id identity primary key,
+    device_name varchar(50) not null,
+    file_name varchar(255) not null,
+    start_time timestamp not null,
+    end_time timestamp not null,
+    duration bigint not null,
+    file_size bigint not null
+);
+
+-- Segment time range index
+create index if not exists segment_device_time on segment(device_name, start_time, end_time);
+
+-- Running total of segment bytes per device and day
+create table if not exists usage_day (
+    device_name varchar(50) not null,
+    usage_date date not null,
+    bytes bigint not null,
+    primary key (device_name, usage_date)
+);
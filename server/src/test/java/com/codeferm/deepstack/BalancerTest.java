@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.deepstack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codeferm.deepstack.stub.StubServer;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import feign.Feign;
+import feign.Retryer;
+import feign.form.spring.SpringFormEncoder;
+import feign.jackson.JacksonDecoder;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.openfeign.support.SpringMvcContract;
+
+/**
+ * Balancer against local StubServer instances with different latencies. Requests go through the Feign Client the same way
+ * DeepStackDetector sends them.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+class BalancerTest {
+
+    /**
+     * Deepstack client, the balancer supplies the URI of each call.
+     */
+    private Client client;
+    /**
+     * Stub servers started by a test.
+     */
+    private final List<StubServer> stubs = new ArrayList<>();
+    /**
+     * Balancer under test.
+     */
+    private Balancer balancer;
+
+    /**
+     * Create client.
+     */
+    @BeforeEach
+    void setUp() {
+        final var mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        // Spring Cloud OpenFeign does not retry either
+        client = Feign.builder().contract(new SpringMvcContract()).encoder(new SpringFormEncoder()).decoder(new JacksonDecoder(
+                mapper)).retryer(Retryer.NEVER_RETRY).target(Client.class, "http://127.0.0.1/v1/vision");
+    }
+
+    /**
+     * Stop balancer and stubs.
+     */
+    @AfterEach
+    void tearDown() {
+        if (balancer != null) {
+            balancer.done();
+        }
+        stubs.forEach(StubServer::stop);
+    }
+
+    /**
+     * Start stub with constant latency.
+     *
+     * @param port Port or 0 for a free port.
+     * @param median Latency in milliseconds.
+     * @return Started stub.
+     */
+    private StubServer stub(final int port, final double median) {
+        final var stub = new StubServer(port).setMedian(median).setSigma(0.0).setWorkers(8);
+        stub.start();
+        stubs.add(stub);
+        return stub;
+    }
+
+    /**
+     * Create and start balancer over stubs.
+     *
+     * @param hedge Hedge slow requests.
+     * @param healthInterval Milliseconds between health checks.
+     * @param servers Stubs in endpoint order.
+     * @return Started balancer.
+     */
+    private Balancer balancer(final boolean hedge, final long healthInterval, final StubServer... servers) {
+        balancer = new Balancer(List.of(servers).stream().map(StubServer::getUrl).toList(), "v1/vision").setAlpha(0.3).
+                setMaxFailures(2).setHealthInterval(healthInterval).setHedge(hedge).setHedgeMin(0);
+        balancer.init();
+        return balancer;
+    }
+
+    /**
+     * Send one detection request through balancer.
+     *
+     * @return Response.
+     */
+    private ObjectDetectionResponse detect() {
+        return balancer.call(apiUri -> client.objectDetection(apiUri, new Base64EncodedMultipartFile(new byte[]{1, 2, 3},
+                "test.jpg")));
+    }
+
+    /**
+     * Endpoint with lowest latency EWMA, the one Balancer picks when nothing is outstanding.
+     *
+     * @return Endpoint.
+     */
+    private Balancer.Endpoint fastest() {
+        return balancer.getEndpoints().stream().min(Comparator.comparingDouble(endpoint -> Math.max(endpoint.getEwma(), 1.0))).
+                orElseThrow();
+    }
+
+    /**
+     * Sequential calls go to the endpoint with the lower latency EWMA once both have been tried.
+     */
+    @Test
+    void ewmaPrefersFastEndpoint() {
+        final var slow = stub(0, 100);
+        final var fast = stub(0, 10);
+        balancer(false, 1000, slow, fast);
+        for (var i = 0; i < 20; i++) {
+            assertNotNull(detect().getPredictions());
+        }
+        // Slow endpoint is tried once while its latency is unknown
+        assertEquals(1, slow.getRequests());
+        assertEquals(19, fast.getRequests());
+        assertTrue(balancer.getEndpoints().get(0).getEwma() > balancer.getEndpoints().get(1).getEwma());
+    }
+
+    /**
+     * Concurrent calls spill over to the slow endpoint only when the fast one has enough requests outstanding to cost more.
+     *
+     * @throws InterruptedException Possible exception.
+     */
+    @Test
+    void leastOutstandingSpillsOver() throws InterruptedException {
+        final var slow = stub(0, 200);
+        final var fast = stub(0, 20);
+        balancer(false, 1000, fast, slow);
+        // First call goes to fast and second to slow while its latency is unknown
+        detect();
+        detect();
+        final var before = slow.getRequests();
+        final var executor = Executors.newFixedThreadPool(16);
+        for (var i = 0; i < 160; i++) {
+            executor.execute(this::detect);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        final var slowCalls = slow.getRequests() - before;
+        // Fast endpoint takes most calls, but not all of them with 16 outstanding
+        assertTrue(fast.getRequests() > slowCalls * 4, String.format("fast %d slow %d", fast.getRequests(), slowCalls));
+        assertTrue(slowCalls > 0, "no calls spilled over to slow endpoint");
+        balancer.getEndpoints().forEach(endpoint -> assertEquals(0, endpoint.getOutstanding()));
+    }
+
+    /**
+     * An endpoint that fails maxFailures times in a row is ejected and only gets traffic again after a health check passes.
+     *
+     * @throws InterruptedException Possible exception.
+     */
+    @Test
+    void failingEndpointEjectedAndRestored() throws InterruptedException {
+        final var failing = stub(0, 10);
+        final var port = failing.getPort();
+        final var good = stub(0, 50);
+        // First health check runs after both failed calls
+        balancer(false, 1000, failing, good);
+        final var endpoint = balancer.getEndpoints().get(0);
+        failing.stop();
+        stubs.remove(failing);
+        assertThrows(RuntimeException.class, this::detect);
+        assertTrue(endpoint.isHealthy());
+        assertThrows(RuntimeException.class, this::detect);
+        assertFalse(endpoint.isHealthy());
+        for (var i = 0; i < 10; i++) {
+            detect();
+        }
+        // Health check fails while the port is closed, so endpoint stays out
+        Thread.sleep(1200);
+        assertFalse(endpoint.isHealthy());
+        assertEquals(2, endpoint.getRequests());
+        assertEquals(10, good.getRequests());
+        final var restored = stub(port, 10);
+        final var deadline = System.currentTimeMillis() + 5000;
+        while (!endpoint.isHealthy() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(endpoint.isHealthy());
+        detect();
+        assertEquals(1, restored.getRequests());
+    }
+
+    /**
+     * A call slower than the primary's p95 is sent to the next endpoint and the faster response wins.
+     *
+     * @throws InterruptedException Possible exception.
+     */
+    @Test
+    void hedgeAfterP95() throws InterruptedException {
+        final var first = stub(0, 100);
+        final var second = stub(0, 100);
+        balancer(true, 1000, first, second);
+        for (var i = 0; i < 20; i++) {
+            detect();
+        }
+        // Let losing hedged calls finish, so nothing is outstanding
+        Thread.sleep(300);
+        final var primary = fastest();
+        final var secondary = balancer.getEndpoints().get(primary == balancer.getEndpoints().get(0) ? 1 : 0);
+        final var primaryStub = primary == balancer.getEndpoints().get(0) ? first : second;
+        final var p95 = primary.getP95();
+        final var hedged = balancer.getHedged();
+        final var secondaryRequests = secondary.getRequests();
+        primaryStub.setMedian(2000);
+        final var start = System.currentTimeMillis();
+        assertNotNull(detect().getPredictions());
+        final var elapsed = System.currentTimeMillis() - start;
+        assertEquals(hedged + 1, balancer.getHedged());
+        assertEquals(secondaryRequests + 1, secondary.getRequests());
+        // Hedge is sent no earlier than p95 and its response wins long before the primary's
+        assertTrue(elapsed >= p95, String.format("elapsed %d p95 %d", elapsed, p95));
+        assertTrue(elapsed < 1000, String.format("elapsed %d", elapsed));
+    }
+}
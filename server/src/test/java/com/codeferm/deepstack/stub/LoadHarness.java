@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.deepstack.stub;
+
+import static com.codeferm.alarmbian.type.EventType.MOTION_FRAME;
+import static com.codeferm.alarmbian.type.EventType.MOTION_START_ENTITY;
+
+import com.codeferm.alarmbian.DeepStackDetect;
+import com.codeferm.alarmbian.DetectScheduler;
+import com.codeferm.alarmbian.EventData;
+import com.codeferm.alarmbian.MotionDetect;
+import com.codeferm.alarmbian.dao.EventDao;
+import com.codeferm.alarmbian.dao.EventDictionary;
+import com.codeferm.alarmbian.dao.FrameDao;
+import com.codeferm.alarmbian.dao.HistoryDao;
+import com.codeferm.alarmbian.dao.PartitionDao;
+import com.codeferm.alarmbian.dao.RollupDao;
+import com.codeferm.alarmbian.entity.Event;
+import com.codeferm.alarmbian.service.EventService;
+import com.codeferm.alarmbian.service.FrameService;
+import com.codeferm.deepstack.Client;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import feign.Feign;
+import feign.form.spring.SpringFormEncoder;
+import feign.jackson.JacksonDecoder;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.cloud.openfeign.support.SpringMvcContract;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.ResourcePropertySource;
+import org.springframework.data.jdbc.repository.config.AbstractJdbcConfiguration;
+import org.springframework.data.jdbc.repository.config.EnableJdbcRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+/**
+ * Drive synthetic cameras through DetectScheduler, DeepStackDetect and the Feign Client. Each camera gets its own context with the
+ * real scheduler and detect beans sharing one in memory H2 database, so the latest frame slot, circuit breaker, ROI crop and frame
+ * persistence are the ones the server runs. A camera publishes a MOTION_START_ENTITY event and then a MOTION_FRAME every 1000 / fps
+ * milliseconds, and the INTERVAL sample policy with a 0 interval offers every frame to the slot. Each worker count in the list is
+ * run for the given seconds and the scheduler's own metrics are logged, so coalesced frames and wait and service quantiles are what
+ * the metrics endpoint would show. The quantiles cover the last 256 detections of each camera.
+ *
+ * It is test code, so it is not in the server jar. Run with java -Djava.library.path=... -cp
+ * server/target/classes:server/target/test-classes:... com.codeferm.deepstack.stub.LoadHarness cameras fps seconds workers [url].
+ * Workers is a comma separated list like 1,2,4. Without url an embedded StubServer is started.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class LoadHarness {
+
+    /**
+     * Shared database beans. Only FrameDao and SegmentDao are repositories.
+     */
+    @Configuration
+    @EnableTransactionManagement
+    @EnableJdbcRepositories(basePackageClasses = FrameDao.class)
+    @Import({EventDictionary.class, EventDao.class, PartitionDao.class, RollupDao.class, HistoryDao.class, EventService.class,
+        FrameService.class})
+    public static class Database extends AbstractJdbcConfiguration {
+
+        /**
+         * In memory database with schema.
+         *
+         * @return Data source.
+         */
+        @Bean(destroyMethod = "close")
+        public HikariDataSource dataSource() {
+            final var dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl("jdbc:h2:mem:load;DB_CLOSE_DELAY=-1");
+            dataSource.setUsername("sa");
+            dataSource.setPassword("sa");
+            new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(dataSource);
+            return dataSource;
+        }
+
+        /**
+         * JDBC template for DAOs.
+         *
+         * @param dataSource Data source.
+         * @return JDBC template.
+         */
+        @Bean
+        public JdbcTemplate jdbcTemplate(final DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        /**
+         * Named parameter template for repositories.
+         *
+         * @param jdbcTemplate JDBC template.
+         * @return Named parameter template.
+         */
+        @Bean
+        public NamedParameterJdbcTemplate namedParameterJdbcTemplate(final JdbcTemplate jdbcTemplate) {
+            return new NamedParameterJdbcTemplate(jdbcTemplate);
+        }
+
+        /**
+         * Transaction manager for services and repositories.
+         *
+         * @param dataSource Data source.
+         * @return Transaction manager.
+         */
+        @Bean
+        public PlatformTransactionManager transactionManager(final DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+    }
+
+    /**
+     * Motion detection that reports a fixed motion region, since frames do not go through motion detection.
+     */
+    private static final class FixedMotion extends MotionDetect {
+
+        /**
+         * Motion region.
+         */
+        private final Rect rect;
+
+        /**
+         * Create fixed motion.
+         *
+         * @param rect Motion region.
+         */
+        private FixedMotion(final Rect rect) {
+            this.rect = rect;
+        }
+
+        @Override
+        public double getMotionPercent() {
+            return 100.0 * rect.area() / (640 * 480);
+        }
+
+        @Override
+        public Rect getMotionRect() {
+            return rect;
+        }
+    }
+
+    /**
+     * Database and client context shared by cameras.
+     */
+    private final AnnotationConfigApplicationContext parent;
+
+    /**
+     * Create harness.
+     *
+     * @param url Deepstack base URL.
+     */
+    public LoadHarness(final String url) {
+        final var mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        final var client = Feign.builder().contract(new SpringMvcContract()).encoder(new SpringFormEncoder()).decoder(
+                new JacksonDecoder(mapper)).target(Client.class, String.format("%s/v1/vision", url));
+        // Server properties with every frame sampled and nothing that would skip the detector
+        final var properties = new HashMap<String, Object>();
+        properties.put("ffmpeg.output.path", System.getProperty("java.io.tmpdir"));
+        properties.put("partition.enabled", "false");
+        properties.put("detect.class", "com.codeferm.alarmbian.image.DeepStackDetector");
+        properties.put("detect.cache.size", "0");
+        properties.put("deepstack.url", url);
+        properties.put("deepstack.urls", "");
+        properties.put("deepstack.enabled", "true");
+        properties.put("deepstack.sample", "INTERVAL");
+        properties.put("deepstack.sample.interval", "0");
+        properties.put("deepstack.face.enabled", "false");
+        parent = new AnnotationConfigApplicationContext();
+        final var sources = parent.getEnvironment().getPropertySources();
+        sources.addFirst(new MapPropertySource("harness", properties));
+        try {
+            sources.addLast(new ResourcePropertySource("classpath:application.properties"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        parent.getBeanFactory().registerSingleton("client", client);
+        parent.register(Database.class);
+        parent.refresh();
+    }
+
+    /**
+     * Create camera context with its own scheduler and detect beans.
+     *
+     * @param name Device name.
+     * @param workers Detect workers.
+     * @param rect Motion region.
+     * @return Started context.
+     */
+    private AnnotationConfigApplicationContext camera(final String name, final int workers, final Rect rect) {
+        final var context = new AnnotationConfigApplicationContext();
+        context.setParent(parent);
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("camera", Map.of("device.name", name,
+                "deepstack.threads", String.valueOf(workers))));
+        context.getBeanFactory().registerSingleton("motionDetect", new FixedMotion(rect));
+        context.register(DeepStackDetect.class, DetectScheduler.class);
+        context.refresh();
+        return context;
+    }
+
+    /**
+     * Run cameras with workers each for seconds and log results.
+     *
+     * @param cameras Number of cameras.
+     * @param fps Frames per second published by each camera.
+     * @param seconds Seconds to run.
+     * @param workers Detect workers per camera.
+     * @return Summary line.
+     */
+    public String run(final int cameras, final double fps, final int seconds, final int workers) {
+        final var eventService = parent.getBean(EventService.class);
+        final var jdbcTemplate = parent.getBean(JdbcTemplate.class);
+        final var before = jdbcTemplate.queryForObject("select count(*) from frame", Long.class);
+        final var contexts = new ArrayList<AnnotationConfigApplicationContext>();
+        final var frames = new ArrayList<Mat>();
+        final var ticker = Executors.newSingleThreadScheduledExecutor();
+        final var period = Math.round(1000000.0 / fps);
+        for (var i = 0; i < cameras; i++) {
+            final var rect = new Rect(100 + i * 20, 100, 100, 200);
+            final var frame = new Mat(480, 640, CvType.CV_8UC3);
+            Core.randu(frame, 0, 255);
+            Imgproc.GaussianBlur(frame, frame, new Size(15, 15), 0);
+            Imgproc.rectangle(frame, new Point(rect.x, rect.y), new Point(rect.x + rect.width, rect.y + rect.height),
+                    new Scalar(255, 255, 255), -1);
+            frames.add(frame);
+            final var name = String.format("load%d", i + 1);
+            final var context = camera(name, workers, rect);
+            contexts.add(context);
+            // Detections reference the motion start event
+            final var event = eventService.create(new Event(name, "MOTION_START", "No file", new Timestamp(System.
+                    currentTimeMillis())));
+            context.publishEvent(new EventData<>(MOTION_START_ENTITY, event.getEventTime().toInstant(), event));
+            ticker.scheduleAtFixedRate(() -> context.publishEvent(new EventData<>(MOTION_FRAME, Instant.now(), frame)), 0, period,
+                    TimeUnit.MICROSECONDS);
+        }
+        try {
+            Thread.sleep(seconds * 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ticker.shutdownNow();
+        try {
+            ticker.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Closing stops workers after their current frame, so counts are final
+        final var schedulers = contexts.stream().map(context -> context.getBean(DetectScheduler.class)).toList();
+        contexts.forEach(AnnotationConfigApplicationContext::close);
+        frames.forEach(Mat::release);
+        final var out = new StringBuilder();
+        schedulers.forEach(scheduler -> scheduler.writeMetrics(out));
+        log.info(String.format("Metrics%n%s", out));
+        final var metrics = parse(out);
+        final var offered = total(metrics, "alarmbian_detect_offered");
+        final var coalesced = total(metrics, "alarmbian_detect_coalesced");
+        final var completed = total(metrics, "alarmbian_detect_completed");
+        final var stored = jdbcTemplate.queryForObject("select count(*) from frame", Long.class) - before;
+        final var summary = String.format(
+                "cameras %d, workers %d, offered %.0f, completed %.0f (%.1f/s), failed %.0f, rejected %.0f, coalesced %.0f "
+                + "(%.1f%%), wait p95 %.1f ms, service p50 %.1f ms, p95 %.1f ms, max %.1f ms, frames stored %d", cameras, workers,
+                offered, completed, completed / seconds, total(metrics, "alarmbian_detect_failed"), total(metrics,
+                "alarmbian_detect_rejected"), coalesced, offered == 0 ? 0.0 : 100.0 * coalesced / offered, max(metrics,
+                "alarmbian_detect_wait_ms", "0.95"), max(metrics, "alarmbian_detect_service_ms", "0.5"), max(metrics,
+                "alarmbian_detect_service_ms", "0.95"), max(metrics, "alarmbian_detect_service_ms", "1.0"), stored);
+        log.info(summary);
+        return summary;
+    }
+
+    /**
+     * Parse metrics text into sample names with labels and values.
+     *
+     * @param out Metrics text.
+     * @return Samples.
+     */
+    private static Map<String, Double> parse(final StringBuilder out) {
+        final var metrics = new HashMap<String, Double>();
+        for (final var line : out.toString().split("\\R")) {
+            final var space = line.lastIndexOf(' ');
+            if (space > 0) {
+                metrics.put(line.substring(0, space), Double.valueOf(line.substring(space + 1)));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Sum of a metric over cameras.
+     *
+     * @param metrics Samples.
+     * @param name Metric name.
+     * @return Sum.
+     */
+    private static double total(final Map<String, Double> metrics, final String name) {
+        return metrics.entrySet().stream().filter(entry -> entry.getKey().startsWith(name + "{")).mapToDouble(Map.Entry::getValue).
+                sum();
+    }
+
+    /**
+     * Worst camera quantile of a metric.
+     *
+     * @param metrics Samples.
+     * @param name Metric name.
+     * @param quantile Quantile label.
+     * @return Maximum or 0 if there are no samples.
+     */
+    private static double max(final Map<String, Double> metrics, final String name, final String quantile) {
+        return metrics.entrySet().stream().filter(entry -> entry.getKey().startsWith(name + "{") && entry.getKey().endsWith(String.
+                format("quantile=\"%s\"}", quantile))).mapToDouble(Map.Entry::getValue).max().orElse(0.0);
+    }
+
+    /**
+     * Run harness for each worker count.
+     *
+     * @param args cameras fps seconds workers [url].
+     */
+    public static void main(final String[] args) {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        final var cameras = Integer.parseInt(args[0]);
+        final var fps = Double.parseDouble(args[1]);
+        final var seconds = Integer.parseInt(args[2]);
+        final List<Integer> workers = Arrays.stream(args[3].split(",")).map(String::strip).map(Integer::valueOf).toList();
+        StubServer stub = null;
+        final String url;
+        if (args.length > 4) {
+            url = args[4];
+        } else {
+            stub = new StubServer(0).setWorkers(2);
+            stub.start();
+            url = stub.getUrl();
+        }
+        final var harness = new LoadHarness(url);
+        workers.forEach(count -> harness.run(cameras, fps, seconds, count));
+        harness.parent.close();
+        if (stub != null) {
+            log.info(String.format("Stub served %d requests, %d errors", stub.getRequests(), stub.getErrors()));
+            stub.stop();
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ */
+package com.codeferm.deepstack.stub;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Embedded Deepstack compatible server for load testing without Docker. It answers /v1/vision/detection, /v1/vision/face,
+ * /v1/vision/face/recognize and /v1/vision/scene with canned predictions after a log normal latency, and fails errorRate of
+ * requests with HTTP 500. At most workers requests are served at once and the rest wait, like a Deepstack box with one GPU. Any
+ * other path returns 200, so it passes Balancer health checks.
+ *
+ * It is test code, so it is not in the server jar. Run with java -cp server/target/classes:server/target/test-classes:...
+ * com.codeferm.deepstack.stub.StubServer port medianMs sigma errorRate workers. The benchmark module gets it from the server
+ * test jar.
+ *
+ * @author Steven P. Goldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@Slf4j
+public class StubServer {
+
+    static {
+        // Send response without waiting for a delayed ACK, otherwise each request takes 40 ms more. HttpServer reads this once.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * JSON mapper.
+     */
+    private final ObjectMapper mapper = new ObjectMapper();
+    /**
+     * Port to listen on, 0 picks a free port.
+     */
+    private final int port;
+    /**
+     * Median latency in milliseconds. Can be changed while running.
+     */
+    private volatile double median = 50.0;
+    /**
+     * Log normal sigma, 0 for constant latency.
+     */
+    private volatile double sigma = 0.5;
+    /**
+     * Fraction of requests that fail. Can be changed while running.
+     */
+    private volatile double errorRate;
+    /**
+     * Requests served at once.
+     */
+    private int workers = 1;
+    /**
+     * Canned object predictions.
+     */
+    private List<Map<String, Object>> objects = List.of(prediction("person", 0.91, 120, 200, 420, 320), prediction("car", 0.84,
+            260, 400, 380, 600));
+    /**
+     * Canned face predictions.
+     */
+    private List<Map<String, Object>> faces = List.of(prediction(null, 0.88, 30, 40, 90, 90));
+    /**
+     * Canned face recognition user ID.
+     */
+    private String userId = "unknown";
+    /**
+     * Canned scene label.
+     */
+    private String scene = "driveway";
+    /**
+     * Limits requests served at once.
+     */
+    private Semaphore permits;
+    /**
+     * HTTP server.
+     */
+    private HttpServer server;
+    /**
+     * Requests received.
+     */
+    private final AtomicLong requests = new AtomicLong();
+    /**
+     * Requests failed on purpose.
+     */
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Create server.
+     *
+     * @param port Port to listen on, 0 picks a free port.
+     */
+    public StubServer(final int port) {
+        this.port = port;
+    }
+
+    public double getMedian() {
+        return median;
+    }
+
+    public StubServer setMedian(final double median) {
+        this.median = median;
+        return this;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    public StubServer setSigma(final double sigma) {
+        this.sigma = sigma;
+        return this;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public StubServer setErrorRate(final double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public StubServer setWorkers(final int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    public List<Map<String, Object>> getObjects() {
+        return objects;
+    }
+
+    public StubServer setObjects(final List<Map<String, Object>> objects) {
+        this.objects = objects;
+        return this;
+    }
+
+    public List<Map<String, Object>> getFaces() {
+        return faces;
+    }
+
+    public StubServer setFaces(final List<Map<String, Object>> faces) {
+        this.faces = faces;
+        return this;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public StubServer setUserId(final String userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public String getScene() {
+        return scene;
+    }
+
+    public StubServer setScene(final String scene) {
+        this.scene = scene;
+        return this;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Port server is listening on.
+     *
+     * @return Port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Base URL of server.
+     *
+     * @return URL.
+     */
+    public String getUrl() {
+        return String.format("http://127.0.0.1:%d", getPort());
+    }
+
+    /**
+     * Canned prediction in Deepstack JSON form.
+     *
+     * @param label Label or null for faces.
+     * @param confidence Confidence.
+     * @param yMin Y min.
+     * @param xMin X min.
+     * @param yMax Y max.
+     * @param xMax X max.
+     * @return Prediction fields.
+     */
+    public static Map<String, Object> prediction(final String label, final double confidence, final int yMin, final int xMin,
+            final int yMax, final int xMax) {
+        final var map = new LinkedHashMap<String, Object>();
+        if (label != null) {
+            map.put("label", label);
+        }
+        map.put("confidence", confidence);
+        map.put("y_min", yMin);
+        map.put("x_min", xMin);
+        map.put("y_max", yMax);
+        map.put("x_max", xMax);
+        return map;
+    }
+
+    /**
+     * Start server. Requests run on virtual threads and wait for a permit.
+     */
+    public void start() {
+        log.debug("start");
+        permits = new Semaphore(workers, true);
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        server.createContext("/v1/vision/detection", exchange -> handle(exchange, () -> Map.of("predictions", objects)));
+        server.createContext("/v1/vision/face", exchange -> handle(exchange, () -> Map.of("predictions", faces)));
+        server.createContext("/v1/vision/face/recognize", exchange -> handle(exchange, () -> Map.of("predictions", faces.stream().
+                map(face -> {
+                    final var map = new LinkedHashMap<>(face);
+                    map.put("userid", userId);
+                    return map;
+                }).toList())));
+        server.createContext("/v1/vision/scene", exchange -> handle(exchange, () -> Map.of("label", scene, "confidence", 0.9)));
+        server.createContext("/", this::handleRoot);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        log.info(String.format("Stub at %s median %.0f ms, sigma %.2f, error rate %.3f, workers %d", getUrl(), median, sigma,
+                errorRate, workers));
+    }
+
+    /**
+     * Stop server.
+     */
+    public void stop() {
+        log.debug("stop");
+        server.stop(0);
+    }
+
+    /**
+     * Drain request, wait for a permit and latency, then send canned response or an error.
+     *
+     * @param exchange HTTP exchange.
+     * @param body Response fields other than success and duration.
+     * @throws IOException Possible exception.
+     */
+    private void handle(final HttpExchange exchange, final Supplier<Map<String, Object>> body) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            final var start = System.currentTimeMillis();
+            permits.acquireUninterruptibly();
+            try {
+                Thread.sleep(latency());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                permits.release();
+            }
+            final var random = ThreadLocalRandom.current();
+            final var response = new LinkedHashMap<String, Object>();
+            final int status;
+            if (random.nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                status = 500;
+                response.put("success", false);
+                response.put("error", "stub error");
+            } else {
+                status = 200;
+                response.put("success", true);
+                response.putAll(body.get());
+            }
+            response.put("duration", System.currentTimeMillis() - start);
+            final var bytes = mapper.writeValueAsBytes(response);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    /**
+     * Answer health checks.
+     *
+     * @param exchange HTTP exchange.
+     * @throws IOException Possible exception.
+     */
+    private void handleRoot(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(200, -1);
+        }
+    }
+
+    /**
+     * Log normal latency around median.
+     *
+     * @return Latency in milliseconds.
+     */
+    private long latency() {
+        return Math.round(median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * Run stub until killed.
+     *
+     * @param args port medianMs sigma errorRate workers, all optional.
+     * @throws InterruptedException Possible exception.
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        final var server = new StubServer(args.length > 0 ? Integer.parseInt(args[0]) : 5000);
+        if (args.length > 1) {
+            server.setMedian(Double.parseDouble(args[1]));
+        }
+        if (args.length > 2) {
+            server.setSigma(Double.parseDouble(args[2]));
+        }
+        if (args.length > 3) {
+            server.setErrorRate(Double.parseDouble(args[3]));
+        }
+        if (args.length > 4) {
+            server.setWorkers(Integer.parseInt(args[4]));
+        }
+        server.start();
+        Thread.currentThread().join();
+    }
+}